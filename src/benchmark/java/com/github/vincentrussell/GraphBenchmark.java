@@ -0,0 +1,93 @@
+package com.github.vincentrussell;
+
+import com.github.vincentrussell.DependencyGraph.Node;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Walking the dependency graph and mediating versions for synthetic closures, without any I/O: the
+ * dependencies of every plugin are known up front, as if they all came from the update center metadata.
+ * Every plugin depends on two plugins further down and every fifth plugin also on its neighbour, which
+ * makes diamonds, and the versions asked for alternate so every plugin is seen in two versions.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GraphBenchmark {
+
+    @Param({"10", "100", "1000"})
+    private int plugins;
+
+    @Param({"HIGHEST", "NONE"})
+    private VersionMediation versionMediation;
+
+    private final Map<String, List<PluginDependency>> closure = new HashMap<>();
+
+    @Setup
+    public void setUp() {
+        for (int i = 0; i < plugins; i++) {
+            List<PluginDependency> dependencies = new ArrayList<>();
+            for (int dependency : new int[] {2 * i + 1, 2 * i + 2, i % 5 == 0 ? i + 1 : plugins}) {
+                if (dependency < plugins) {
+                    dependencies.add(new PluginDependency(SyntheticPlugins.GROUP_ID,
+                            SyntheticPlugins.artifactId(dependency), "1." + (i % 2), false));
+                }
+            }
+            closure.put(SyntheticPlugins.artifactId(i), dependencies);
+        }
+    }
+
+    @Benchmark
+    public Collection<Node> resolve() {
+        DependencyGraph graph = new DependencyGraph();
+        VersionMediator versionMediator = new VersionMediator(versionMediation);
+        List<Node> roots = Collections.singletonList(
+                graph.addIfAbsent(SyntheticPlugins.artifact(SyntheticPlugins.artifactId(0), "1.0")));
+
+        expand(graph, versionMediator, roots);
+        VersionMediator.Selection selection = versionMediator.select(graph, roots);
+        while (!selection.getUnexpanded().isEmpty()) {
+            expand(graph, versionMediator, selection.getUnexpanded());
+            selection = versionMediator.select(graph, roots);
+        }
+        return selection.getSelected();
+    }
+
+    private void expand(final DependencyGraph graph, final VersionMediator versionMediator, final List<Node> nodes) {
+        Queue<Node> pending = new ArrayDeque<>(nodes);
+        Node node;
+        while ((node = pending.poll()) != null) {
+            List<PluginDependency> dependencies = closure.get(node.getArtifact().getArtifactId());
+            node.setDependencies(dependencies);
+            for (PluginDependency dependency : dependencies) {
+                Node dependencyNode = graph.addIfAbsent(
+                        SyntheticPlugins.artifact(dependency.getArtifactId(), dependency.getVersion()));
+                if (dependencyNode != null && !versionMediator.isSuperseded(graph, dependencyNode)) {
+                    pending.add(dependencyNode);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.io.FileUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading the Plugin-Dependencies of an hpi, for hpis of different sizes and manifests of different lengths.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ManifestBenchmark {
+
+    @Param({"0", "10", "100"})
+    private int dependencies;
+
+    @Param({"64", "4096", "65536"})
+    private int kilobytes;
+
+    private File directory;
+    private File hpi;
+    private String attribute;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = SyntheticPlugins.createDirectory();
+        attribute = SyntheticPlugins.dependencyAttribute(dependencies);
+        hpi = new File(directory, "plugin.hpi");
+        SyntheticPlugins.createHpi(hpi, attribute, kilobytes * 1024L);
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Benchmark
+    public List<PluginDependency> readFromHpi() throws IOException {
+        return PluginDependency.readFromHpi(hpi);
+    }
+
+    @Benchmark
+    public List<PluginDependency> parseAttribute() {
+        return PluginDependency.parseAll(attribute);
+    }
+}
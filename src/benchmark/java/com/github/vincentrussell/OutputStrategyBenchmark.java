@@ -0,0 +1,67 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Putting resolved hpis into the download directory with every {@link OutputStrategy}.  The download
+ * directory isn't emptied between invocations, so this is the cost of a repeated run.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class OutputStrategyBenchmark {
+
+    @Param({"COPY", "SKIP_IF_IDENTICAL", "HARDLINK", "SYMLINK"})
+    private OutputStrategy outputStrategy;
+
+    @Param({"64", "4096"})
+    private int kilobytes;
+
+    private File directory;
+    private Artifact artifact;
+    private DownloadDirectory downloadDirectory;
+
+    @Setup
+    public void setUp() throws IOException {
+        directory = SyntheticPlugins.createDirectory();
+        File hpi = new File(directory, "repository/plugin-0-1.0.hpi");
+        FileUtils.forceMkdir(hpi.getParentFile());
+        SyntheticPlugins.createHpi(hpi, SyntheticPlugins.dependencyAttribute(10), kilobytes * 1024L);
+        artifact = SyntheticPlugins.artifact(SyntheticPlugins.artifactId(0), "1.0");
+        artifact.setFile(hpi);
+        downloadDirectory = new DownloadDirectory(new File(directory, "download"), outputStrategy,
+                new SystemStreamLog());
+    }
+
+    @TearDown
+    public void tearDown() {
+        FileUtils.deleteQuietly(directory);
+    }
+
+    @Benchmark
+    public File save() throws IOException {
+        downloadDirectory.save(artifact);
+        return downloadDirectory.getFile(artifact);
+    }
+}
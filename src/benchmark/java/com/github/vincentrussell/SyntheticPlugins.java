@@ -0,0 +1,77 @@
+package com.github.vincentrussell;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Random;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * Synthetic hpis and artifacts for the benchmarks.
+ */
+final class SyntheticPlugins {
+
+    static final String GROUP_ID = PluginDependency.DEFAULT_GROUP_ID;
+
+    private SyntheticPlugins() {
+    }
+
+    static File createDirectory() throws IOException {
+        return Files.createTempDirectory("jenkins-dependency-plugin-benchmark").toFile();
+    }
+
+    static String artifactId(final int index) {
+        return "plugin-" + index;
+    }
+
+    static Artifact artifact(final String artifactId, final String version) {
+        return new DefaultArtifact(GROUP_ID, artifactId, version, null, "hpi", null,
+                new DefaultArtifactHandler("hpi"));
+    }
+
+    /**
+     * @return a Plugin-Dependencies attribute with count entries, every third of them optional.
+     */
+    static String dependencyAttribute(final int count) {
+        StringBuilder attribute = new StringBuilder();
+        for (int i = 0; i < count; i++) {
+            if (i > 0) {
+                attribute.append(',');
+            }
+            attribute.append(artifactId(i)).append(":1.").append(i);
+            if (i % 3 == 2) {
+                attribute.append(";resolution:=optional");
+            }
+        }
+        return attribute.toString();
+    }
+
+    /**
+     * Writes an hpi with the dependency attribute and an incompressible entry so the file is about size bytes.
+     */
+    static void createHpi(final File hpi, final String dependencyAttribute, final long size) throws IOException {
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        if (!dependencyAttribute.isEmpty()) {
+            manifest.getMainAttributes().putValue(PluginDependency.PLUGIN_DEPENDENCIES, dependencyAttribute);
+        }
+        Random random = new Random(size);
+        byte[] buffer = new byte[8192];
+        try (JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(hpi), manifest)) {
+            jarOutputStream.putNextEntry(new JarEntry("WEB-INF/lib/filler.jar"));
+            for (long written = 0; written < size; written += buffer.length) {
+                random.nextBytes(buffer);
+                jarOutputStream.write(buffer, 0, (int) Math.min(buffer.length, size - written));
+            }
+            jarOutputStream.closeEntry();
+        }
+    }
+}
@@ -0,0 +1,15 @@
+package com.github.vincentrussell;
+
+/**
+ * Where a plugin was downloaded from.
+ */
+public enum ArtifactSource {
+    /**
+     * The local or a remote maven repository.
+     */
+    REPOSITORY,
+    /**
+     * The jenkins plugin server.
+     */
+    PLUGIN_SERVER
+}
@@ -0,0 +1,420 @@
+package com.github.vincentrussell;
+
+import com.github.vincentrussell.PluginServerMirrors.Mirror;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.SettableFuture;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.concurrent.FutureCallback;
+import org.apache.http.entity.ContentType;
+import org.apache.http.impl.nio.client.CloseableHttpAsyncClient;
+import org.apache.http.impl.nio.client.HttpAsyncClients;
+import org.apache.http.nio.ContentDecoder;
+import org.apache.http.nio.IOControl;
+import org.apache.http.nio.client.methods.HttpAsyncMethods;
+import org.apache.http.nio.protocol.AbstractAsyncResponseConsumer;
+import org.apache.http.protocol.HttpContext;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.MessageDigest;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads files from the plugin server with a non-blocking http client: a few io threads move the bodies
+ * of all downloads into file channels, so the number of downloads in flight isn't bound by threads.  Like
+ * {@link PluginServerDownloader} it writes .jdp-part files that are only renamed once they are complete and
+ * verified, reads the .sha256 file of the mirror it asks, fails over to the next mirror and retries every
+ * mirror with a doubling pause.  A download always starts from the beginning, .jdp-part files aren't resumed.
+ * <p>
+ * The per host limit is the size of the connection pool per route: a request waiting for a connection
+ * doesn't hold a thread either.
+ */
+public class AsyncPluginServerDownloader implements Closeable {
+
+    private static final int BUFFER_SIZE = 32 * 1024;
+
+    private final CloseableHttpAsyncClient httpClient;
+    private final PluginServerMirrors mirrors;
+    private final int retries;
+    private final long retryBackoff;
+    private final ScheduledExecutorService retryScheduler;
+    private final VerifiedChecksums verifiedChecksums;
+    private final Log log;
+
+    /**
+     * @param maxPerHost the requests in flight to the same host.
+     */
+    public AsyncPluginServerDownloader(final PluginServerMirrors mirrors, final int retries,
+                                       final long retryBackoff, final int maxPerHost, final int connectTimeout,
+                                       final int readTimeout, final VerifiedChecksums verifiedChecksums,
+                                       final Log log) {
+        this.mirrors = mirrors;
+        this.verifiedChecksums = verifiedChecksums;
+        this.retries = retries;
+        this.retryBackoff = retryBackoff;
+        this.log = log;
+        this.httpClient = HttpAsyncClients.custom()
+                .setMaxConnPerRoute(maxPerHost)
+                .setMaxConnTotal(maxPerHost * Math.max(1, mirrors.size()))
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setSocketTimeout(readTimeout)
+                        .build())
+                .setThreadFactory(daemon("plugin-server-io"))
+                .build();
+        this.httpClient.start();
+        this.retryScheduler = Executors.newSingleThreadScheduledExecutor(daemon("plugin-server-retry"));
+    }
+
+    /**
+     * Starts downloading path from the mirrors to target and, if copy isn't null, to copy in the same pass.
+     *
+     * @param expectedChecksum the checksum the file must have or null if it isn't known.
+     * @param readSidecar without an expectedChecksum, verify the file with the path.sha256 of the mirror
+     *                    it is downloaded from, if the mirror has one.
+     * @param metrics records the bytes, retries and the url used, or null.
+     * @return completes with false if none of the mirrors has the file, fails if the download keeps failing
+     * or the file doesn't match its checksum.  Cancelling it aborts the download.
+     */
+    public ListenableFuture<Boolean> download(final String path, final File target, final File copy,
+                                              final ExpectedChecksum expectedChecksum, final boolean readSidecar,
+                                              final DownloadMetrics.ArtifactMetrics metrics) throws IOException {
+        FileUtils.forceMkdir(target.getAbsoluteFile().getParentFile());
+        if (copy != null) {
+            FileUtils.forceMkdir(copy.getAbsoluteFile().getParentFile());
+        }
+        final Transfer transfer = new Transfer(path, target, copy, expectedChecksum, readSidecar, metrics);
+        transfer.result.addListener(new Runnable() {
+            @Override
+            public void run() {
+                if (transfer.result.isCancelled()) {
+                    transfer.abort();
+                }
+            }
+        }, MoreExecutors.directExecutor());
+        transfer.start();
+        return transfer.result;
+    }
+
+    @Override
+    public void close() throws IOException {
+        retryScheduler.shutdownNow();
+        httpClient.close();
+    }
+
+    private static ThreadFactory daemon(final String name) {
+        return new ThreadFactory() {
+            @Override
+            public Thread newThread(final Runnable runnable) {
+                Thread thread = new Thread(runnable, name);
+                thread.setDaemon(true);
+                return thread;
+            }
+        };
+    }
+
+    /**
+     * One download: the mirrors are asked one after the other, each answer decides whether the next
+     * mirror, the next round or nothing follows.
+     */
+    private class Transfer implements FutureCallback<Boolean> {
+        private final String path;
+        private final File target;
+        private final File copy;
+        private final File targetPart;
+        private final File copyPart;
+        private final ExpectedChecksum expectedChecksum;
+        private final boolean readSidecar;
+        private final DownloadMetrics.ArtifactMetrics metrics;
+        private final SettableFuture<Boolean> result = SettableFuture.create();
+        private List<Mirror> ordered;
+        private int mirror;
+        private int attempt;
+        private long backoff = retryBackoff;
+        private boolean failed;
+        private IOException lastException;
+        private volatile Future<?> request;
+        private volatile FileConsumer consumer;
+
+        Transfer(final String path, final File target, final File copy, final ExpectedChecksum expectedChecksum,
+                 final boolean readSidecar, final DownloadMetrics.ArtifactMetrics metrics) {
+            this.path = path;
+            this.target = target;
+            this.copy = copy;
+            this.targetPart = new File(target.getPath() + PluginServerDownloader.PART_SUFFIX);
+            this.copyPart = copy != null ? new File(copy.getPath() + PluginServerDownloader.PART_SUFFIX) : null;
+            this.expectedChecksum = expectedChecksum;
+            this.readSidecar = readSidecar;
+            this.metrics = metrics;
+        }
+
+        void start() {
+            ordered = mirrors.getMirrors();
+            mirror = 0;
+            failed = false;
+            send();
+        }
+
+        void abort() {
+            Future<?> current = request;
+            if (current != null) {
+                current.cancel(true);
+            }
+        }
+
+        private void send() {
+            if (result.isDone()) {
+                return;
+            }
+            if (expectedChecksum != null || !readSidecar) {
+                send(expectedChecksum);
+                return;
+            }
+            final Mirror current = ordered.get(mirror);
+            final String sidecarUrl = current.getUrl(path + PluginServerDownloader.SHA_256_SUFFIX);
+            request = httpClient.execute(new HttpGet(sidecarUrl), new FutureCallback<HttpResponse>() {
+                @Override
+                public void completed(final HttpResponse response) {
+                    ExpectedChecksum checksum;
+                    try {
+                        checksum = PluginServerDownloader.readSha256Sidecar(response, sidecarUrl, current, log);
+                    } catch (IOException e) {
+                        failed(e);
+                        return;
+                    }
+                    send(checksum);
+                }
+
+                @Override
+                public void failed(final Exception e) {
+                    current.recordFailure();
+                    log.warn("could not read " + sidecarUrl + ", downloading without verification: "
+                            + e.getMessage());
+                    send(null);
+                }
+
+                @Override
+                public void cancelled() {
+                    Transfer.this.cancelled();
+                }
+            });
+        }
+
+        /**
+         * Asks the current mirror for the file.
+         */
+        private void send(final ExpectedChecksum checksum) {
+            if (result.isDone()) {
+                return;
+            }
+            String url = ordered.get(mirror).getUrl(path);
+            consumer = new FileConsumer(url, targetPart, copyPart, checksum, metrics);
+            request = httpClient.execute(HttpAsyncMethods.createGet(url), consumer, this);
+        }
+
+        @Override
+        public void completed(final Boolean found) {
+            if (!found) {
+                next();
+                return;
+            }
+            ordered.get(mirror).recordSuccess();
+            try {
+                PluginServerDownloader.moveAtomically(targetPart, target);
+                verifiedChecksums.put(target, consumer.sha256);
+                if (copyPart != null) {
+                    PluginServerDownloader.moveAtomically(copyPart, copy);
+                    verifiedChecksums.put(copy, consumer.sha256);
+                }
+                result.set(true);
+            } catch (IOException e) {
+                deleteParts();
+                result.setException(e);
+            }
+        }
+
+        @Override
+        public void failed(final Exception e) {
+            if (e instanceof PluginServerDownloader.ChecksumMismatchException) {
+                deleteParts();
+                result.setException(e);
+                return;
+            }
+            Mirror failedMirror = ordered.get(mirror);
+            log.debug("download of " + failedMirror.getUrl(path) + " failed: " + e.getMessage());
+            failedMirror.recordFailure();
+            if (metrics != null) {
+                metrics.addRetry();
+            }
+            lastException = e instanceof IOException ? (IOException) e : new IOException(e.getMessage(), e);
+            failed = true;
+            next();
+        }
+
+        @Override
+        public void cancelled() {
+            deleteParts();
+            result.cancel(false);
+        }
+
+        private void next() {
+            if (++mirror < ordered.size()) {
+                send();
+                return;
+            }
+            if (!failed) {
+                deleteParts();
+                result.set(false);
+                return;
+            }
+            if (attempt++ >= retries) {
+                deleteParts();
+                result.setException(lastException);
+                return;
+            }
+            log.warn("retrying download of " + path + " in " + backoff + "ms: " + lastException.getMessage());
+            retryScheduler.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    start();
+                }
+            }, backoff, TimeUnit.MILLISECONDS);
+            backoff *= 2;
+        }
+
+        private void deleteParts() {
+            FileUtils.deleteQuietly(targetPart);
+            FileUtils.deleteQuietly(copyPart);
+        }
+    }
+
+    /**
+     * Writes the body of a 200 to the .jdp-part files, digesting it on the way; the body of a 404 or 410 is
+     * discarded and the result is false.
+     */
+    private static class FileConsumer extends AbstractAsyncResponseConsumer<Boolean> {
+        private final String url;
+        private final File targetPart;
+        private final File copyPart;
+        private final ExpectedChecksum expectedChecksum;
+        private final DownloadMetrics.ArtifactMetrics metrics;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private FileChannel target;
+        private FileChannel copy;
+        private MessageDigest messageDigest;
+        private boolean found;
+        private long expectedLength = -1;
+        private long written;
+        private volatile String sha256;
+
+        FileConsumer(final String url, final File targetPart, final File copyPart,
+                     final ExpectedChecksum expectedChecksum, final DownloadMetrics.ArtifactMetrics metrics) {
+            this.url = url;
+            this.targetPart = targetPart;
+            this.copyPart = copyPart;
+            this.expectedChecksum = expectedChecksum;
+            this.metrics = metrics;
+        }
+
+        @Override
+        protected void onResponseReceived(final HttpResponse response) throws IOException {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == HttpStatus.SC_NOT_FOUND || statusCode == HttpStatus.SC_GONE) {
+                return;
+            }
+            if (statusCode != HttpStatus.SC_OK) {
+                throw new IOException(url + " answered " + response.getStatusLine());
+            }
+            found = true;
+            target = new FileOutputStream(targetPart).getChannel();
+            if (copyPart != null) {
+                copy = new FileOutputStream(copyPart).getChannel();
+            }
+            if (expectedChecksum != null) {
+                messageDigest = Checksums.newDigest(expectedChecksum.getAlgorithm());
+            }
+        }
+
+        @Override
+        protected void onEntityEnclosed(final HttpEntity entity, final ContentType contentType) {
+            expectedLength = entity.getContentLength();
+        }
+
+        @Override
+        protected void onContentReceived(final ContentDecoder decoder, final IOControl ioControl)
+                throws IOException {
+            int read;
+            while ((read = decoder.read(buffer)) > 0) {
+                buffer.flip();
+                if (found) {
+                    if (messageDigest != null) {
+                        messageDigest.update(buffer.array(), buffer.arrayOffset() + buffer.position(), read);
+                    }
+                    write(target, buffer.duplicate());
+                    if (copy != null) {
+                        write(copy, buffer.duplicate());
+                    }
+                    written += read;
+                }
+                buffer.clear();
+            }
+        }
+
+        @Override
+        protected Boolean buildResult(final HttpContext context) throws Exception {
+            releaseResources();
+            if (!found) {
+                return false;
+            }
+            if (metrics != null) {
+                metrics.addBytes(written);
+                metrics.setUrl(url);
+            }
+            if (expectedLength >= 0 && written != expectedLength) {
+                throw new IOException("download of " + url + " ended after " + written + " of "
+                        + expectedLength + " bytes");
+            }
+            if (messageDigest != null) {
+                byte[] digest = messageDigest.digest();
+                if (!expectedChecksum.matches(digest)) {
+                    throw new PluginServerDownloader.ChecksumMismatchException("checksum of " + url
+                            + " doesn't match the expected " + expectedChecksum);
+                }
+                if (Checksums.SHA_256.equals(expectedChecksum.getAlgorithm())) {
+                    sha256 = Hex.encodeHexString(digest);
+                }
+            }
+            return true;
+        }
+
+        @Override
+        protected void releaseResources() {
+            IOUtils.closeQuietly(target);
+            IOUtils.closeQuietly(copy);
+        }
+
+        private static void write(final FileChannel channel, final ByteBuffer bytes) throws IOException {
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.github.vincentrussell;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Helpers for the checksums of downloaded plugins.
+ */
+public final class Checksums {
+
+    public static final String SHA_256 = "SHA-256";
+    public static final String SHA_1 = "SHA-1";
+
+    private Checksums() {
+    }
+
+    public static MessageDigest newDigest(final String algorithm) {
+        try {
+            return MessageDigest.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(algorithm + " is not supported", e);
+        }
+    }
+
+    public static byte[] digest(final File file, final String algorithm) throws IOException {
+        MessageDigest messageDigest = newDigest(algorithm);
+        update(messageDigest, file);
+        return messageDigest.digest();
+    }
+
+    public static void update(final MessageDigest messageDigest, final File file) throws IOException {
+        byte[] buffer = new byte[8192];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                messageDigest.update(buffer, 0, read);
+            }
+        }
+    }
+}
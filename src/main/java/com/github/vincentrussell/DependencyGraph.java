@@ -0,0 +1,116 @@
+package com.github.vincentrussell;
+
+import org.apache.maven.artifact.Artifact;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Every plugin version that was seen while walking the Plugin-Dependencies of the requested plugins.
+ * Nodes are added by several threads at once; a node's dependencies stay null until it is expanded.
+ */
+public class DependencyGraph {
+
+    private final ConcurrentMap<String, Node> nodes = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, Set<Node>> versions = new ConcurrentHashMap<>();
+
+    /**
+     * @return the new node or null if a node for this groupId:artifactId:version already exists.
+     */
+    public Node addIfAbsent(final Artifact artifact) {
+        Node node = new Node(artifact);
+        if (nodes.putIfAbsent(node.getKey(), node) != null) {
+            return null;
+        }
+        String versionlessKey = getVersionlessKey(artifact.getGroupId(), artifact.getArtifactId());
+        Set<Node> nodeVersions = versions.get(versionlessKey);
+        if (nodeVersions == null) {
+            versions.putIfAbsent(versionlessKey, Collections.newSetFromMap(new ConcurrentHashMap<Node, Boolean>()));
+            nodeVersions = versions.get(versionlessKey);
+        }
+        nodeVersions.add(node);
+        return node;
+    }
+
+    public Node get(final String groupId, final String artifactId, final String version) {
+        return nodes.get(getKey(groupId, artifactId, version));
+    }
+
+    public Node get(final PluginDependency dependency) {
+        return get(dependency.getGroupId(), dependency.getArtifactId(), dependency.getVersion());
+    }
+
+    /**
+     * @return all versions of groupId:artifactId in the graph.
+     */
+    public Collection<Node> getVersions(final String groupId, final String artifactId) {
+        Set<Node> nodeVersions = versions.get(getVersionlessKey(groupId, artifactId));
+        return nodeVersions != null ? new ArrayList<>(nodeVersions) : Collections.<Node>emptyList();
+    }
+
+    public Collection<Node> getNodes() {
+        return new ArrayList<>(nodes.values());
+    }
+
+    public static String getKey(final String groupId, final String artifactId, final String version) {
+        return groupId + ":" + artifactId + ":" + version;
+    }
+
+    public static String getVersionlessKey(final String groupId, final String artifactId) {
+        return groupId + ":" + artifactId;
+    }
+
+    public static class Node {
+        private final Artifact artifact;
+        private volatile List<PluginDependency> dependencies;
+        private volatile Artifact resolvedArtifact;
+
+        Node(final Artifact artifact) {
+            this.artifact = artifact;
+        }
+
+        public String getKey() {
+            return DependencyGraph.getKey(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion());
+        }
+
+        public String getVersionlessKey() {
+            return DependencyGraph.getVersionlessKey(artifact.getGroupId(), artifact.getArtifactId());
+        }
+
+        public Artifact getArtifact() {
+            return artifact;
+        }
+
+        /**
+         * @return the dependencies of this plugin version or null if it hasn't been expanded yet.
+         */
+        public List<PluginDependency> getDependencies() {
+            return dependencies;
+        }
+
+        public void setDependencies(final List<PluginDependency> dependencies) {
+            this.dependencies = dependencies;
+        }
+
+        /**
+         * @return the artifact with its file if the hpi was already fetched while the graph was walked.
+         */
+        public Artifact getResolvedArtifact() {
+            return resolvedArtifact;
+        }
+
+        public void setResolvedArtifact(final Artifact resolvedArtifact) {
+            this.resolvedArtifact = resolvedArtifact;
+        }
+
+        @Override
+        public String toString() {
+            return getKey();
+        }
+    }
+}
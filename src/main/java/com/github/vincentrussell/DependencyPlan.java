@@ -0,0 +1,143 @@
+package com.github.vincentrussell;
+
+import com.github.vincentrussell.DependencyGraph.Node;
+import com.google.gson.GsonBuilder;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+
+/**
+ * The plugins a run would download and the edges between them, written as json and as a Graphviz
+ * dot file.  Every edge records the plugin that required it, the version it asked for and the version
+ * that version mediation selected.  Optional dependencies that were left out are recorded as excluded
+ * edges without a selected version.
+ */
+public class DependencyPlan {
+
+    private final List<PlannedPlugin> plugins = new ArrayList<>();
+    private final List<PlannedEdge> edges = new ArrayList<>();
+    private final List<ReplacedPlugin> replaced = new ArrayList<>();
+
+    private DependencyPlan() {
+    }
+
+    public static DependencyPlan create(final DependencyGraph graph, final List<Node> roots,
+                                        final VersionMediator.Selection selection) {
+        DependencyPlan plan = new DependencyPlan();
+        Set<Node> rootNodes = new HashSet<>(roots);
+        Set<Node> selected = new HashSet<>(selection.getSelected());
+        for (Node node : selection.getSelected()) {
+            PlannedPlugin plugin = new PlannedPlugin();
+            plugin.id = node.getKey();
+            plugin.groupId = node.getArtifact().getGroupId();
+            plugin.artifactId = node.getArtifact().getArtifactId();
+            plugin.version = node.getArtifact().getVersion();
+            plugin.root = rootNodes.contains(node);
+            plan.plugins.add(plugin);
+
+            List<PluginDependency> dependencies = node.getDependencies();
+            if (dependencies == null) {
+                continue;
+            }
+            for (PluginDependency dependency : dependencies) {
+                Node target = graph.get(dependency);
+                if (target != null && !selected.contains(target)
+                        && selection.getReplaced().containsKey(target.getKey())) {
+                    target = selection.getReplaced().get(target.getKey());
+                }
+                boolean excluded = target == null || !selected.contains(target);
+                if (excluded && !dependency.isOptional()) {
+                    continue;
+                }
+                PlannedEdge edge = new PlannedEdge();
+                edge.from = node.getKey();
+                edge.to = excluded ? DependencyGraph.getKey(dependency.getGroupId(), dependency.getArtifactId(),
+                        dependency.getVersion()) : target.getKey();
+                edge.requestedVersion = dependency.getVersion();
+                edge.selectedVersion = excluded ? null : target.getArtifact().getVersion();
+                edge.optional = dependency.isOptional();
+                edge.excluded = excluded;
+                plan.edges.add(edge);
+            }
+        }
+        for (Map.Entry<String, Node> entry : selection.getReplaced().entrySet()) {
+            ReplacedPlugin replacedPlugin = new ReplacedPlugin();
+            replacedPlugin.id = entry.getKey();
+            replacedPlugin.replacedBy = entry.getValue().getKey();
+            plan.replaced.add(replacedPlugin);
+        }
+        return plan;
+    }
+
+    public int getPluginCount() {
+        return plugins.size();
+    }
+
+    public void writeJson(final File file) throws IOException {
+        FileUtils.writeStringToFile(file, new GsonBuilder().setPrettyPrinting().create().toJson(this),
+                StandardCharsets.UTF_8);
+    }
+
+    public void writeDot(final File file) throws IOException {
+        StringBuilder dot = new StringBuilder("digraph plugins {\n");
+        for (PlannedPlugin plugin : plugins) {
+            dot.append("  ").append(quote(plugin.id)).append(" [label=")
+                    .append(quote(plugin.artifactId + "\\n" + plugin.version))
+                    .append(plugin.root ? ", shape=box" : "").append("];\n");
+        }
+        Set<String> excludedPlugins = new LinkedHashSet<>();
+        for (PlannedEdge edge : edges) {
+            if (edge.excluded) {
+                excludedPlugins.add(edge.to);
+            }
+        }
+        for (String excludedPlugin : excludedPlugins) {
+            dot.append("  ").append(quote(excludedPlugin)).append(" [style=dotted, color=gray];\n");
+        }
+        for (PlannedEdge edge : edges) {
+            String label = edge.excluded || Objects.equals(edge.requestedVersion, edge.selectedVersion)
+                    ? edge.requestedVersion : edge.requestedVersion + " -> " + edge.selectedVersion;
+            dot.append("  ").append(quote(edge.from)).append(" -> ").append(quote(edge.to))
+                    .append(" [label=").append(quote(label))
+                    .append(edge.excluded ? ", style=dotted, color=gray" : edge.optional ? ", style=dashed" : "")
+                    .append("];\n");
+        }
+        dot.append("}\n");
+        FileUtils.writeStringToFile(file, dot.toString(), StandardCharsets.UTF_8);
+    }
+
+    private static String quote(final String value) {
+        return "\"" + value.replace("\"", "\\\"") + "\"";
+    }
+
+    private static class PlannedPlugin {
+        private String id;
+        private String groupId;
+        private String artifactId;
+        private String version;
+        private boolean root;
+    }
+
+    private static class PlannedEdge {
+        private String from;
+        private String to;
+        private String requestedVersion;
+        private String selectedVersion;
+        private boolean optional;
+        private boolean excluded;
+    }
+
+    private static class ReplacedPlugin {
+        private String id;
+        private String replacedBy;
+    }
+}
@@ -0,0 +1,122 @@
+package com.github.vincentrussell;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * What an incremental run changed in the download directory compared to the {@link InstalledPlugins}
+ * it started with: the plugins that were added, the ones whose version changed, how many were kept as
+ * they were, and the stale hpis that no selected plugin uses anymore.
+ */
+public class DownloadDiff {
+
+    private final List<String> added = new ArrayList<>();
+    private final Map<String, String> changed = new TreeMap<>();
+    private int unchanged;
+    private final List<String> stale = new ArrayList<>();
+    private boolean staleDeleted;
+    private final transient List<InstalledPlugins.InstalledPlugin> stalePlugins = new ArrayList<>();
+
+    /**
+     * @param selected the plugins the run put into the download directory.
+     */
+    public static DownloadDiff create(final InstalledPlugins installed, final Collection<Artifact> selected,
+                                      final DownloadDirectory downloadDirectory) {
+        DownloadDiff diff = new DownloadDiff();
+        Map<String, List<String>> installedVersions = new LinkedHashMap<>();
+        for (InstalledPlugins.InstalledPlugin plugin : installed.getPlugins()) {
+            String key = plugin.getGroupId() + ":" + plugin.getArtifactId();
+            if (!installedVersions.containsKey(key)) {
+                installedVersions.put(key, new ArrayList<String>());
+            }
+            installedVersions.get(key).add(plugin.getVersion());
+        }
+
+        Set<File> selectedFiles = new HashSet<>();
+        for (Artifact artifact : selected) {
+            selectedFiles.add(downloadDirectory.getFile(artifact).getAbsoluteFile());
+            String key = artifact.getGroupId() + ":" + artifact.getArtifactId();
+            List<String> versions = installedVersions.get(key);
+            if (versions == null) {
+                diff.added.add(DependencyGraph.getKey(artifact.getGroupId(), artifact.getArtifactId(),
+                        artifact.getVersion()));
+            } else if (versions.contains(artifact.getVersion())) {
+                diff.unchanged++;
+            } else {
+                diff.changed.put(key, join(versions) + " -> " + artifact.getVersion());
+            }
+        }
+        Collections.sort(diff.added);
+
+        for (InstalledPlugins.InstalledPlugin plugin : installed.getPlugins()) {
+            // in the PLUGINS layout a new version overwrote the old one
+            if (!selectedFiles.contains(plugin.getFile().getAbsoluteFile())) {
+                diff.stalePlugins.add(plugin);
+                diff.stale.add(plugin.getKey());
+            }
+        }
+        Collections.sort(diff.stale);
+        return diff;
+    }
+
+    public List<String> getAdded() {
+        return added;
+    }
+
+    /**
+     * @return the new version of every groupId:artifactId whose version changed, as old -> new.
+     */
+    public Map<String, String> getChanged() {
+        return changed;
+    }
+
+    public int getUnchanged() {
+        return unchanged;
+    }
+
+    public List<String> getStale() {
+        return stale;
+    }
+
+    public List<InstalledPlugins.InstalledPlugin> getStalePlugins() {
+        return stalePlugins;
+    }
+
+    public void setStaleDeleted(final boolean staleDeleted) {
+        this.staleDeleted = staleDeleted;
+    }
+
+    public void logSummary(final Log log) {
+        log.info(String.format("Incremental update: %d added, %d changed, %d unchanged, %d stale%s",
+                added.size(), changed.size(), unchanged, stale.size(),
+                stale.isEmpty() ? "" : staleDeleted ? " (deleted)" : " (kept, see deleteStale)"));
+        for (String plugin : added) {
+            log.info("  + " + plugin);
+        }
+        for (Map.Entry<String, String> plugin : changed.entrySet()) {
+            log.info("  ~ " + plugin.getKey() + " " + plugin.getValue());
+        }
+        for (String plugin : stale) {
+            log.info("  - " + plugin);
+        }
+    }
+
+    private static String join(final List<String> versions) {
+        StringBuilder joined = new StringBuilder();
+        for (String version : versions) {
+            joined.append(joined.length() > 0 ? "," : "").append(version);
+        }
+        return joined.toString();
+    }
+}
@@ -0,0 +1,193 @@
+package com.github.vincentrussell;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * The directory resolved hpis are put into, laid out by the {@link OutputLayout}, and the
+ * {@link OutputStrategy} used to put them there.  With a bundle layout the hpis are appended to a
+ * {@link PluginBundle} instead.
+ */
+public class DownloadDirectory {
+
+    static final String PLUGINS_DIRECTORY = "plugins";
+    static final String JPI = ".jpi";
+    static final String PINNED = ".pinned";
+
+    private final File directory;
+    private final OutputLayout outputLayout;
+    private final OutputStrategy outputStrategy;
+    private final boolean pinPlugins;
+    private final PluginBundle bundle;
+    private final PluginStore pluginStore;
+    private final Log log;
+
+    public DownloadDirectory(final File directory, final OutputStrategy outputStrategy, final Log log) {
+        this(directory, OutputLayout.MAVEN, outputStrategy, false, null, null, log);
+    }
+
+    /**
+     * @param bundleFile the archive of a bundle layout, defaults to plugins.zip or plugins.tar in directory.
+     * @param pluginStore the store the hpis are hard linked from instead of putting them there with the
+     *                    outputStrategy, or null.
+     */
+    public DownloadDirectory(final File directory, final OutputLayout outputLayout,
+                             final OutputStrategy outputStrategy, final boolean pinPlugins,
+                             final File bundleFile, final PluginStore pluginStore, final Log log) {
+        this.directory = directory;
+        this.outputLayout = outputLayout;
+        this.outputStrategy = outputStrategy;
+        this.pinPlugins = pinPlugins;
+        this.bundle = outputLayout.isBundle() ? new PluginBundle(bundleFile != null ? bundleFile
+                : new File(directory, PLUGINS_DIRECTORY + "." + outputLayout.name().toLowerCase(Locale.ENGLISH)),
+                outputLayout) : null;
+        this.pluginStore = pluginStore;
+        this.log = log;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public OutputLayout getOutputLayout() {
+        return outputLayout;
+    }
+
+    /**
+     * @return where the hpi of artifact goes; with a bundle layout nothing is written there.
+     */
+    public File getFile(final Artifact artifact) {
+        return getFile(artifact.getGroupId(), artifact.getArtifactId(), artifact.getVersion(), artifact.getType());
+    }
+
+    public File getFile(final String groupId, final String artifactId, final String version, final String type) {
+        if (outputLayout != OutputLayout.MAVEN) {
+            return new File(directory, artifactId.trim() + JPI);
+        }
+        List<String> directoryParts = new ArrayList<>();
+        directoryParts.addAll(Lists.newArrayList(groupId.trim().split("\\.")));
+        directoryParts.add(artifactId.trim());
+        directoryParts.add(version.trim());
+
+        return new File(Paths.get(directory.getAbsolutePath(), directoryParts.toArray(new String[0])).toFile(),
+                artifactId + "-" + version + "." + type);
+    }
+
+    /**
+     * Puts the file of the resolved artifact into the directory.
+     */
+    public void save(final Artifact artifact) throws IOException {
+        save(artifact, null);
+    }
+
+    /**
+     * Like {@link #save(Artifact)}, with the SHA-256 of the file if it is already known, so the plugin
+     * store and SKIP_IF_IDENTICAL don't read the file again to compute it.
+     *
+     * @param sha256 the hex SHA-256 of the file of artifact or null if it isn't known.
+     */
+    public void save(final Artifact artifact, final String sha256) throws IOException {
+        if (bundle != null) {
+            String name = PLUGINS_DIRECTORY + "/" + artifact.getArtifactId().trim() + JPI;
+            bundle.add(name, artifact.getFile());
+            if (pinPlugins) {
+                bundle.addEmpty(name + PINNED);
+            }
+            return;
+        }
+        final File file = getFile(artifact);
+        copy(artifact, sha256, file);
+        if (pinPlugins && outputLayout == OutputLayout.PLUGINS) {
+            FileUtils.touch(new File(file.getPath() + PINNED));
+        }
+    }
+
+    /**
+     * Deletes an hpi a previous run put into the directory, with its pin marker, and the directories it
+     * leaves empty in the MAVEN layout.
+     */
+    public void delete(final File file) throws IOException {
+        Files.deleteIfExists(file.toPath());
+        Files.deleteIfExists(new File(file.getPath() + PINNED).toPath());
+        File parent = file.getAbsoluteFile().getParentFile();
+        String[] remaining;
+        while (outputLayout == OutputLayout.MAVEN && parent != null
+                && !parent.equals(directory.getAbsoluteFile())
+                && (remaining = parent.list()) != null && remaining.length == 0) {
+            Files.deleteIfExists(parent.toPath());
+            parent = parent.getParentFile();
+        }
+    }
+
+    /**
+     * Finishes the bundle, if plugins were added to one.
+     *
+     * @param success false to throw away the incomplete bundle of a failed run.
+     */
+    public void close(final boolean success) throws IOException {
+        if (bundle != null && bundle.close(success)) {
+            log.info("Wrote " + bundle.getFile());
+        }
+    }
+
+    private void copy(final Artifact artifact, final String sha256, final File file) throws IOException {
+        FileUtils.forceMkdir(file.getParentFile());
+        // the store takes the place of the local repository as the file that is linked to
+        File sourceFile = pluginStore != null ? pluginStore.put(artifact.getFile(), sha256) : artifact.getFile();
+        OutputStrategy outputStrategy = pluginStore != null ? OutputStrategy.HARDLINK : this.outputStrategy;
+        Path source = sourceFile.toPath();
+        Path target = file.toPath();
+
+        if (outputStrategy == OutputStrategy.SKIP_IF_IDENTICAL && isIdentical(sourceFile, sha256, file)) {
+            log.debug(file + " is up to date");
+            return;
+        }
+        if ((outputStrategy == OutputStrategy.HARDLINK || outputStrategy == OutputStrategy.SYMLINK)
+                && Files.exists(target) && Files.isSameFile(source, target)) {
+            return;
+        }
+
+        if (Files.exists(target, LinkOption.NOFOLLOW_LINKS)) {
+            Files.delete(target);
+        }
+
+        if (outputStrategy == OutputStrategy.HARDLINK) {
+            try {
+                Files.createLink(target, source);
+                return;
+            } catch (IOException | UnsupportedOperationException e) {
+                log.warn("could not hard link " + target + " to " + source + ", copying it instead: " + e.getMessage());
+            }
+        } else if (outputStrategy == OutputStrategy.SYMLINK) {
+            Files.createSymbolicLink(target, source.toAbsolutePath());
+            return;
+        }
+
+        FileUtils.copyFile(sourceFile, file);
+    }
+
+    private boolean isIdentical(final File source, final String sha256, final File target) throws IOException {
+        if (!target.isFile() || source.length() != target.length()) {
+            return false;
+        }
+        byte[] targetDigest = Checksums.digest(target, Checksums.SHA_256);
+        if (sha256 != null) {
+            return sha256.equalsIgnoreCase(Hex.encodeHexString(targetDigest));
+        }
+        return Arrays.equals(Checksums.digest(source, Checksums.SHA_256), targetDigest);
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.vincentrussell;
+
+/**
+ * How plugins are downloaded from the plugin server.
+ */
+public enum DownloadEngine {
+    /**
+     * Every download holds a thread until its body is written.
+     */
+    BLOCKING,
+    /**
+     * Downloads are handed to a few non-blocking io threads, so many can be in flight without a thread each.
+     * A plugin whose dependencies are only known from its manifest is expanded once its download is done.
+     */
+    ASYNC
+}
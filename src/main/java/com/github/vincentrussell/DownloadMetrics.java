@@ -0,0 +1,265 @@
+package com.github.vincentrussell;
+
+import com.google.gson.GsonBuilder;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Timings, bytes and cache use of every plugin of a run, collected by the tasks as they work and
+ * reported at the end of the run as json and as a summary in the log.
+ */
+public class DownloadMetrics {
+
+    private static final double MEGABYTE = 1024 * 1024;
+
+    private final ConcurrentMap<String, ArtifactMetrics> artifacts = new ConcurrentHashMap<>();
+    private final long startNanos = System.nanoTime();
+    private volatile long endNanos;
+    private volatile DownloadDiff diff;
+
+    public enum Phase {
+        /**
+         * Resolving the hpi from the maven repositories.
+         */
+        REPOSITORY,
+        /**
+         * Downloading the hpi from the plugin server.
+         */
+        PLUGIN_SERVER,
+        /**
+         * Reading the dependencies from the manifest, locally or with range requests.
+         */
+        MANIFEST,
+        /**
+         * Putting the hpi into the download directory.
+         */
+        COPY
+    }
+
+    /**
+     * @return the metrics of the plugin with the key groupId:artifactId:version.
+     */
+    public ArtifactMetrics get(final String key) {
+        ArtifactMetrics artifactMetrics = artifacts.get(key);
+        if (artifactMetrics == null) {
+            artifacts.putIfAbsent(key, new ArtifactMetrics());
+            artifactMetrics = artifacts.get(key);
+        }
+        return artifactMetrics;
+    }
+
+    /**
+     * @param diff how an incremental run changed the download directory.
+     */
+    public void setDiff(final DownloadDiff diff) {
+        this.diff = diff;
+    }
+
+    public void finish() {
+        endNanos = System.nanoTime();
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis((endNanos != 0 ? endNanos : System.nanoTime()) - startNanos);
+    }
+
+    public long getTotalBytes() {
+        long bytes = 0;
+        for (ArtifactMetrics artifactMetrics : artifacts.values()) {
+            bytes += artifactMetrics.getBytes();
+        }
+        return bytes;
+    }
+
+    public long getTotalThrottledMillis() {
+        long throttled = 0;
+        for (ArtifactMetrics artifactMetrics : artifacts.values()) {
+            throttled += artifactMetrics.getThrottledMillis();
+        }
+        return throttled;
+    }
+
+    public void writeJson(final File file) throws IOException {
+        Report report = new Report();
+        report.elapsedMillis = getElapsedMillis();
+        report.totalBytes = getTotalBytes();
+        report.megabytesPerSecond = getMegabytesPerSecond(report.totalBytes, report.elapsedMillis);
+        report.throttledMillis = getTotalThrottledMillis();
+        report.artifacts = new TreeMap<>();
+        for (Map.Entry<String, ArtifactMetrics> entry : artifacts.entrySet()) {
+            report.artifacts.put(entry.getKey(), entry.getValue().toReport());
+        }
+        report.incremental = diff;
+        FileUtils.writeStringToFile(file, new GsonBuilder().setPrettyPrinting().create().toJson(report),
+                StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Logs the totals and a table of the slowest plugins.
+     */
+    public void logSummary(final Log log, final int slowest) {
+        long elapsedMillis = getElapsedMillis();
+        long totalBytes = getTotalBytes();
+        log.info(String.format("Resolved %d plugins in %.1fs, transferred %.1f MB (%.2f MB/s), throttled for %.1fs",
+                artifacts.size(), elapsedMillis / 1000d, totalBytes / MEGABYTE,
+                getMegabytesPerSecond(totalBytes, elapsedMillis), getTotalThrottledMillis() / 1000d));
+
+        List<Map.Entry<String, ArtifactMetrics>> entries = new ArrayList<>(artifacts.entrySet());
+        if (entries.isEmpty()) {
+            return;
+        }
+        Collections.sort(entries, new Comparator<Map.Entry<String, ArtifactMetrics>>() {
+            @Override
+            public int compare(final Map.Entry<String, ArtifactMetrics> first,
+                               final Map.Entry<String, ArtifactMetrics> second) {
+                return Long.compare(second.getValue().getTotalMillis(), first.getValue().getTotalMillis());
+            }
+        });
+        String format = "%-60s %-13s %8s %10s %13s %9s %8s %9s %9s %7s";
+        log.info(String.format(format, "slowest plugins", "source", "total", "repository", "plugin server",
+                "manifest", "copy", "throttled", "size", "retries"));
+        for (Map.Entry<String, ArtifactMetrics> entry : entries.subList(0, Math.min(slowest, entries.size()))) {
+            ArtifactMetrics artifactMetrics = entry.getValue();
+            log.info(String.format(format, entry.getKey(),
+                    artifactMetrics.getSource() != null ? artifactMetrics.getSource() : "-",
+                    artifactMetrics.getTotalMillis() + "ms",
+                    artifactMetrics.getMillis(Phase.REPOSITORY) + "ms",
+                    artifactMetrics.getMillis(Phase.PLUGIN_SERVER) + "ms",
+                    artifactMetrics.getMillis(Phase.MANIFEST) + "ms",
+                    artifactMetrics.getMillis(Phase.COPY) + "ms",
+                    artifactMetrics.getThrottledMillis() + "ms",
+                    String.format("%.1fMB", artifactMetrics.getBytes() / MEGABYTE),
+                    artifactMetrics.getRetries()));
+        }
+    }
+
+    private static double getMegabytesPerSecond(final long bytes, final long millis) {
+        return millis > 0 ? bytes / MEGABYTE / (millis / 1000d) : 0;
+    }
+
+    public static class ArtifactMetrics {
+        private final Map<Phase, Long> nanos = new EnumMap<>(Phase.class);
+        private final Map<String, Boolean> caches = new TreeMap<>();
+        private long bytes;
+        private int retries;
+        private long throttledNanos;
+        private ArtifactSource source;
+        private String url;
+
+        public synchronized void addTime(final Phase phase, final long elapsedNanos) {
+            Long previous = nanos.get(phase);
+            nanos.put(phase, (previous != null ? previous : 0) + elapsedNanos);
+        }
+
+        public synchronized long getMillis(final Phase phase) {
+            Long elapsedNanos = nanos.get(phase);
+            return elapsedNanos != null ? TimeUnit.NANOSECONDS.toMillis(elapsedNanos) : 0;
+        }
+
+        public synchronized long getTotalMillis() {
+            long total = 0;
+            for (Long elapsedNanos : nanos.values()) {
+                total += elapsedNanos;
+            }
+            return TimeUnit.NANOSECONDS.toMillis(total);
+        }
+
+        public synchronized void addBytes(final long transferred) {
+            bytes += transferred;
+        }
+
+        public synchronized long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * Records time spent waiting for a connection to the host or for the byte rate; it is part of the
+         * phase that was throttled.
+         */
+        public synchronized void addThrottled(final long elapsedNanos) {
+            throttledNanos += elapsedNanos;
+        }
+
+        public synchronized long getThrottledMillis() {
+            return TimeUnit.NANOSECONDS.toMillis(throttledNanos);
+        }
+
+        public synchronized void addRetry() {
+            retries++;
+        }
+
+        public synchronized int getRetries() {
+            return retries;
+        }
+
+        /**
+         * Records whether a cache, i.e. the manifest cache, had an answer for this plugin.
+         */
+        public synchronized void recordCache(final String cache, final boolean hit) {
+            caches.put(cache, hit);
+        }
+
+        public synchronized void setSource(final ArtifactSource source) {
+            this.source = source;
+        }
+
+        public synchronized ArtifactSource getSource() {
+            return source;
+        }
+
+        public synchronized void setUrl(final String url) {
+            this.url = url;
+        }
+
+        private synchronized ArtifactReport toReport() {
+            ArtifactReport report = new ArtifactReport();
+            report.source = source;
+            report.url = url;
+            report.totalMillis = getTotalMillis();
+            report.phaseMillis = new LinkedHashMap<>();
+            for (Phase phase : nanos.keySet()) {
+                report.phaseMillis.put(phase, getMillis(phase));
+            }
+            report.bytes = bytes;
+            report.retries = retries;
+            report.throttledMillis = getThrottledMillis();
+            report.caches = new TreeMap<>(caches);
+            return report;
+        }
+    }
+
+    private static class Report {
+        private long elapsedMillis;
+        private long totalBytes;
+        private double megabytesPerSecond;
+        private long throttledMillis;
+        private Map<String, ArtifactReport> artifacts;
+        private DownloadDiff incremental;
+    }
+
+    private static class ArtifactReport {
+        private ArtifactSource source;
+        private String url;
+        private long totalMillis;
+        private Map<Phase, Long> phaseMillis;
+        private long bytes;
+        private int retries;
+        private long throttledMillis;
+        private Map<String, Boolean> caches;
+    }
+}
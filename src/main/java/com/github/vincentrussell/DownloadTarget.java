@@ -0,0 +1,19 @@
+package com.github.vincentrussell;
+
+/**
+ * Where hpis downloaded from the plugin server are written.
+ */
+public enum DownloadTarget {
+    /**
+     * Write the hpi to the local repository and copy it to the download directory afterwards.
+     */
+    LOCAL_REPOSITORY,
+    /**
+     * Write the hpi to the local repository and the download directory while it is downloaded.
+     */
+    BOTH,
+    /**
+     * Only write the hpi to the download directory and leave the local repository alone.
+     */
+    DOWNLOAD_DIRECTORY
+}
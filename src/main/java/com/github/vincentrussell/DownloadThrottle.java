@@ -0,0 +1,154 @@
+package com.github.vincentrussell;
+
+import java.io.Closeable;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.net.URI;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the downloads from the plugin server, including the manifest probe's range requests and the
+ * update center metadata: at most maxPerHost requests run against the same host at once, and all
+ * downloads together read at most bytesPerSecond.  The byte rate is enforced with a
+ * token bucket that a read may overdraw; the next reads then wait until the debt is paid back.
+ */
+public class DownloadThrottle {
+
+    private final int maxPerHost;
+    private final long bytesPerSecond;
+    private final long capacity;
+    private final ConcurrentMap<String, Semaphore> hosts = new ConcurrentHashMap<>();
+    private double tokens;
+    private long lastRefill = System.nanoTime();
+
+    /**
+     * @param maxPerHost the concurrent requests per host, 0 for no limit.
+     * @param bytesPerSecond the rate of all downloads together, 0 for no limit.
+     */
+    public DownloadThrottle(final int maxPerHost, final long bytesPerSecond) {
+        this.maxPerHost = maxPerHost;
+        this.bytesPerSecond = bytesPerSecond;
+        // a tenth of a second may be read in a burst
+        this.capacity = Math.max(bytesPerSecond / 10, 1);
+        this.tokens = capacity;
+    }
+
+    /**
+     * Waits until another request may be sent to the host of url.
+     *
+     * @return the permit to close once the response was read.
+     */
+    public Permit acquire(final String url, final DownloadMetrics.ArtifactMetrics metrics)
+            throws InterruptedIOException {
+        if (maxPerHost <= 0) {
+            return new Permit(null);
+        }
+        URI uri = URI.create(url);
+        String host = uri.getHost() + ":" + uri.getPort();
+        Semaphore semaphore = hosts.get(host);
+        if (semaphore == null) {
+            hosts.putIfAbsent(host, new Semaphore(maxPerHost, true));
+            semaphore = hosts.get(host);
+        }
+        if (!semaphore.tryAcquire()) {
+            long start = System.nanoTime();
+            try {
+                semaphore.acquire();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while waiting for a connection to " + host);
+            } finally {
+                if (metrics != null) {
+                    metrics.addThrottled(System.nanoTime() - start);
+                }
+            }
+        }
+        return new Permit(semaphore);
+    }
+
+    /**
+     * @return inputStream limited to the byte rate shared by all downloads.
+     */
+    public InputStream limit(final InputStream inputStream, final DownloadMetrics.ArtifactMetrics metrics) {
+        return bytesPerSecond > 0 ? new LimitedInputStream(inputStream, metrics) : inputStream;
+    }
+
+    /**
+     * Takes bytes from the bucket.
+     *
+     * @return the nanoseconds to wait until the bucket isn't overdrawn anymore.
+     */
+    private synchronized long take(final int bytes) {
+        long now = System.nanoTime();
+        tokens = Math.min(capacity, tokens + (now - lastRefill) * bytesPerSecond / (double) TimeUnit.SECONDS.toNanos(1));
+        lastRefill = now;
+        tokens -= bytes;
+        return tokens >= 0 ? 0 : (long) (-tokens * TimeUnit.SECONDS.toNanos(1) / bytesPerSecond);
+    }
+
+    public static class Permit implements Closeable {
+        private final Semaphore semaphore;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        Permit(final Semaphore semaphore) {
+            this.semaphore = semaphore;
+        }
+
+        @Override
+        public void close() {
+            if (semaphore != null && released.compareAndSet(false, true)) {
+                semaphore.release();
+            }
+        }
+    }
+
+    private class LimitedInputStream extends FilterInputStream {
+        private final DownloadMetrics.ArtifactMetrics metrics;
+
+        LimitedInputStream(final InputStream inputStream, final DownloadMetrics.ArtifactMetrics metrics) {
+            super(inputStream);
+            this.metrics = metrics;
+        }
+
+        @Override
+        public int read() throws IOException {
+            int read = super.read();
+            if (read != -1) {
+                pause(1);
+            }
+            return read;
+        }
+
+        @Override
+        public int read(final byte[] buffer, final int offset, final int length) throws IOException {
+            int read = super.read(buffer, offset, length);
+            if (read > 0) {
+                pause(read);
+            }
+            return read;
+        }
+
+        private void pause(final int bytes) throws InterruptedIOException {
+            long wait = take(bytes);
+            if (wait <= 0) {
+                return;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(wait);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while throttling a download");
+            } finally {
+                if (metrics != null) {
+                    metrics.addThrottled(wait);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.codec.binary.Base64;
+import org.apache.commons.codec.binary.Hex;
+
+/**
+ * The checksum a downloaded plugin is expected to have.  Update center metadata encodes checksums
+ * in base64 while .sha256 files contain hex, so both encodings are accepted.
+ */
+public class ExpectedChecksum {
+
+    private final String algorithm;
+    private final String value;
+    private final String source;
+
+    public ExpectedChecksum(final String algorithm, final String value, final String source) {
+        this.algorithm = algorithm;
+        this.value = value.trim();
+        this.source = source;
+    }
+
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    public String getValue() {
+        return value;
+    }
+
+    /**
+     * @return where the checksum came from, for error messages.
+     */
+    public String getSource() {
+        return source;
+    }
+
+    public boolean matches(final byte[] digest) {
+        return value.equalsIgnoreCase(Hex.encodeHexString(digest))
+                || value.equals(Base64.encodeBase64String(digest));
+    }
+
+    @Override
+    public String toString() {
+        return algorithm + " " + value + " from " + source;
+    }
+}
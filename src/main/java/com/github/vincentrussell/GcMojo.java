@@ -0,0 +1,112 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Goal for jenkins-dependency gc, removing the blobs of a plugin store that neither a lockfile nor a
+ * download directory uses anymore.
+ */
+@Mojo( name = "gc", requiresProject = false, threadSafe = true )
+public class GcMojo extends AbstractMojo {
+
+    /**
+     * The plugin store to clean up.
+     */
+    @Parameter( property = "pluginStore", required = true )
+    private File pluginStore;
+
+    /**
+     * Lockfiles whose plugins are kept, even if no download directory links to them right now.
+     */
+    @Parameter( property = "lockfiles" )
+    private List<File> lockfiles;
+
+    /**
+     * Download directories whose plugins are kept.  Blobs that are still hard linked from anywhere are kept
+     * anyway where the file system counts links, so this is only needed where it doesn't.
+     */
+    @Parameter( property = "downloadDirs" )
+    private List<File> downloadDirs;
+
+    /**
+     * Only log what would be removed.  Not dryRun, which makes the get goal only plan a download.
+     */
+    @Parameter( property = "jdp.gc.dryRun", defaultValue = "false")
+    private boolean dryRun;
+
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+        if (pluginStore == null || !pluginStore.isDirectory()) {
+            throw new MojoFailureException("pluginStore " + pluginStore + " is not a directory");
+        }
+        try {
+            Set<String> referencedSha256s = new HashSet<>();
+            if (lockfiles != null) {
+                for (File lockfile : lockfiles) {
+                    for (Lockfile.LockedPlugin plugin : Lockfile.load(lockfile).getPlugins()) {
+                        referencedSha256s.add(plugin.getSha256());
+                    }
+                }
+            }
+            Set<Object> referencedFileKeys = new HashSet<>();
+            if (downloadDirs != null) {
+                for (File downloadDir : downloadDirs) {
+                    collectReferences(downloadDir, referencedSha256s, referencedFileKeys);
+                }
+            }
+
+            PluginStore store = new PluginStore(pluginStore);
+            int blobs = store.getBlobs().size();
+            List<File> pruned = store.prune(referencedSha256s, referencedFileKeys, dryRun);
+            for (File blob : pruned) {
+                getLog().debug((dryRun ? "Would remove " : "Removed ") + blob);
+            }
+            getLog().info((dryRun ? "Would remove " : "Removed ") + pruned.size() + " of " + blobs
+                    + " blobs from " + pluginStore);
+        } catch (IOException e) {
+            throw new MojoExecutionException(e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Adds the file keys of the hpis in downloadDir, or their SHA-256 if the file system has no file keys.
+     */
+    private void collectReferences(final File downloadDir, final Set<String> referencedSha256s,
+                                   final Set<Object> referencedFileKeys) throws IOException {
+        if (!downloadDir.isDirectory()) {
+            getLog().warn(downloadDir + " is not a directory");
+            return;
+        }
+        Files.walkFileTree(downloadDir.toPath(), new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(final Path file, final BasicFileAttributes attributes)
+                    throws IOException {
+                if (!attributes.isRegularFile()) {
+                    return FileVisitResult.CONTINUE;
+                }
+                if (attributes.fileKey() != null) {
+                    referencedFileKeys.add(attributes.fileKey());
+                } else {
+                    referencedSha256s.add(Hex.encodeHexString(Checksums.digest(file.toFile(), Checksums.SHA_256)));
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
@@ -1,6 +1,7 @@
 package com.github.vincentrussell;
 
 
+import org.apache.commons.io.IOUtils;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.AbstractMojo;
@@ -19,6 +20,7 @@ import org.apache.maven.shared.transfer.project.deploy.ProjectDeployer;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.List;
 
 /**
  * Goal for jenkins-dependency get
@@ -38,7 +40,8 @@ public class GetMojo extends AbstractMojo {
 
 
     /**
-     * The server that stores the jenkins plugins.
+     * The server that stores the jenkins plugins.  A comma separated list of mirrors is tried in order,
+     * preferring the mirrors that didn't fail recently.
      */
     @Parameter( property = "jenkinsPluginServerUrl", defaultValue = "https://updates.jenkins-ci.org/download/plugins")
     private String jenkinsPluginServerUrl = "https://updates.jenkins-ci.org/download/plugins";
@@ -68,12 +71,279 @@ public class GetMojo extends AbstractMojo {
     @Parameter( property = "artifact" )
     private String artifact;
 
+    /**
+     * More plugins to download in the same run, each of the form groupId:artifactId:version[:packaging]
+     * or artifactId:version.  Shared dependencies are only resolved and downloaded once.
+     */
+    @Parameter( property = "plugins" )
+    private List<String> plugins;
+
+    /**
+     * A plugins.txt style file with one plugin per line, of the same form as {@link #plugins}.
+     */
+    @Parameter( property = "pluginsFile" )
+    private File pluginsFile;
+
     /**
      * The directory where to download the plugins
      */
     @Parameter( property = "downloadDir", required = true)
     private File downloadDir;
 
+    /**
+     * The number of plugins that are resolved and downloaded at the same time.
+     */
+    @Parameter( property = "threads", defaultValue = "1")
+    private int threads = 1;
+
+    /**
+     * The maximum number of pooled connections that are kept open to a single plugin server.
+     */
+    @Parameter( property = "maxConnectionsPerRoute", defaultValue = "10")
+    private int maxConnectionsPerRoute = 10;
+
+    /**
+     * The timeout in milliseconds until a connection to the plugin server is established.
+     */
+    @Parameter( property = "connectTimeout", defaultValue = "30000")
+    private int connectTimeout = 30000;
+
+    /**
+     * The timeout in milliseconds while waiting for data from the plugin server.
+     */
+    @Parameter( property = "readTimeout", defaultValue = "60000")
+    private int readTimeout = 60000;
+
+    /**
+     * An update-center.json or plugin-versions.json file or url.  When it is set the dependencies
+     * of every plugin the metadata knows about are taken from it instead of from the downloaded hpi.
+     */
+    @Parameter( property = "updateCenterIndex")
+    private String updateCenterIndex;
+
+    /**
+     * Read the dependencies of plugins that aren't in the local repository with http range requests
+     * against the plugin server, so the dependency graph can be discovered before the hpis are downloaded.
+     * Falls back to reading the downloaded hpi when the server doesn't support range requests.
+     */
+    @Parameter( property = "manifestProbe", defaultValue = "false")
+    private boolean manifestProbe;
+
+    /**
+     * Cache the dependencies read from hpi manifests between builds.
+     */
+    @Parameter( property = "useManifestCache", defaultValue = "true")
+    private boolean useManifestCache = true;
+
+    /**
+     * The file the manifest cache is stored in; defaults to
+     * .cache/jenkins-dependency-plugin/manifest-cache.json in the local repository.
+     */
+    @Parameter( property = "manifestCacheFile")
+    private File manifestCacheFile;
+
+    /**
+     * The maximum number of plugin versions kept in the manifest cache.  The least recently used
+     * entries are evicted first.
+     */
+    @Parameter( property = "manifestCacheMaxEntries", defaultValue = "10000")
+    private int manifestCacheMaxEntries = 10000;
+
+    /**
+     * Empty the manifest cache before resolving.
+     */
+    @Parameter( property = "clearManifestCache", defaultValue = "false")
+    private boolean clearManifestCache;
+
+    /**
+     * Minutes to remember that the maven repositories don't have a plugin (by groupId and artifactId),
+     * so it is downloaded from the plugin server without asking the repositories first.  0 disables it.
+     */
+    @Parameter( property = "repositoryMissCacheTtl", defaultValue = "0")
+    private long repositoryMissCacheTtl;
+
+    /**
+     * The file the repository misses are stored in; defaults to
+     * .cache/jenkins-dependency-plugin/repository-misses.json in the local repository.
+     */
+    @Parameter( property = "repositoryMissCacheFile")
+    private File repositoryMissCacheFile;
+
+    /**
+     * Where plugins that aren't in the local repository are looked for first: REPOSITORY_FIRST,
+     * PLUGIN_SERVER_FIRST or RACE to ask both at the same time.
+     */
+    @Parameter( property = "resolutionOrder", defaultValue = "REPOSITORY_FIRST")
+    private ResolutionOrder resolutionOrder = ResolutionOrder.REPOSITORY_FIRST;
+
+    /**
+     * Only work out which plugins would be downloaded and write the dependency graph to plan.json and
+     * plan.dot in the planDirectory.  Dependencies are read from the update center index, the manifest
+     * cache or with range requests where possible; nothing is written to the download directory.
+     */
+    @Parameter( property = "dryRun", defaultValue = "false")
+    private boolean dryRun;
+
+    /**
+     * The directory the dry run writes plan.json and plan.dot to.
+     */
+    @Parameter( property = "planDirectory", defaultValue = "${project.build.directory}/jenkins-plugin-plan")
+    private File planDirectory;
+
+    /**
+     * A lockfile with the resolved plugins, their SHA-256 and source.  If it exists and was written for the
+     * same requested plugins, versionMediation, optionalDependencies and updateCenterIndex, the locked plugins
+     * are downloaded and verified without resolving the dependency graph; otherwise the graph is resolved and
+     * the lockfile written.
+     */
+    @Parameter( property = "lockfile")
+    private File lockfile;
+
+    /**
+     * Resolve the dependency graph and rewrite the lockfile even if it exists.
+     */
+    @Parameter( property = "updateLockfile", defaultValue = "false")
+    private boolean updateLockfile;
+
+    /**
+     * Keep the plugins a previous run left in the downloadDir and only transfer the added or changed ones.
+     * What is installed is read from the lockfile if there is one, otherwise from the downloadDir itself.
+     * The changes are logged and added to the reportFile.
+     */
+    @Parameter( property = "incremental", defaultValue = "false")
+    private boolean incremental;
+
+    /**
+     * With incremental, delete the hpis of the previous run that no resolved plugin uses anymore.
+     */
+    @Parameter( property = "deleteStale", defaultValue = "false")
+    private boolean deleteStale;
+
+    /**
+     * A json report with the timings, bytes, source, cache hits and retries of every plugin.  A summary
+     * with the slowest plugins is always logged.
+     */
+    @Parameter( property = "reportFile")
+    private File reportFile;
+
+    /**
+     * The number of slowest plugins listed in the summary at the end of the run.
+     */
+    @Parameter( property = "reportSlowest", defaultValue = "10")
+    private int reportSlowest = 10;
+
+    /**
+     * How to choose between different versions of the same plugin: HIGHEST downloads every plugin once
+     * at the highest version required anywhere in the graph, NONE downloads every required version.
+     */
+    @Parameter( property = "versionMediation", defaultValue = "HIGHEST")
+    private VersionMediation versionMediation = VersionMediation.HIGHEST;
+
+    /**
+     * What to do with dependencies marked resolution:=optional: INCLUDE downloads them like required ones,
+     * EXCLUDE leaves them out and INCLUDE_IF_REQUIRED only takes their version into account for plugins
+     * that something else requires.
+     */
+    @Parameter( property = "optionalDependencies", defaultValue = "INCLUDE")
+    private OptionalDependencies optionalDependencies = OptionalDependencies.INCLUDE;
+
+    /**
+     * How hpis are put into the download directory: COPY, SKIP_IF_IDENTICAL (keep an existing file with
+     * the same size and checksum), HARDLINK or SYMLINK to the hpi in the local repository.
+     */
+    @Parameter( property = "outputStrategy", defaultValue = "COPY")
+    private OutputStrategy outputStrategy = OutputStrategy.COPY;
+
+    /**
+     * How the download directory is laid out: MAVEN like a repository, PLUGINS as a flat directory of
+     * artifactId.jpi files for JENKINS_HOME/plugins, or ZIP and TAR to write that directory into a single
+     * archive while the plugins are downloaded.  All but MAVEN need versionMediation HIGHEST and always
+     * download to the local repository first.
+     */
+    @Parameter( property = "outputLayout", defaultValue = "MAVEN")
+    private OutputLayout outputLayout = OutputLayout.MAVEN;
+
+    /**
+     * Write an artifactId.jpi.pinned marker next to every plugin of the PLUGINS, ZIP and TAR layouts, so
+     * Jenkins doesn't replace them with the versions bundled in its war.
+     */
+    @Parameter( property = "pinPlugins", defaultValue = "true")
+    private boolean pinPlugins = true;
+
+    /**
+     * The archive written by the ZIP and TAR layouts, defaults to plugins.zip or plugins.tar in the download
+     * directory.
+     */
+    @Parameter( property = "bundleFile")
+    private File bundleFile;
+
+    /**
+     * A content addressable store shared by download directories.  Every hpi is copied into it once, keyed
+     * by its SHA-256, and hard linked into the download directory from there; the outputStrategy is ignored.
+     * Blobs that aren't used anymore are removed with the gc goal.
+     */
+    @Parameter( property = "pluginStore")
+    private File pluginStore;
+
+    /**
+     * Where hpis downloaded from the plugin server are written: LOCAL_REPOSITORY (and copied to the download
+     * directory afterwards), BOTH at once while downloading, or only the DOWNLOAD_DIRECTORY.  BOTH and
+     * DOWNLOAD_DIRECTORY need outputLayout MAVEN without a pluginStore and no dry run; the other layouts and
+     * the plugin store always take the hpis from the local repository in a second pass.
+     */
+    @Parameter( property = "downloadTarget", defaultValue = "LOCAL_REPOSITORY")
+    private DownloadTarget downloadTarget = DownloadTarget.LOCAL_REPOSITORY;
+
+    /**
+     * Verify hpis downloaded from the plugin server against the checksum in the update center metadata or,
+     * if there is none, the .sha256 file next to the hpi.  The checksum is computed while downloading.
+     */
+    @Parameter( property = "verifyChecksums", defaultValue = "true")
+    private boolean verifyChecksums = true;
+
+    /**
+     * How often a plugin server download that failed on every mirror is retried.
+     */
+    @Parameter( property = "pluginServerRetries", defaultValue = "2")
+    private int pluginServerRetries = 2;
+
+    /**
+     * Milliseconds to wait before the first retry of a failed plugin server download; the wait doubles
+     * with every further retry.
+     */
+    @Parameter( property = "pluginServerRetryBackoff", defaultValue = "1000")
+    private long pluginServerRetryBackoff = 1000;
+
+    /**
+     * If a plugin server mirror hasn't answered within this many milliseconds the same request is sent to
+     * the next mirror as well and the first answer is used.  0 disables hedged requests.
+     */
+    @Parameter( property = "hedgeDelay", defaultValue = "0")
+    private long hedgeDelay;
+
+    /**
+     * The number of requests to the same plugin server host that may run at once, manifest probes and the
+     * update center metadata included; 0 for no limit.
+     */
+    @Parameter( property = "maxDownloadsPerHost", defaultValue = "0")
+    private int maxDownloadsPerHost;
+
+    /**
+     * The bytes per second all plugin server downloads together may read, manifest probes and the update
+     * center metadata included; 0 for no limit.
+     */
+    @Parameter( property = "maxBytesPerSecond", defaultValue = "0")
+    private long maxBytesPerSecond;
+
+    /**
+     * How plugin server downloads are run: BLOCKING holds a thread per download, ASYNC runs them all on a
+     * few io threads of a non-blocking http client, so many more downloads can be in flight than threads.
+     * ASYNC doesn't support hedgeDelay and maxBytesPerSecond; maxDownloadsPerHost, or maxConnectionsPerRoute
+     * if it is 0, limits the connections per mirror.
+     */
+    @Parameter( property = "downloadEngine", defaultValue = "BLOCKING")
+    private DownloadEngine downloadEngine = DownloadEngine.BLOCKING;
+
     @Parameter( defaultValue = "${session}", readonly = true, required = true )
     private MavenSession session;
 
@@ -111,7 +381,45 @@ public class GetMojo extends AbstractMojo {
                     .setArtifactId(artifactId)
                     .setVersion(version)
                     .setArtifact(artifact)
+                    .setPlugins(plugins)
+                    .setPluginsFile(pluginsFile)
                     .setDownloadDir(downloadDir)
+                    .setThreads(threads)
+                    .setMaxConnectionsPerRoute(maxConnectionsPerRoute)
+                    .setConnectTimeout(connectTimeout)
+                    .setReadTimeout(readTimeout)
+                    .setUpdateCenterIndex(updateCenterIndex)
+                    .setManifestProbe(manifestProbe)
+                    .setUseManifestCache(useManifestCache)
+                    .setManifestCacheFile(manifestCacheFile)
+                    .setManifestCacheMaxEntries(manifestCacheMaxEntries)
+                    .setClearManifestCache(clearManifestCache)
+                    .setRepositoryMissCacheTtl(repositoryMissCacheTtl)
+                    .setRepositoryMissCacheFile(repositoryMissCacheFile)
+                    .setResolutionOrder(resolutionOrder)
+                    .setDryRun(dryRun)
+                    .setPlanDirectory(planDirectory)
+                    .setLockfile(lockfile)
+                    .setUpdateLockfile(updateLockfile)
+                    .setIncremental(incremental)
+                    .setDeleteStale(deleteStale)
+                    .setReportFile(reportFile)
+                    .setReportSlowest(reportSlowest)
+                    .setVersionMediation(versionMediation)
+                    .setOptionalDependencies(optionalDependencies)
+                    .setOutputStrategy(outputStrategy)
+                    .setOutputLayout(outputLayout)
+                    .setPinPlugins(pinPlugins)
+                    .setBundleFile(bundleFile)
+                    .setPluginStore(pluginStore)
+                    .setDownloadTarget(downloadTarget)
+                    .setVerifyChecksums(verifyChecksums)
+                    .setPluginServerRetries(pluginServerRetries)
+                    .setPluginServerRetryBackoff(pluginServerRetryBackoff)
+                    .setHedgeDelay(hedgeDelay)
+                    .setMaxDownloadsPerHost(maxDownloadsPerHost)
+                    .setMaxBytesPerSecond(maxBytesPerSecond)
+                    .setDownloadEngine(downloadEngine)
                     .setJenkinsPluginServerUrl(jenkinsPluginServerUrl)
                     .setProjectDeployer(projectDeployer)
                     .setProjectBuilder(projectBuilder)
@@ -129,6 +437,8 @@ public class GetMojo extends AbstractMojo {
             jenkinsPluginGetter.execute();
         } catch (IOException | ArtifactResolverException e) {
             throw new MojoExecutionException(e.getMessage(), e);
+        } finally {
+            IOUtils.closeQuietly(jenkinsPluginGetter);
         }
     }
 
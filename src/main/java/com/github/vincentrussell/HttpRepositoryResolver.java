@@ -0,0 +1,205 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.util.EntityUtils;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.shared.transfer.artifact.resolve.ArtifactResolverException;
+import org.apache.maven.shared.transfer.artifact.resolve.ArtifactResult;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Resolves from a local repository directory and plain http maven repositories, without the maven
+ * resolver.  Used by {@link JenkinsPluginGetterCli}, where booting maven would take longer than the
+ * downloads themselves.  Downloads are verified with the .sha256 or, if there is none, the .sha1 the
+ * repository publishes next to the file.
+ */
+public class HttpRepositoryResolver implements RepositoryResolver, Closeable {
+
+    public static final String DEFAULT_REPOSITORY = "https://repo.jenkins-ci.org/public/";
+
+    private static final String SHA_256_SUFFIX = ".sha256";
+    private static final String SHA_1_SUFFIX = ".sha1";
+
+    private final File localRepository;
+    private final List<String> repositories;
+    private final CloseableHttpClient httpClient;
+    private final boolean verifyChecksums;
+    private final Log log;
+
+    /**
+     * @param threads the downloads that can run at the same time; with maxConnectionsPerRoute it sizes the
+     *                connection pool like the one of {@link JenkinsPluginGetter}.
+     * @param verifyChecksums verify downloads with the checksum files of the repository.
+     */
+    public HttpRepositoryResolver(final File localRepository, final List<String> repositories,
+                                  final int threads, final int maxConnectionsPerRoute, final int connectTimeout,
+                                  final int readTimeout, final boolean verifyChecksums, final Log log) {
+        this.localRepository = localRepository;
+        this.repositories = new ArrayList<>();
+        for (String repository : repositories) {
+            this.repositories.add(repository.endsWith("/") ? repository : repository + "/");
+        }
+        this.httpClient = HttpClients.custom()
+                .useSystemProperties()
+                .setMaxConnPerRoute(maxConnectionsPerRoute)
+                .setMaxConnTotal(Math.max(maxConnectionsPerRoute, threads) * Math.max(1, this.repositories.size()))
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(connectTimeout)
+                        .setSocketTimeout(readTimeout)
+                        .build())
+                .build();
+        this.verifyChecksums = verifyChecksums;
+        this.log = log;
+    }
+
+    @Override
+    public Artifact createArtifact(final String groupId, final String artifactId, final String version,
+                                   final String type) {
+        return new DefaultArtifact(groupId, artifactId, version, Artifact.SCOPE_RUNTIME, type, null,
+                new DefaultArtifactHandler(type));
+    }
+
+    @Override
+    public File getLocalRepository() {
+        return localRepository;
+    }
+
+    @Override
+    public ArtifactResult resolveArtifact(final Artifact artifact) throws ArtifactResolverException {
+        String path = getPath(artifact);
+        File file = new File(localRepository, path);
+        if (!file.isFile()) {
+            IOException lastFailure = null;
+            boolean found = false;
+            for (String repository : repositories) {
+                try {
+                    if (download(repository + path, file)) {
+                        found = true;
+                        break;
+                    }
+                } catch (IOException e) {
+                    log.debug("could not download " + repository + path + ": " + e.getMessage());
+                    lastFailure = e;
+                }
+            }
+            if (!found) {
+                throw new ArtifactResolverException("could not find " + path + " in " + repositories,
+                        lastFailure != null ? lastFailure : new IOException(path + " not found"));
+            }
+        }
+
+        final Artifact resolved = createArtifact(artifact.getGroupId(), artifact.getArtifactId(),
+                artifact.getVersion(), artifact.getType());
+        resolved.setFile(file);
+        return new ArtifactResult() {
+            @Override
+            public Artifact getArtifact() {
+                return resolved;
+            }
+        };
+    }
+
+    @Override
+    public void close() throws IOException {
+        httpClient.close();
+    }
+
+    /**
+     * @return groupId/as/directories/artifactId/version/artifactId-version.type
+     */
+    static String getPath(final Artifact artifact) {
+        return artifact.getGroupId().trim().replace('.', '/') + "/" + artifact.getArtifactId().trim() + "/"
+                + artifact.getVersion().trim() + "/" + artifact.getArtifactId().trim() + "-"
+                + artifact.getVersion().trim() + "." + artifact.getType();
+    }
+
+    /**
+     * @return false if the repository doesn't have url.
+     * @throws IOException if the download fails or doesn't match the checksum of the repository.
+     */
+    private boolean download(final String url, final File file) throws IOException {
+        ExpectedChecksum expectedChecksum = verifyChecksums ? getChecksum(url) : null;
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(url))) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == HttpStatus.SC_NOT_FOUND) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                return false;
+            }
+            if (statusCode != HttpStatus.SC_OK) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                throw new IOException("status " + statusCode);
+            }
+            FileUtils.forceMkdir(file.getParentFile());
+            // other threads and builds may resolve the same artifact, only a complete file is moved into place
+            File tmp = File.createTempFile(file.getName(), PluginServerDownloader.PART_SUFFIX, file.getParentFile());
+            try {
+                MessageDigest messageDigest = expectedChecksum != null
+                        ? Checksums.newDigest(expectedChecksum.getAlgorithm()) : null;
+                InputStream content = response.getEntity().getContent();
+                try (InputStream inputStream = messageDigest != null
+                        ? new DigestInputStream(content, messageDigest) : content) {
+                    Files.copy(inputStream, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+                }
+                if (messageDigest != null && !expectedChecksum.matches(messageDigest.digest())) {
+                    throw new IOException("checksum of " + url + " doesn't match the expected " + expectedChecksum);
+                }
+                Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                        StandardCopyOption.ATOMIC_MOVE);
+            } finally {
+                FileUtils.deleteQuietly(tmp);
+            }
+            log.info("Downloaded " + url);
+            return true;
+        }
+    }
+
+    /**
+     * @return the checksum the repository publishes for url, preferring SHA-256, or null if it has none.
+     */
+    private ExpectedChecksum getChecksum(final String url) throws IOException {
+        ExpectedChecksum checksum = getChecksum(url + SHA_256_SUFFIX, Checksums.SHA_256);
+        if (checksum == null) {
+            checksum = getChecksum(url + SHA_1_SUFFIX, Checksums.SHA_1);
+        }
+        if (checksum == null) {
+            log.debug("no checksum available for " + url);
+        }
+        return checksum;
+    }
+
+    private ExpectedChecksum getChecksum(final String checksumUrl, final String algorithm) throws IOException {
+        try (CloseableHttpResponse response = httpClient.execute(new HttpGet(checksumUrl))) {
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode != HttpStatus.SC_OK) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                if (statusCode == HttpStatus.SC_NOT_FOUND || statusCode == HttpStatus.SC_GONE) {
+                    return null;
+                }
+                throw new IOException(checksumUrl + " answered " + response.getStatusLine());
+            }
+            // the hex digest, optionally followed by the file name
+            String[] tokens = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8).trim().split("\\s+");
+            return tokens[0].isEmpty() ? null : new ExpectedChecksum(algorithm, tokens[0], checksumUrl);
+        }
+    }
+}
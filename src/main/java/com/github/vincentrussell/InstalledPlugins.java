@@ -0,0 +1,206 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+
+/**
+ * The plugins a previous run left in a download directory, read from its lockfile or, without one,
+ * from the directory itself.  An incremental run takes the plugins it finds here as they are instead of
+ * transferring them again.
+ */
+public class InstalledPlugins {
+
+    static final String PLUGIN_VERSION = "Plugin-Version";
+    static final String GROUP_ID = "Group-Id";
+
+    private final Map<String, InstalledPlugin> plugins = new LinkedHashMap<>();
+
+    /**
+     * Only the locked plugins whose file is still in the download directory with the locked SHA-256
+     * are installed.
+     */
+    public static InstalledPlugins read(final Lockfile lockfile, final DownloadDirectory downloadDirectory,
+                                        final Log log) throws IOException {
+        InstalledPlugins installed = new InstalledPlugins();
+        for (Lockfile.LockedPlugin plugin : lockfile.getPlugins()) {
+            String type = plugin.getType() != null ? plugin.getType() : "hpi";
+            File file = downloadDirectory.getFile(plugin.getGroupId(), plugin.getArtifactId(), plugin.getVersion(),
+                    type);
+            if (!file.isFile()) {
+                continue;
+            }
+            InstalledPlugin installedPlugin = new InstalledPlugin(plugin.getGroupId(), plugin.getArtifactId(),
+                    plugin.getVersion(), type, file, plugin.getSource());
+            if (!installedPlugin.getSha256().equalsIgnoreCase(plugin.getSha256())) {
+                log.debug(file + " doesn't match the lockfile anymore");
+                continue;
+            }
+            installed.add(installedPlugin);
+        }
+        return installed;
+    }
+
+    /**
+     * Finds the hpis in the download directory: by their path in the MAVEN layout and by their manifest
+     * in the PLUGINS layout.  The archives of the bundle layouts aren't read.
+     */
+    public static InstalledPlugins scan(final DownloadDirectory downloadDirectory, final Log log)
+            throws IOException {
+        InstalledPlugins installed = new InstalledPlugins();
+        File directory = downloadDirectory.getDirectory();
+        if (!directory.isDirectory()) {
+            return installed;
+        }
+        if (downloadDirectory.getOutputLayout() == OutputLayout.MAVEN) {
+            for (File file : FileUtils.listFiles(directory, new String[] {"hpi", "jpi"}, true)) {
+                InstalledPlugin plugin = fromMavenPath(directory, file);
+                if (plugin != null) {
+                    installed.add(plugin);
+                }
+            }
+        } else if (downloadDirectory.getOutputLayout() == OutputLayout.PLUGINS) {
+            File[] files = directory.listFiles();
+            for (File file : files != null ? files : new File[0]) {
+                if (!file.isFile() || !file.getName().endsWith(DownloadDirectory.JPI)) {
+                    continue;
+                }
+                Manifest manifest = readManifest(file);
+                String version = manifest != null ? manifest.getMainAttributes().getValue(PLUGIN_VERSION) : null;
+                if (version == null) {
+                    log.debug(file + " has no " + PLUGIN_VERSION + " and is left alone");
+                    continue;
+                }
+                String groupId = manifest.getMainAttributes().getValue(GROUP_ID);
+                String artifactId = file.getName().substring(0,
+                        file.getName().length() - DownloadDirectory.JPI.length());
+                installed.add(new InstalledPlugin(groupId != null ? groupId : PluginDependency.DEFAULT_GROUP_ID,
+                        artifactId, version.trim(), "hpi", file, null));
+            }
+        }
+        return installed;
+    }
+
+    /**
+     * @return the installed plugin with exactly these coordinates or null.
+     */
+    public InstalledPlugin get(final String groupId, final String artifactId, final String version) {
+        return plugins.get(DependencyGraph.getKey(groupId, artifactId, version));
+    }
+
+    public Collection<InstalledPlugin> getPlugins() {
+        return Collections.unmodifiableCollection(plugins.values());
+    }
+
+    public int size() {
+        return plugins.size();
+    }
+
+    private void add(final InstalledPlugin plugin) {
+        plugins.put(plugin.getKey(), plugin);
+    }
+
+    /**
+     * @return the plugin of directory/group/as/directories/artifactId/version/artifactId-version.type or null
+     * if the file isn't laid out like that.
+     */
+    private static InstalledPlugin fromMavenPath(final File directory, final File file) {
+        File versionDirectory = file.getParentFile();
+        File artifactDirectory = versionDirectory.getParentFile();
+        File groupDirectory = artifactDirectory.getParentFile();
+        String version = versionDirectory.getName();
+        String artifactId = artifactDirectory.getName();
+        String type = file.getName().substring(file.getName().lastIndexOf('.') + 1);
+        if (!file.getName().equals(artifactId + "-" + version + "." + type)
+                || !groupDirectory.getAbsolutePath().startsWith(directory.getAbsolutePath() + File.separator)) {
+            return null;
+        }
+        String groupId = groupDirectory.getAbsolutePath().substring(directory.getAbsolutePath().length() + 1)
+                .replace(File.separatorChar, '.');
+        return new InstalledPlugin(groupId, artifactId, version, type, file, null);
+    }
+
+    private static Manifest readManifest(final File file) {
+        try (JarInputStream jarInputStream = new JarInputStream(new FileInputStream(file))) {
+            return jarInputStream.getManifest();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static class InstalledPlugin {
+        private final String groupId;
+        private final String artifactId;
+        private final String version;
+        private final String type;
+        private final File file;
+        private final ArtifactSource source;
+        private String sha256;
+
+        InstalledPlugin(final String groupId, final String artifactId, final String version, final String type,
+                        final File file, final ArtifactSource source) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.type = type;
+            this.file = file;
+            this.source = source;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getArtifactId() {
+            return artifactId;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        public File getFile() {
+            return file;
+        }
+
+        /**
+         * @return where the previous run got the plugin from, or null if it isn't known.
+         */
+        public ArtifactSource getSource() {
+            return source;
+        }
+
+        /**
+         * @return the hex encoded SHA-256 of the file, computed on first use.
+         */
+        public synchronized String getSha256() throws IOException {
+            if (sha256 == null) {
+                sha256 = Hex.encodeHexString(Checksums.digest(file, Checksums.SHA_256));
+            }
+            return sha256;
+        }
+
+        public String getKey() {
+            return DependencyGraph.getKey(groupId, artifactId, version);
+        }
+
+        @Override
+        public String toString() {
+            return getKey();
+        }
+    }
+}
@@ -1,24 +1,26 @@
 package com.github.vincentrussell;
 
+import com.github.vincentrussell.DependencyGraph.Node;
 import com.google.common.base.Function;
 import com.google.common.collect.Lists;
-import edu.umd.cs.findbugs.annotations.SuppressFBWarnings;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.MoreExecutors;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
-import org.apache.commons.io.IOUtils;
-import org.apache.http.HttpStatus;
-import org.apache.http.client.methods.CloseableHttpResponse;
-import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.config.RequestConfig;
 import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.DefaultConnectionKeepAliveStrategy;
 import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.DefaultArtifact;
-import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoFailureException;
 import org.apache.maven.plugin.logging.Log;
 import org.apache.maven.project.MavenProjectHelper;
 import org.apache.maven.project.ProjectBuilder;
-import org.apache.maven.project.ProjectBuildingRequest;
 import org.apache.maven.repository.RepositorySystem;
 import org.apache.maven.shared.transfer.artifact.resolve.ArtifactResolver;
 import org.apache.maven.shared.transfer.artifact.resolve.ArtifactResolverException;
@@ -26,22 +28,40 @@ import org.apache.maven.shared.transfer.artifact.resolve.ArtifactResult;
 import org.apache.maven.shared.transfer.project.deploy.ProjectDeployer;
 import org.codehaus.plexus.util.StringUtils;
 
+import java.io.Closeable;
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarInputStream;
-import java.util.jar.Manifest;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import static org.apache.commons.lang3.Validate.notNull;
 
-public class JenkinsPluginGetter {
+public class JenkinsPluginGetter implements Closeable {
+
+    /**
+     * The file the plugin server writes to in a RACE until it has won.
+     */
+    static final String RACE_SUFFIX = ".jdp-race";
 
     private final ProjectDeployer projectDeployer;
     private final ProjectBuilder projectBuilder;
@@ -49,13 +69,50 @@ public class JenkinsPluginGetter {
     private final MavenProjectHelper projectHelper;
     private final Log log;
     private final RepositorySystem repositorySystem;
-    private final String groupId;
-    private final String artifactId;
-    private final String version;
-    private final String packaging;
+    private final List<Coordinates> plugins;
     private final ArtifactResolver artifactResolver;
+    private RepositoryResolver repositoryResolver;
     private final String jenkinsPluginServerUrl;
     private final File downloadDir;
+    private final int threads;
+    private final PoolingHttpClientConnectionManager connectionManager;
+    private final CloseableHttpClient httpClient;
+    private final String updateCenterIndexLocation;
+    private UpdateCenterIndex updateCenterIndex;
+    private final DownloadThrottle downloadThrottle;
+    private final ManifestProbe manifestProbe;
+    private final PluginServerDownloader pluginServerDownloader;
+    private final AsyncPluginServerDownloader asyncPluginServerDownloader;
+    private final boolean useManifestCache;
+    private final File manifestCacheFile;
+    private final int manifestCacheMaxEntries;
+    private final boolean clearManifestCache;
+    private ManifestCache manifestCache;
+    private final long repositoryMissCacheTtl;
+    private final File repositoryMissCacheFile;
+    private RepositoryMissCache repositoryMissCache;
+    private final ResolutionOrder resolutionOrder;
+    private ExecutorService raceExecutorService;
+    private final VersionMediation versionMediation;
+    private final OptionalDependencies optionalDependencies;
+    private final DownloadDirectory downloadDirectory;
+    private final DownloadTarget downloadTarget;
+    private final boolean verifyChecksums;
+    private final boolean dryRun;
+    private final File planDirectory;
+    private final PluginServerMirrors pluginServerMirrors;
+    private final Set<String> savedToDownloadDirectory = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final File lockfile;
+    private final boolean updateLockfile;
+    private final boolean incremental;
+    private final boolean deleteStale;
+    private InstalledPlugins installedPlugins;
+    private final ConcurrentMap<String, ArtifactSource> sources = new ConcurrentHashMap<>();
+    private final ConcurrentMap<String, ExpectedChecksum> lockedChecksums = new ConcurrentHashMap<>();
+    private final VerifiedChecksums verifiedChecksums = new VerifiedChecksums();
+    private final File reportFile;
+    private final int reportSlowest;
+    private DownloadMetrics metrics = new DownloadMetrics();
 
     private JenkinsPluginGetter(final Builder builder) {
         this.projectDeployer = builder.projectDeployer;
@@ -64,162 +121,1090 @@ public class JenkinsPluginGetter {
         this.projectHelper = builder.projectHelper;
         this.log = builder.log;
         this.repositorySystem = builder.repositorySystem;
-        this.groupId = builder.groupId;
-        this.artifactId = builder.artifactId;
-        this.version = builder.version;
-        this.packaging = builder.packaging;
+        this.plugins = new ArrayList<>();
+        if (builder.artifactId != null && builder.groupId != null && builder.version != null) {
+            this.plugins.add(new Coordinates(builder.groupId, builder.artifactId, builder.version, builder.packaging));
+        }
+        this.plugins.addAll(builder.plugins);
         this.artifactResolver = builder.artifactResolver;
+        this.repositoryResolver = builder.repositoryResolver;
         this.jenkinsPluginServerUrl = builder.jenkinsPluginServerUrl;
         this.downloadDir = builder.downloadDir;
+        this.threads = builder.threads;
+        this.updateCenterIndexLocation = builder.updateCenterIndex;
+        this.useManifestCache = builder.useManifestCache;
+        this.manifestCacheFile = builder.manifestCacheFile;
+        this.repositoryMissCacheTtl = builder.repositoryMissCacheTtl;
+        this.repositoryMissCacheFile = builder.repositoryMissCacheFile;
+        this.resolutionOrder = builder.resolutionOrder;
+        this.manifestCacheMaxEntries = builder.manifestCacheMaxEntries;
+        this.clearManifestCache = builder.clearManifestCache;
+        this.versionMediation = builder.versionMediation;
+        this.optionalDependencies = builder.optionalDependencies;
+        this.downloadDirectory = new DownloadDirectory(builder.downloadDir, builder.outputLayout,
+                builder.outputStrategy, builder.pinPlugins, builder.bundleFile,
+                builder.pluginStore != null ? new PluginStore(builder.pluginStore) : null, log);
+        this.dryRun = builder.dryRun;
+        this.lockfile = builder.lockfile;
+        this.updateLockfile = builder.updateLockfile;
+        this.incremental = builder.incremental;
+        this.deleteStale = builder.deleteStale;
+        this.reportFile = builder.reportFile;
+        this.reportSlowest = builder.reportSlowest;
+        this.planDirectory = builder.planDirectory != null ? builder.planDirectory : builder.downloadDir;
+        this.downloadTarget = builder.downloadTarget;
+        this.verifyChecksums = builder.verifyChecksums;
+        this.connectionManager = new PoolingHttpClientConnectionManager();
+        this.connectionManager.setDefaultMaxPerRoute(builder.maxConnectionsPerRoute);
+        // a hedged request can double the number of connections a thread holds
+        this.connectionManager.setMaxTotal(Math.max(builder.maxConnectionsPerRoute, threads)
+                * (builder.hedgeDelay > 0 ? 2 : 1));
+        this.httpClient = HttpClients.custom()
+                .setConnectionManager(connectionManager)
+                .setKeepAliveStrategy(DefaultConnectionKeepAliveStrategy.INSTANCE)
+                .setDefaultRequestConfig(RequestConfig.custom()
+                        .setConnectTimeout(builder.connectTimeout)
+                        .setSocketTimeout(builder.readTimeout)
+                        .build())
+                .build();
+        this.downloadThrottle = new DownloadThrottle(builder.maxDownloadsPerHost, builder.maxBytesPerSecond);
+        this.manifestProbe = builder.manifestProbe || dryRun ? new ManifestProbe(httpClient, downloadThrottle) : null;
+        this.pluginServerMirrors = new PluginServerMirrors(jenkinsPluginServerUrl != null
+                ? PluginServerMirrors.split(jenkinsPluginServerUrl) : Collections.<String>emptyList());
+        this.pluginServerDownloader = new PluginServerDownloader(httpClient, pluginServerMirrors,
+                builder.pluginServerRetries, builder.pluginServerRetryBackoff, builder.hedgeDelay,
+                downloadThrottle, verifiedChecksums, log);
+        this.asyncPluginServerDownloader = builder.downloadEngine == DownloadEngine.ASYNC
+                ? new AsyncPluginServerDownloader(pluginServerMirrors, builder.pluginServerRetries,
+                        builder.pluginServerRetryBackoff, builder.maxDownloadsPerHost > 0
+                        ? builder.maxDownloadsPerHost : builder.maxConnectionsPerRoute,
+                        builder.connectTimeout, builder.readTimeout, verifiedChecksums, log)
+                : null;
+    }
+
+    @Override
+    public void close() throws IOException {
+        pluginServerDownloader.close();
+        if (asyncPluginServerDownloader != null) {
+            asyncPluginServerDownloader.close();
+        }
+        httpClient.close();
     }
 
     public boolean execute() throws IOException, ArtifactResolverException {
-        notNull(projectDeployer, "projectDeployer is null");
-        notNull(projectBuilder, "projectBuilder is null");
-        notNull(mavenSession, "mavenSession is null");
-        notNull(projectHelper, "projectHelper is null");
-        notNull(repositorySystem, "repositorySystem is null");
-        notNull(artifactResolver, "artifactResolver is null");
+        if (repositoryResolver == null) {
+            notNull(projectDeployer, "projectDeployer is null");
+            notNull(projectBuilder, "projectBuilder is null");
+            notNull(mavenSession, "mavenSession is null");
+            notNull(projectHelper, "projectHelper is null");
+            notNull(repositorySystem, "repositorySystem is null");
+            notNull(artifactResolver, "artifactResolver is null");
+            repositoryResolver = new MavenRepositoryResolver(repositorySystem, artifactResolver, mavenSession);
+        }
         notNull(jenkinsPluginServerUrl, "jenkinsPluginServerUrl is null");
         notNull(downloadDir, "downloadDir is null");
 
-        Artifact artifactToDownload = repositorySystem.createArtifact( groupId, artifactId, version, packaging );
+        if (updateCenterIndexLocation != null && updateCenterIndex == null) {
+            log.info("Loading update center metadata from " + updateCenterIndexLocation);
+            updateCenterIndex = UpdateCenterIndex.load(updateCenterIndexLocation, httpClient, downloadThrottle);
+            log.info("Update center metadata contains " + updateCenterIndex.size() + " plugins");
+        }
+
+        if (useManifestCache && manifestCache == null) {
+            File cacheFile = manifestCacheFile != null ? manifestCacheFile : new File(
+                    repositoryResolver.getLocalRepository(),
+                    ".cache/jenkins-dependency-plugin/manifest-cache.json");
+            manifestCache = ManifestCache.load(cacheFile, manifestCacheMaxEntries);
+            if (clearManifestCache) {
+                log.info("Clearing manifest cache " + cacheFile);
+                manifestCache.clear();
+            }
+        }
+
+        if (repositoryMissCacheTtl > 0 && repositoryMissCache == null) {
+            File cacheFile = repositoryMissCacheFile != null ? repositoryMissCacheFile : new File(
+                    repositoryResolver.getLocalRepository(),
+                    ".cache/jenkins-dependency-plugin/repository-misses.json");
+            repositoryMissCache = RepositoryMissCache.load(cacheFile, TimeUnit.MINUTES.toMillis(repositoryMissCacheTtl));
+        }
+
+        metrics = new DownloadMetrics();
+        ExecutorService executorService = Executors.newFixedThreadPool(threads);
+        if (resolutionOrder == ResolutionOrder.RACE) {
+            raceExecutorService = Executors.newCachedThreadPool();
+        }
+        boolean completed = false;
+        try {
+            List<String> requested = new ArrayList<>();
+            for (Coordinates plugin : plugins) {
+                requested.add(plugin.toString());
+            }
+            if (incremental) {
+                installedPlugins = loadInstalledPlugins();
+                log.info("Found " + installedPlugins.size() + " plugins of a previous run in " + downloadDir);
+            }
+            if (lockfile != null && lockfile.isFile() && !updateLockfile && !dryRun) {
+                Lockfile locked = Lockfile.load(lockfile);
+                if (locked.isFor(requested, versionMediation, optionalDependencies, updateCenterIndexLocation)) {
+                    log.info("Downloading the " + locked.getPlugins().size() + " plugins locked in " + lockfile);
+                    downloadLocked(executorService, locked);
+                    if (installedPlugins != null) {
+                        List<Artifact> lockedArtifacts = new ArrayList<>();
+                        for (Lockfile.LockedPlugin plugin : locked.getPlugins()) {
+                            lockedArtifacts.add(createArtifact(plugin));
+                        }
+                        reportIncrementalUpdate(lockedArtifacts);
+                    }
+                    completed = true;
+                    return true;
+                }
+                log.warn(lockfile + " was written for other plugins or settings, resolving them again");
+            }
+
+            // all requested plugins share one graph so their common dependencies are only resolved once
+            DependencyGraph graph = new DependencyGraph();
+            List<Node> roots = new ArrayList<>();
+            for (Coordinates plugin : plugins) {
+                Artifact artifactToDownload = repositoryResolver.createArtifact(
+                        getGroupId(plugin.groupId, plugin.artifactId, plugin.version), plugin.artifactId,
+                        plugin.version, plugin.packaging );
+                Node root = graph.addIfAbsent(artifactToDownload);
+                if (root != null) {
+                    roots.add(root);
+                }
+            }
+            VersionMediator versionMediator = new VersionMediator(versionMediation, optionalDependencies);
+
+            expand(executorService, graph, versionMediator, roots);
+            VersionMediator.Selection selection = versionMediator.select(graph, roots);
+            while (!selection.getUnexpanded().isEmpty()) {
+                expand(executorService, graph, versionMediator, selection.getUnexpanded());
+                selection = versionMediator.select(graph, roots);
+            }
+            for (Map.Entry<String, Node> replaced : selection.getReplaced().entrySet()) {
+                log.info("Using " + replaced.getValue() + " instead of " + replaced.getKey());
+            }
+
+            List<Artifact> selectedArtifacts = new ArrayList<>();
+            for (Node node : selection.getSelected()) {
+                selectedArtifacts.add(node.getArtifact());
+            }
+
+            if (dryRun) {
+                writePlan(DependencyPlan.create(graph, roots, selection));
+                if (installedPlugins != null) {
+                    reportIncrementalUpdate(selectedArtifacts);
+                }
+                completed = true;
+                return true;
+            }
+
+            removeUnselectedDownloads(graph, selection);
+
+            LinkedBlockingQueue<Future<Void>> pendingDownloads = new LinkedBlockingQueue<>();
+            for (Node node : selection.getSelected()) {
+                pendingDownloads.add(executorService.submit(new DownloadTask(node, executorService,
+                        pendingDownloads)));
+            }
+            waitFor(pendingDownloads);
 
-        Set<String> alreadyDownloadedArtifacts = new HashSet<>();
-        recursiveDownload(alreadyDownloadedArtifacts, artifactToDownload);
+            if (installedPlugins != null) {
+                reportIncrementalUpdate(selectedArtifacts);
+            }
+            if (lockfile != null) {
+                writeLockfile(requested, selection);
+            }
+            completed = true;
+        } finally {
+            executorService.shutdownNow();
+            if (raceExecutorService != null) {
+                raceExecutorService.shutdownNow();
+                raceExecutorService = null;
+            }
+            if (manifestCache != null) {
+                try {
+                    manifestCache.save();
+                } catch (IOException e) {
+                    log.warn("could not save manifest cache: " + e.getMessage());
+                }
+            }
+            if (repositoryMissCache != null) {
+                try {
+                    repositoryMissCache.save();
+                } catch (IOException e) {
+                    log.warn("could not save repository miss cache: " + e.getMessage());
+                }
+            }
+            writeReport();
+            downloadDirectory.close(completed);
+        }
         return true;
     }
 
-    private void recursiveDownload(final Set<String> alreadyDownloadedArtifacts,
-                                   final Artifact artifactToDownload) throws ArtifactResolverException, IOException {
+    /**
+     * Downloads the plugins of the lockfile in parallel without walking their dependencies.  Plugins
+     * from the plugin server are verified while they are downloaded, all others once they are resolved.
+     */
+    private void downloadLocked(final ExecutorService executorService, final Lockfile locked)
+            throws IOException, ArtifactResolverException {
+        for (Lockfile.LockedPlugin plugin : locked.getPlugins()) {
+            lockedChecksums.put(plugin.getKey(), new ExpectedChecksum(Checksums.SHA_256, plugin.getSha256(),
+                    lockfile.getPath()));
+        }
+        LinkedBlockingQueue<Future<Void>> pendingDownloads = new LinkedBlockingQueue<>();
+        for (Lockfile.LockedPlugin plugin : locked.getPlugins()) {
+            pendingDownloads.add(executorService.submit(new LockedDownloadTask(plugin, executorService,
+                    pendingDownloads)));
+        }
+        waitFor(pendingDownloads);
+    }
+
+    /**
+     * A lockfile tells exactly what the previous run put into the download directory, without one the
+     * directory is scanned.
+     */
+    private InstalledPlugins loadInstalledPlugins() throws IOException {
+        if (lockfile != null && lockfile.isFile()) {
+            return InstalledPlugins.read(Lockfile.load(lockfile), downloadDirectory, log);
+        }
+        return InstalledPlugins.scan(downloadDirectory, log);
+    }
+
+    /**
+     * Logs and reports how the download directory changed compared to the installed plugins, and deletes
+     * the stale ones if asked to; a dry run only reports them.
+     */
+    private void reportIncrementalUpdate(final List<Artifact> selected) throws IOException {
+        DownloadDiff diff = DownloadDiff.create(installedPlugins, selected, downloadDirectory);
+        boolean delete = deleteStale && !dryRun;
+        if (delete) {
+            for (InstalledPlugins.InstalledPlugin plugin : diff.getStalePlugins()) {
+                log.info("Deleting stale " + plugin.getFile());
+                downloadDirectory.delete(plugin.getFile());
+            }
+        }
+        diff.setStaleDeleted(delete);
+        diff.logSummary(log);
+        metrics.setDiff(diff);
+    }
+
+    /**
+     * @return the plugin an incremental run keeps as it is in the download directory, or null if artifact
+     * has to be transferred.
+     */
+    private InstalledPlugins.InstalledPlugin getInstalled(final Artifact artifact) {
+        return installedPlugins != null ? installedPlugins.get(artifact.getGroupId(), artifact.getArtifactId(),
+                artifact.getVersion()) : null;
+    }
+
+    /**
+     * @return the artifact resolved to the installed hpi.
+     */
+    private Artifact useInstalled(final Artifact artifact, final InstalledPlugins.InstalledPlugin installed) {
+        if (installed.getSource() != null
+                && sources.putIfAbsent(getCacheKey(artifact), installed.getSource()) == null) {
+            metrics.get(getCacheKey(artifact)).setSource(installed.getSource());
+        }
+        log.debug(installed.getFile() + " is up to date");
+        Artifact resolvedArtifact = repositoryResolver.createArtifact(artifact.getGroupId(),
+                artifact.getArtifactId(), artifact.getVersion(), artifact.getType());
+        resolvedArtifact.setFile(installed.getFile());
+        return resolvedArtifact;
+    }
+
+    private Artifact createArtifact(final Lockfile.LockedPlugin plugin) {
+        return repositoryResolver.createArtifact(plugin.getGroupId(), plugin.getArtifactId(),
+                plugin.getVersion(), plugin.getType() != null ? plugin.getType() : "hpi");
+    }
+
+    private void writeLockfile(final List<String> requested, final VersionMediator.Selection selection)
+            throws IOException {
+        Lockfile locked = new Lockfile(requested, versionMediation, optionalDependencies,
+                updateCenterIndexLocation);
+        for (Node node : selection.getSelected()) {
+            Artifact artifact = node.getArtifact();
+            Artifact resolvedArtifact = node.getResolvedArtifact();
+            File file = resolvedArtifact != null ? resolvedArtifact.getFile() : null;
+            if (file == null || !file.isFile()) {
+                log.warn(node + " wasn't downloaded and is left out of the lockfile");
+                continue;
+            }
+            ArtifactSource source = sources.get(node.getKey());
+            locked.add(new Lockfile.LockedPlugin(artifact.getGroupId(), artifact.getArtifactId(),
+                    artifact.getVersion(), artifact.getType(),
+                    getSha256(file),
+                    source != null ? source : ArtifactSource.REPOSITORY));
+        }
+        locked.write(lockfile);
+        log.info("Wrote " + locked.getPlugins().size() + " plugins to " + lockfile);
+    }
+
+    private String getSha256(final File file) throws IOException {
+        String sha256 = verifiedChecksums.get(file);
+        return sha256 != null ? sha256 : Hex.encodeHexString(Checksums.digest(file, Checksums.SHA_256));
+    }
+
+    private void writeReport() {
+        metrics.finish();
+        metrics.logSummary(log, reportSlowest);
+        if (reportFile != null) {
+            try {
+                metrics.writeJson(reportFile);
+                log.info("Wrote download report to " + reportFile);
+            } catch (IOException e) {
+                log.warn("could not write download report: " + e.getMessage());
+            }
+        }
+    }
+
+    private void writePlan(final DependencyPlan plan) throws IOException {
+        File jsonFile = new File(planDirectory, "plan.json");
+        File dotFile = new File(planDirectory, "plan.dot");
+        plan.writeJson(jsonFile);
+        plan.writeDot(dotFile);
+        log.info("Dry run: " + plan.getPluginCount() + " plugins would be downloaded, see " + jsonFile
+                + " and " + dotFile);
+    }
+
+    /**
+     * Plugins fetched from the plugin server while the graph was expanded may have been written straight
+     * to the download directory; the ones version mediation didn't select are removed again.
+     */
+    private void removeUnselectedDownloads(final DependencyGraph graph, final VersionMediator.Selection selection) {
+        Set<Node> selected = new HashSet<>(selection.getSelected());
+        for (Node node : graph.getNodes()) {
+            if (!selected.contains(node) && savedToDownloadDirectory.remove(node.getKey())) {
+                FileUtils.deleteQuietly(downloadDirectory.getFile(node.getArtifact()));
+            }
+        }
+    }
+
+    /**
+     * Finds the dependencies of the nodes and, recursively, of every new plugin version they depend on.
+     */
+    private void expand(final ExecutorService executorService, final DependencyGraph graph,
+                        final VersionMediator versionMediator, final List<Node> nodes)
+            throws IOException, ArtifactResolverException {
+        LinkedBlockingQueue<Future<Void>> pendingTasks = new LinkedBlockingQueue<>();
+        for (Node node : nodes) {
+            pendingTasks.add(executorService.submit(
+                    new ExpandTask(executorService, graph, versionMediator, pendingTasks, node)));
+        }
+        waitFor(pendingTasks);
+    }
+
+    /**
+     * A task only finishes after it has queued the tasks it spawns, so once the queue
+     * is drained all of the work has been done.
+     */
+    private void waitFor(final LinkedBlockingQueue<Future<Void>> pendingTasks)
+            throws IOException, ArtifactResolverException {
+        Future<Void> future;
+        while ((future = pendingTasks.poll()) != null) {
+            await(future);
+        }
+    }
+
+    private static <T> T await(final Future<T> future) throws IOException, ArtifactResolverException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while waiting for downloads", e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            } else if (cause instanceof ArtifactResolverException) {
+                throw (ArtifactResolverException) cause;
+            } else if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException(cause.getMessage(), cause);
+        }
+    }
+
+    /**
+     * @return the artifact with its file from the maven repositories or the plugin server, in the
+     * configured order, or null if nothing was downloaded.
+     */
+    private Artifact resolve(final Artifact artifactToDownload) throws ArtifactResolverException, IOException {
         log.info("Resolving " + artifactToDownload);
-        ArtifactResult result = null;
+        ArtifactResult result;
+        // a plugin that is already in the local repository is always resolved from there
+        boolean local = getLocalRepositoryFile(artifactToDownload).isFile();
+        if (!local && resolutionOrder == ResolutionOrder.RACE) {
+            result = race(artifactToDownload);
+        } else if (!local && (resolutionOrder == ResolutionOrder.PLUGIN_SERVER_FIRST
+                || isKnownRepositoryMiss(artifactToDownload))) {
+            try {
+                result = downloadArtifactFromPluginServer(artifactToDownload);
+            } catch (ArtifactResolverException | IOException e) {
+                log.debug("could not download from plugin server " + e.getMessage());
+                result = resolveFromRepository(artifactToDownload);
+            }
+        } else {
+            try {
+                result = resolveFromRepository(artifactToDownload);
+            } catch (ArtifactResolverException e) {
+                log.warn("could not download from remote remove repository " + e.getMessage());
+                result = downloadArtifactFromPluginServer(artifactToDownload);
+            }
+        }
+
+        if (result.getArtifact().getFile().exists()) {
+            return result.getArtifact();
+        }
+        return null;
+    }
+
+    /**
+     * Like {@link #resolve(Artifact)}, but a download from the plugin server is left to the async engine
+     * instead of holding this thread until it is done.
+     *
+     * @param executor runs the maven resolution if the plugin server doesn't have the artifact.
+     */
+    private ListenableFuture<Artifact> resolveAsync(final Artifact artifactToDownload, final Executor executor)
+            throws ArtifactResolverException, IOException {
+        if (getLocalRepositoryFile(artifactToDownload).isFile() || resolutionOrder == ResolutionOrder.RACE) {
+            return Futures.immediateFuture(resolve(artifactToDownload));
+        }
+        log.info("Resolving " + artifactToDownload);
+        ListenableFuture<ArtifactResult> result;
+        if (resolutionOrder == ResolutionOrder.PLUGIN_SERVER_FIRST || isKnownRepositoryMiss(artifactToDownload)) {
+            ListenableFuture<ArtifactResult> downloaded;
+            try {
+                downloaded = downloadArtifactFromPluginServerAsync(artifactToDownload);
+            } catch (IOException e) {
+                downloaded = Futures.immediateFailedFuture(e);
+            }
+            result = Futures.catchingAsync(downloaded, Exception.class,
+                    new AsyncFunction<Exception, ArtifactResult>() {
+                        @Override
+                        public ListenableFuture<ArtifactResult> apply(final Exception e) throws Exception {
+                            if (e instanceof RuntimeException) {
+                                throw e;
+                            }
+                            log.debug("could not download from plugin server " + e.getMessage());
+                            return Futures.immediateFuture(resolveFromRepository(artifactToDownload));
+                        }
+                    }, executor);
+        } else {
+            try {
+                result = Futures.immediateFuture(resolveFromRepository(artifactToDownload));
+            } catch (ArtifactResolverException e) {
+                log.warn("could not download from remote remove repository " + e.getMessage());
+                result = downloadArtifactFromPluginServerAsync(artifactToDownload);
+            }
+        }
+        return Futures.transform(result, new Function<ArtifactResult, Artifact>() {
+            @Override
+            public Artifact apply(final ArtifactResult artifactResult) {
+                return artifactResult.getArtifact().getFile().exists() ? artifactResult.getArtifact() : null;
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    /**
+     * A manifest usually lists dependencies without a groupId, which makes them org.jenkins-ci.plugins,
+     * while the update center index knows the real one.  With an index its groupId is used for those
+     * too, so a plugin found both ways is one node of the graph and is mediated as one.
+     */
+    private String getGroupId(final String groupId, final String artifactId, final String version) {
+        if (updateCenterIndex != null && PluginDependency.DEFAULT_GROUP_ID.equals(groupId)) {
+            String indexGroupId = updateCenterIndex.getGroupId(artifactId, version);
+            if (indexGroupId != null) {
+                return indexGroupId;
+            }
+        }
+        return groupId;
+    }
+
+    private boolean isKnownRepositoryMiss(final Artifact artifact) {
+        if (repositoryMissCache == null) {
+            return false;
+        }
+        boolean miss = repositoryMissCache.isMiss(artifact.getGroupId(), artifact.getArtifactId());
+        metrics.get(getCacheKey(artifact)).recordCache("repositoryMissCache", miss);
+        if (miss) {
+            log.debug(artifact.getGroupId() + ":" + artifact.getArtifactId()
+                    + " recently wasn't in the maven repositories, trying the plugin server first");
+            return true;
+        }
+        return false;
+    }
+
+    private ArtifactResult resolveFromRepository(final Artifact artifact) throws ArtifactResolverException {
+        DownloadMetrics.ArtifactMetrics artifactMetrics = metrics.get(getCacheKey(artifact));
+        boolean local = getLocalRepositoryFile(artifact).isFile();
+        long start = System.nanoTime();
         try {
-            result = artifactResolver.resolveArtifact(mavenSession.getProjectBuildingRequest(), artifactToDownload);
+            ArtifactResult result = repositoryResolver.resolveArtifact(artifact);
             if (!result.getArtifact().getFile().exists()) {
                 throw new ArtifactResolverException("could not download file from remote repository", new Exception());
+            }
+            if (repositoryMissCache != null) {
+                repositoryMissCache.recordHit(artifact.getGroupId(), artifact.getArtifactId());
+            }
+            // in a race the first source to deliver is the one that counts
+            if (sources.putIfAbsent(getCacheKey(artifact), ArtifactSource.REPOSITORY) == null) {
+                artifactMetrics.setSource(ArtifactSource.REPOSITORY);
+            }
+            if (!local) {
+                artifactMetrics.addBytes(result.getArtifact().getFile().length());
+            }
+            return result;
+        } catch (ArtifactResolverException e) {
+            if (repositoryMissCache != null) {
+                repositoryMissCache.recordMiss(artifact.getGroupId(), artifact.getArtifactId());
+            }
+            throw e;
+        } finally {
+            artifactMetrics.addTime(DownloadMetrics.Phase.REPOSITORY, System.nanoTime() - start);
+        }
+    }
 
+    /**
+     * Asks the maven repositories and the plugin server at the same time.  Cancelling doesn't stop a
+     * blocking read, so the plugin server writes to a file of its own which only becomes the plugin if
+     * it wins and is deleted if it loses.  The maven resolver always writes to a temporary file of its own.
+     *
+     * @return the first successful result; the other request is cancelled.
+     */
+    private ArtifactResult race(final Artifact artifact) throws ArtifactResolverException, IOException {
+        // next to where a winning download ends up, so it is moved within one file system
+        final File file = getPluginServerTarget(artifact);
+        final File raceFile = new File(file.getPath() + RACE_SUFFIX);
+        final AtomicBoolean decided = new AtomicBoolean();
+        CompletionService<ArtifactResult> completionService = new ExecutorCompletionService<>(raceExecutorService);
+        List<Future<ArtifactResult>> futures = new ArrayList<>();
+        futures.add(completionService.submit(new Callable<ArtifactResult>() {
+            @Override
+            public ArtifactResult call() throws Exception {
+                ArtifactResult result = resolveFromRepository(artifact);
+                if (!decided.compareAndSet(false, true)) {
+                    throw new IOException("the plugin server was faster");
+                }
+                return result;
+            }
+        }));
+        futures.add(completionService.submit(new Callable<ArtifactResult>() {
+            @Override
+            public ArtifactResult call() throws Exception {
+                downloadArtifactFromPluginServer(artifact, raceFile, null);
+                if (!decided.compareAndSet(false, true)) {
+                    FileUtils.deleteQuietly(raceFile);
+                    throw new IOException("the maven repositories were faster");
+                }
+                PluginServerDownloader.moveAtomically(raceFile, file);
+                verifiedChecksums.move(raceFile, file);
+                return getPluginServerResult(artifact, file, null, true);
             }
+        }));
 
-        } catch (ArtifactResolverException e) {
-            log.warn("could not download from remote remove repository " + e.getMessage());
-            result = downloadArtifactFromPluginServer(artifactToDownload);
-        }
-
-        File resultFile = result.getArtifact().getFile();
-        if (resultFile.exists()) {
-            saveFileToDownloadDirectory(result.getArtifact());
-            alreadyDownloadedArtifacts.add(result.getArtifact().toString());
-            List<Artifact> dependenciesFromHpi = getHpiDependencies(repositorySystem, resultFile);
-            for (Artifact artifact : dependenciesFromHpi) {
-                if (!alreadyDownloadedArtifacts.contains(artifact.toString())) {
-                    recursiveDownload(alreadyDownloadedArtifacts, artifact);
+        Throwable lastFailure = null;
+        try {
+            for (int i = 0; i < futures.size(); i++) {
+                Future<ArtifactResult> done = completionService.take();
+                try {
+                    ArtifactResult result = done.get();
+                    for (Future<ArtifactResult> future : futures) {
+                        future.cancel(true);
+                    }
+                    return result;
+                } catch (ExecutionException e) {
+                    log.debug("could not resolve " + artifact + ": " + e.getCause().getMessage());
+                    lastFailure = e.getCause();
                 }
             }
+        } catch (InterruptedException e) {
+            for (Future<ArtifactResult> future : futures) {
+                future.cancel(true);
+            }
+            Thread.currentThread().interrupt();
+            throw new IOException("interrupted while resolving " + artifact, e);
         }
+
+        if (lastFailure instanceof ArtifactResolverException) {
+            throw (ArtifactResolverException) lastFailure;
+        } else if (lastFailure instanceof IOException) {
+            throw (IOException) lastFailure;
+        } else if (lastFailure instanceof RuntimeException) {
+            throw (RuntimeException) lastFailure;
+        }
+        throw new IOException(lastFailure.getMessage(), lastFailure);
     }
 
-    private void saveFileToDownloadDirectory(Artifact artifact) throws IOException {
-        List<String> directoryParts = new ArrayList<>();
-        directoryParts.addAll(Lists.newArrayList(artifact.getGroupId().trim().split("\\.")));
-        directoryParts.add(artifact.getArtifactId().trim());
-        directoryParts.add(artifact.getVersion().trim());
+    /**
+     * @return the dependencies of the artifact if they can be found without downloading the whole hpi,
+     * otherwise null.
+     */
+    private List<PluginDependency> findDependenciesWithoutDownloading(final Artifact artifact) throws IOException {
+        DownloadMetrics.ArtifactMetrics artifactMetrics = metrics.get(getCacheKey(artifact));
+        if (updateCenterIndex != null) {
+            List<PluginDependency> dependencies = updateCenterIndex.getDependencies(artifact.getArtifactId(),
+                    artifact.getVersion());
+            artifactMetrics.recordCache("updateCenterIndex", dependencies != null);
+            if (dependencies != null) {
+                return dependencies;
+            }
+        }
 
-        final File file = new File(Paths.get(downloadDir.getAbsolutePath(), directoryParts.toArray(new String[0])).toFile(),
-                artifact.getArtifactId() + "-" + artifact.getVersion() + "." + artifact.getType());
-        FileUtils.forceMkdir(file.getParentFile());
-        if (file.exists()) {
-            FileUtils.deleteQuietly(file);
+        File localFile = getLocalRepositoryFile(artifact);
+        if (localFile.isFile() && manifestCache != null) {
+            List<PluginDependency> dependencies = manifestCache.get(getCacheKey(artifact), localFile);
+            if (dependencies != null) {
+                artifactMetrics.recordCache("manifestCache", true);
+                return dependencies;
+            }
         }
 
-        FileUtils.copyFile(artifact.getFile(), file);
+        InstalledPlugins.InstalledPlugin installed = getInstalled(artifact);
+        if (installed != null) {
+            return getHpiDependencies(artifact, installed.getFile());
+        }
 
+        if (manifestProbe != null) {
+            if (localFile.isFile()) {
+                return getHpiDependencies(artifact, localFile);
+            }
+            String url = pluginServerMirrors.getUrl(getPluginServerPath(artifact));
+            long start = System.nanoTime();
+            try {
+                List<PluginDependency> dependencies = manifestProbe.probeDependencies(url);
+                if (dependencies == null) {
+                    log.debug("range requests are not supported for " + url + ", the whole hpi will be read");
+                }
+                return dependencies;
+            } catch (IOException e) {
+                log.debug("could not probe manifest of " + url + ": " + e.getMessage());
+            } finally {
+                artifactMetrics.addTime(DownloadMetrics.Phase.MANIFEST, System.nanoTime() - start);
+            }
+        }
+        return null;
     }
 
-    private ArtifactResult downloadArtifactFromPluginServer(final Artifact toDownload) throws IOException, ArtifactResolverException {
-        ArtifactResult result;
-        ProjectBuildingRequest request = mavenSession.getProjectBuildingRequest();
-        ArtifactRepository localRepository = request.getLocalRepository();
+    private class ExpandTask implements Callable<Void> {
+        private final ExecutorService executorService;
+        private final DependencyGraph graph;
+        private final VersionMediator versionMediator;
+        private final LinkedBlockingQueue<Future<Void>> pendingTasks;
+        private final Node node;
 
-        List<String> directoryParts = new ArrayList<>();
-        directoryParts.addAll(Lists.newArrayList(toDownload.getGroupId().trim().split("\\.")));
-        directoryParts.add(toDownload.getArtifactId().trim());
-        directoryParts.add(toDownload.getVersion().trim());
+        ExpandTask(final ExecutorService executorService, final DependencyGraph graph,
+                   final VersionMediator versionMediator, final LinkedBlockingQueue<Future<Void>> pendingTasks,
+                   final Node node) {
+            this.executorService = executorService;
+            this.graph = graph;
+            this.versionMediator = versionMediator;
+            this.pendingTasks = pendingTasks;
+            this.node = node;
+        }
 
-        final File file = new File(Paths.get(localRepository.getBasedir(),
-                directoryParts.toArray(new String[0])).toFile(),
-                toDownload.getArtifactId() + "-" +
-                        toDownload.getVersion() + "." + toDownload.getType());
-        FileUtils.forceMkdir(file.getParentFile());
-
-        String urlToDownloadFrom = String.format("%s/%s/%s/%s.hpi", jenkinsPluginServerUrl.replaceAll("/$", ""),
-                toDownload.getArtifactId(), toDownload.getVersion(), toDownload.getArtifactId());
-
-        try (CloseableHttpClient client = HttpClients.createDefault();
-             FileOutputStream fileOutputStream = new FileOutputStream(file)) {
-            log.info("about to download from " + urlToDownloadFrom);
-            HttpGet httpGet = new HttpGet(urlToDownloadFrom);
-
-            try (CloseableHttpResponse response = client.execute(httpGet)) {
-                if (HttpStatus.SC_OK == response.getStatusLine().getStatusCode()) {
-                    IOUtils.copy(response.getEntity().getContent(), fileOutputStream);
-                    result = new ArtifactResult() {
-                        @Override
-                        public Artifact getArtifact() {
-                            DefaultArtifact defaultArtifact = new DefaultArtifact(toDownload.getGroupId(),
-                                    toDownload.getArtifactId(), toDownload.getVersion(), toDownload.getScope(),
-                                    toDownload.getType(), toDownload.getClassifier(), toDownload.getArtifactHandler());
-                            defaultArtifact.setFile(file);
-                            return defaultArtifact;
-                        }
-                    };
-                } else {
-                    Exception exception = new IOException("could not download plugin from " + urlToDownloadFrom);
-                    log.error(exception);
-                    throw new ArtifactResolverException(exception.getMessage(), exception);
+        @Override
+        public Void call() throws Exception {
+            List<PluginDependency> dependencies = findDependenciesWithoutDownloading(node.getArtifact());
+            if (dependencies == null && asyncPluginServerDownloader != null) {
+                // the manifest is read once the download is done, this thread is free until then
+                pendingTasks.add(Futures.transformAsync(resolveAsync(node.getArtifact(), executorService),
+                        new AsyncFunction<Artifact, Void>() {
+                            @Override
+                            public ListenableFuture<Void> apply(final Artifact resolved) throws Exception {
+                                expand(resolved);
+                                return Futures.immediateFuture(null);
+                            }
+                        }, executorService));
+                return null;
+            }
+            if (dependencies == null) {
+                expand(resolve(node.getArtifact()));
+            } else {
+                expand(dependencies);
+            }
+            return null;
+        }
+
+        private void expand(final Artifact resolvedArtifact) throws IOException {
+            node.setResolvedArtifact(resolvedArtifact);
+            expand(resolvedArtifact != null
+                    ? getHpiDependencies(node.getArtifact(), resolvedArtifact.getFile())
+                    : Collections.<PluginDependency>emptyList());
+        }
+
+        private void expand(final List<PluginDependency> found) {
+            List<PluginDependency> dependencies = new ArrayList<>();
+            for (PluginDependency dependency : found) {
+                String groupId = getGroupId(dependency.getGroupId(), dependency.getArtifactId(),
+                        dependency.getVersion());
+                dependencies.add(groupId.equals(dependency.getGroupId()) ? dependency : new PluginDependency(
+                        groupId, dependency.getArtifactId(), dependency.getVersion(), dependency.isOptional()));
+            }
+            node.setDependencies(dependencies);
+
+            for (PluginDependency dependency : dependencies) {
+                if (versionMediator.isExcluded(dependency)) {
+                    continue;
+                }
+                Artifact artifact = repositoryResolver.createArtifact(dependency.getGroupId(),
+                        dependency.getArtifactId(), dependency.getVersion(), "hpi");
+                // addIfAbsent() is atomic, so two branches finding the same artifact only expand it once
+                Node dependencyNode = graph.addIfAbsent(artifact);
+                if (dependencyNode != null && !versionMediator.isDeferred(dependency)
+                        && !versionMediator.isSuperseded(graph, dependencyNode)) {
+                    pendingTasks.add(executorService.submit(new ExpandTask(executorService, graph,
+                            versionMediator, pendingTasks, dependencyNode)));
                 }
             }
         }
-        return result;
     }
 
-    private List<Artifact> getHpiDependencies(final RepositorySystem repositorySystem, final File resultFile) throws IOException {
-        try (JarInputStream jarInputStream = new JarInputStream(new FileInputStream(resultFile))) {
-            Manifest manifest = jarInputStream.getManifest();
-            String dependencies = manifest.getMainAttributes().getValue("Plugin-Dependencies");
-            if (dependencies == null) {
-                return Collections.emptyList();
-            }
-
-            log.info( "Found dependencies " + dependencies );
-            String[] deps = dependencies.split(",");
-            return Lists.transform(Lists.newArrayList(deps), new Function<String, Artifact>() {
-                @Override
-                @SuppressFBWarnings("NP_PARAMETER_MUST_BE_NONNULL_BUT_MARKED_AS_NULLABLE")
-                public Artifact apply(final String input) {
-                    final String inputWithoutOptionalParameters = input.split(";")[0];
-                    String[] tokens = StringUtils.split(inputWithoutOptionalParameters, ":" );
-                    String groupId = null;
-                    String artifactId = null;
-                    String version = null;
-                    String packaging = "hpi";
-
-                    if (tokens.length == 2) {
-                        groupId = "org.jenkins-ci.plugins";
-                        artifactId = tokens[0];
-                        version = tokens[1];
-                    } else if (tokens.length == 3) {
-                        groupId = tokens[0];
-                        artifactId = tokens[1];
-                        version = tokens[2];
-                    }
+    private class DownloadTask implements Callable<Void> {
+        private final Node node;
+        private final ExecutorService executorService;
+        private final LinkedBlockingQueue<Future<Void>> pendingDownloads;
+
+        DownloadTask(final Node node, final ExecutorService executorService,
+                     final LinkedBlockingQueue<Future<Void>> pendingDownloads) {
+            this.node = node;
+            this.executorService = executorService;
+            this.pendingDownloads = pendingDownloads;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            InstalledPlugins.InstalledPlugin installed = getInstalled(node.getArtifact());
+            if (installed != null) {
+                node.setResolvedArtifact(useInstalled(node.getArtifact(), installed));
+                return null;
+            }
+            Artifact resolvedArtifact = node.getResolvedArtifact();
+            if (resolvedArtifact == null && asyncPluginServerDownloader != null) {
+                // the rest is queued to run once the download is done, this thread is free until then
+                pendingDownloads.add(Futures.transformAsync(resolveAsync(node.getArtifact(), executorService),
+                        new AsyncFunction<Artifact, Void>() {
+                            @Override
+                            public ListenableFuture<Void> apply(final Artifact resolved) throws Exception {
+                                node.setResolvedArtifact(resolved);
+                                save(resolved);
+                                return Futures.immediateFuture(null);
+                            }
+                        }, executorService));
+                return null;
+            }
+            if (resolvedArtifact == null) {
+                resolvedArtifact = resolve(node.getArtifact());
+                node.setResolvedArtifact(resolvedArtifact);
+            }
+            save(resolvedArtifact);
+            return null;
+        }
 
-                    Artifact toDownload = repositorySystem.createArtifact( groupId, artifactId, version, packaging );
-                    return toDownload;
+        private void save(final Artifact resolvedArtifact) throws IOException {
+            if (resolvedArtifact != null && !savedToDownloadDirectory.contains(node.getKey())) {
+                saveFileToDownloadDirectory(resolvedArtifact);
+            }
+        }
+    }
+
+    private class LockedDownloadTask implements Callable<Void> {
+        private final Lockfile.LockedPlugin plugin;
+        private final ExecutorService executorService;
+        private final LinkedBlockingQueue<Future<Void>> pendingDownloads;
+
+        LockedDownloadTask(final Lockfile.LockedPlugin plugin, final ExecutorService executorService,
+                           final LinkedBlockingQueue<Future<Void>> pendingDownloads) {
+            this.plugin = plugin;
+            this.executorService = executorService;
+            this.pendingDownloads = pendingDownloads;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            final Artifact artifact = createArtifact(plugin);
+            InstalledPlugins.InstalledPlugin installed = getInstalled(artifact);
+            if (installed != null && installed.getSha256().equalsIgnoreCase(plugin.getSha256())) {
+                useInstalled(artifact, installed);
+                return null;
+            }
+            Artifact resolvedArtifact = null;
+            boolean fromPluginServer = plugin.getSource() == ArtifactSource.PLUGIN_SERVER
+                    && !getLocalRepositoryFile(artifact).isFile();
+            if (fromPluginServer && asyncPluginServerDownloader != null) {
+                ListenableFuture<Artifact> downloaded = Futures.transform(
+                        downloadArtifactFromPluginServerAsync(artifact), new Function<ArtifactResult, Artifact>() {
+                            @Override
+                            public Artifact apply(final ArtifactResult artifactResult) {
+                                return artifactResult.getArtifact();
+                            }
+                        }, MoreExecutors.directExecutor());
+                ListenableFuture<Artifact> resolved = Futures.catchingAsync(downloaded,
+                        ArtifactResolverException.class, new AsyncFunction<ArtifactResolverException, Artifact>() {
+                            @Override
+                            public ListenableFuture<Artifact> apply(final ArtifactResolverException e)
+                                    throws Exception {
+                                log.debug("could not download " + plugin.getKey() + " from the plugin server: "
+                                        + e.getMessage());
+                                return Futures.immediateFuture(resolve(artifact));
+                            }
+                        }, executorService);
+                pendingDownloads.add(Futures.transformAsync(resolved, new AsyncFunction<Artifact, Void>() {
+                    @Override
+                    public ListenableFuture<Void> apply(final Artifact resolvedArtifact) throws Exception {
+                        save(resolvedArtifact);
+                        return Futures.immediateFuture(null);
+                    }
+                }, executorService));
+                return null;
+            }
+            if (fromPluginServer) {
+                try {
+                    resolvedArtifact = downloadArtifactFromPluginServer(artifact).getArtifact();
+                } catch (ArtifactResolverException e) {
+                    log.debug("could not download " + plugin.getKey() + " from the plugin server: " + e.getMessage());
                 }
-            });
+            }
+            if (resolvedArtifact == null) {
+                resolvedArtifact = resolve(artifact);
+            }
+            save(resolvedArtifact);
+            return null;
+        }
+
+        private void save(final Artifact resolvedArtifact) throws IOException {
+            if (resolvedArtifact == null) {
+                throw new IOException("could not download " + plugin.getKey() + " from " + lockfile);
+            }
+            // plugin server downloads were already verified against the lockfile while they streamed in
+            if (sources.get(plugin.getKey()) != ArtifactSource.PLUGIN_SERVER
+                    && !lockedChecksums.get(plugin.getKey()).matches(
+                    Checksums.digest(resolvedArtifact.getFile(), Checksums.SHA_256))) {
+                throw new IOException("checksum of " + resolvedArtifact.getFile() + " doesn't match " + lockfile);
+            }
+            verifiedChecksums.put(resolvedArtifact.getFile(), plugin.getSha256());
+            if (!savedToDownloadDirectory.contains(plugin.getKey())) {
+                saveFileToDownloadDirectory(resolvedArtifact);
+            }
+        }
+    }
+
+    private void saveFileToDownloadDirectory(Artifact artifact) throws IOException {
+        long start = System.nanoTime();
+        try {
+            downloadDirectory.save(artifact, verifiedChecksums.get(artifact.getFile()));
+        } finally {
+            metrics.get(getCacheKey(artifact)).addTime(DownloadMetrics.Phase.COPY, System.nanoTime() - start);
+        }
+    }
+
+    private ArtifactResult downloadArtifactFromPluginServer(final Artifact toDownload) throws IOException, ArtifactResolverException {
+        return downloadArtifactFromPluginServer(toDownload, getPluginServerTarget(toDownload),
+                getPluginServerCopy(toDownload));
+    }
+
+    /**
+     * Downloads toDownload to file and, if copy isn't null, to copy in the same pass.
+     */
+    private ArtifactResult downloadArtifactFromPluginServer(final Artifact toDownload, final File file,
+                                                            final File copy)
+            throws IOException, ArtifactResolverException {
+        if (asyncPluginServerDownloader != null) {
+            // resolveAsync() leaves a plugin in the local repository and RACE to resolve(), which gets here
+            return await(downloadArtifactFromPluginServerAsync(toDownload, file, copy));
+        }
+        String pathToDownload = getPluginServerPath(toDownload);
+
+        log.info("about to download from " + pluginServerMirrors.getUrl(pathToDownload));
+        ExpectedChecksum expectedChecksum = getPluginServerChecksum(toDownload);
+        DownloadMetrics.ArtifactMetrics artifactMetrics = metrics.get(getCacheKey(toDownload));
+        long start = System.nanoTime();
+        boolean downloaded;
+        try {
+            downloaded = pluginServerDownloader.download(pathToDownload, file, copy,
+                    expectedChecksum, verifyChecksums, artifactMetrics);
+        } finally {
+            artifactMetrics.addTime(DownloadMetrics.Phase.PLUGIN_SERVER, System.nanoTime() - start);
+        }
+        return getPluginServerResult(toDownload, file, copy, downloaded);
+    }
+
+    /**
+     * Like {@link #downloadArtifactFromPluginServer(Artifact)}, on the async engine.
+     */
+    private ListenableFuture<ArtifactResult> downloadArtifactFromPluginServerAsync(final Artifact toDownload)
+            throws IOException {
+        return downloadArtifactFromPluginServerAsync(toDownload, getPluginServerTarget(toDownload),
+                getPluginServerCopy(toDownload));
+    }
+
+    private ListenableFuture<ArtifactResult> downloadArtifactFromPluginServerAsync(final Artifact toDownload,
+                                                                                   final File file,
+                                                                                   final File copy)
+            throws IOException {
+        String pathToDownload = getPluginServerPath(toDownload);
+
+        log.info("about to download from " + pluginServerMirrors.getUrl(pathToDownload));
+        ExpectedChecksum expectedChecksum = getPluginServerChecksum(toDownload);
+        final DownloadMetrics.ArtifactMetrics artifactMetrics = metrics.get(getCacheKey(toDownload));
+        final long start = System.nanoTime();
+        ListenableFuture<Boolean> downloaded = asyncPluginServerDownloader.download(pathToDownload, file,
+                copy, expectedChecksum, verifyChecksums, artifactMetrics);
+        downloaded.addListener(new Runnable() {
+            @Override
+            public void run() {
+                artifactMetrics.addTime(DownloadMetrics.Phase.PLUGIN_SERVER, System.nanoTime() - start);
+            }
+        }, MoreExecutors.directExecutor());
+        return Futures.transformAsync(downloaded, new AsyncFunction<Boolean, ArtifactResult>() {
+            @Override
+            public ListenableFuture<ArtifactResult> apply(final Boolean found) throws Exception {
+                return Futures.immediateFuture(getPluginServerResult(toDownload, file, copy, found));
+            }
+        }, MoreExecutors.directExecutor());
+    }
+
+    private File getPluginServerTarget(final Artifact toDownload) {
+        return downloadTarget == DownloadTarget.DOWNLOAD_DIRECTORY
+                ? downloadDirectory.getFile(toDownload) : getLocalRepositoryFile(toDownload);
+    }
+
+    /**
+     * With a copy the body is written to both files while it is read, instead of copying it afterwards.
+     */
+    private File getPluginServerCopy(final Artifact toDownload) {
+        return downloadTarget == DownloadTarget.BOTH ? downloadDirectory.getFile(toDownload) : null;
+    }
+
+    private ExpectedChecksum getPluginServerChecksum(final Artifact toDownload) {
+        ExpectedChecksum expectedChecksum = lockedChecksums.get(getCacheKey(toDownload));
+        if (expectedChecksum == null && verifyChecksums) {
+            expectedChecksum = getExpectedChecksum(toDownload);
+        }
+        return expectedChecksum;
+    }
+
+    private ArtifactResult getPluginServerResult(final Artifact toDownload, final File file, final File copy,
+                                                 final boolean downloaded) throws ArtifactResolverException {
+        if (!downloaded) {
+            Exception exception = new IOException("could not download plugin from " + jenkinsPluginServerUrl
+                    + ": " + getPluginServerPath(toDownload));
+            log.error(exception);
+            throw new ArtifactResolverException(exception.getMessage(), exception);
+        }
+
+        if (sources.putIfAbsent(getCacheKey(toDownload), ArtifactSource.PLUGIN_SERVER) == null) {
+            metrics.get(getCacheKey(toDownload)).setSource(ArtifactSource.PLUGIN_SERVER);
+        }
+        if (copy != null || file.equals(downloadDirectory.getFile(toDownload))) {
+            savedToDownloadDirectory.add(DependencyGraph.getKey(toDownload.getGroupId(),
+                    toDownload.getArtifactId(), toDownload.getVersion()));
+        }
+        return new ArtifactResult() {
+            @Override
+            public Artifact getArtifact() {
+                DefaultArtifact defaultArtifact = new DefaultArtifact(toDownload.getGroupId(),
+                        toDownload.getArtifactId(), toDownload.getVersion(), toDownload.getScope(),
+                        toDownload.getType(), toDownload.getClassifier(), toDownload.getArtifactHandler());
+                defaultArtifact.setFile(file);
+                return defaultArtifact;
+            }
+        };
+    }
+
+    /**
+     * The checksum of the update center metadata, which doesn't cost a request.  Without one the
+     * downloader reads the .sha256 file the mirror publishes next to the hpi.
+     */
+    private ExpectedChecksum getExpectedChecksum(final Artifact artifact) {
+        if (updateCenterIndex != null) {
+            UpdateCenterIndex.PluginMetadata metadata = updateCenterIndex.getPlugin(artifact.getArtifactId(),
+                    artifact.getVersion());
+            if (metadata != null && metadata.getSha256() != null) {
+                return new ExpectedChecksum(Checksums.SHA_256, metadata.getSha256(), updateCenterIndexLocation);
+            }
+            if (metadata != null && metadata.getSha1() != null) {
+                return new ExpectedChecksum(Checksums.SHA_1, metadata.getSha1(), updateCenterIndexLocation);
+            }
+        }
+        return null;
+    }
+
+    private File getLocalRepositoryFile(final Artifact artifact) {
+        List<String> directoryParts = new ArrayList<>();
+        directoryParts.addAll(Lists.newArrayList(artifact.getGroupId().trim().split("\\.")));
+        directoryParts.add(artifact.getArtifactId().trim());
+        directoryParts.add(artifact.getVersion().trim());
+
+        return new File(Paths.get(repositoryResolver.getLocalRepository().getAbsolutePath(),
+                directoryParts.toArray(new String[0])).toFile(),
+                artifact.getArtifactId() + "-" +
+                        artifact.getVersion() + "." + artifact.getType());
+    }
+
+    private String getPluginServerPath(final Artifact artifact) {
+        return String.format("%s/%s/%s.hpi", artifact.getArtifactId(), artifact.getVersion(),
+                artifact.getArtifactId());
+    }
+
+    private String getCacheKey(final Artifact artifact) {
+        return artifact.getGroupId() + ":" + artifact.getArtifactId() + ":" + artifact.getVersion();
+    }
+
+    private List<PluginDependency> getHpiDependencies(final Artifact artifact, final File resultFile) throws IOException {
+        DownloadMetrics.ArtifactMetrics artifactMetrics = metrics.get(getCacheKey(artifact));
+        if (manifestCache != null) {
+            List<PluginDependency> cachedDependencies = manifestCache.get(getCacheKey(artifact), resultFile);
+            artifactMetrics.recordCache("manifestCache", cachedDependencies != null);
+            if (cachedDependencies != null) {
+                return cachedDependencies;
+            }
+        }
+
+        long start = System.nanoTime();
+        try {
+            List<PluginDependency> result = PluginDependency.readFromHpi(resultFile);
+            if (!result.isEmpty()) {
+                log.info( "Found dependencies " + result );
+            }
+            if (manifestCache != null) {
+                manifestCache.put(getCacheKey(artifact), resultFile, result);
+            }
+            return result;
         } catch (Throwable t) {
             return Collections.emptyList();
+        } finally {
+            artifactMetrics.addTime(DownloadMetrics.Phase.MANIFEST, System.nanoTime() - start);
+        }
+    }
+
+    private static class Coordinates {
+        private final String groupId;
+        private final String artifactId;
+        private final String version;
+        private final String packaging;
+
+        Coordinates(final String groupId, final String artifactId, final String version, final String packaging) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.packaging = packaging;
+        }
+
+        static Coordinates parse(final String artifact) throws MojoFailureException {
+            String[] tokens = StringUtils.split( artifact, ":" );
+            if (tokens.length == 2) {
+                return new Coordinates("org.jenkins-ci.plugins", tokens[0], tokens[1], "hpi");
+            } else if ( tokens.length < 3 || tokens.length > 5 ) {
+                throw new MojoFailureException(
+                        "Invalid artifact, you must specify groupId:artifactId:version[:packaging][:classifier] "
+                                + artifact );
+            }
+            return new Coordinates(tokens[0], tokens[1], tokens[2], tokens.length >= 4 ? tokens[3] : "hpi");
+        }
+
+        @Override
+        public String toString() {
+            return groupId + ":" + artifactId + ":" + version + ":" + packaging;
         }
     }
 
@@ -235,8 +1220,46 @@ public class JenkinsPluginGetter {
         private String packaging = "hpi";
         private RepositorySystem repositorySystem;
         private ArtifactResolver artifactResolver;
+        private RepositoryResolver repositoryResolver;
         private String jenkinsPluginServerUrl;
         private File downloadDir;
+        private int threads = 1;
+        private final List<Coordinates> plugins = new ArrayList<>();
+        private int maxConnectionsPerRoute = 10;
+        private int connectTimeout = 30000;
+        private int readTimeout = 60000;
+        private String updateCenterIndex;
+        private boolean manifestProbe;
+        private boolean useManifestCache = true;
+        private File manifestCacheFile;
+        private int manifestCacheMaxEntries = 10000;
+        private boolean clearManifestCache;
+        private VersionMediation versionMediation = VersionMediation.HIGHEST;
+        private OptionalDependencies optionalDependencies = OptionalDependencies.INCLUDE;
+        private OutputStrategy outputStrategy = OutputStrategy.COPY;
+        private OutputLayout outputLayout = OutputLayout.MAVEN;
+        private boolean pinPlugins = true;
+        private File bundleFile;
+        private File pluginStore;
+        private DownloadTarget downloadTarget = DownloadTarget.LOCAL_REPOSITORY;
+        private boolean verifyChecksums = true;
+        private int pluginServerRetries = 2;
+        private long repositoryMissCacheTtl;
+        private File repositoryMissCacheFile;
+        private ResolutionOrder resolutionOrder = ResolutionOrder.REPOSITORY_FIRST;
+        private boolean dryRun;
+        private File lockfile;
+        private boolean updateLockfile;
+        private boolean incremental;
+        private boolean deleteStale;
+        private File planDirectory;
+        private long pluginServerRetryBackoff = 1000;
+        private long hedgeDelay;
+        private File reportFile;
+        private int reportSlowest = 10;
+        private int maxDownloadsPerHost;
+        private long maxBytesPerSecond;
+        private DownloadEngine downloadEngine = DownloadEngine.BLOCKING;
 
         public Builder setProjectDeployer(ProjectDeployer projectDeployer) {
             this.projectDeployer = projectDeployer;
@@ -278,26 +1301,50 @@ public class JenkinsPluginGetter {
         public Builder setArtifact(String artifact) throws MojoFailureException {
 
             if ( artifact != null ) {
-                String[] tokens = StringUtils.split( artifact, ":" );
-                if (tokens.length == 2) {
-                    groupId = "org.jenkins-ci.plugins";
-                    artifactId = tokens[0];
-                    version = tokens[1];
-                    packaging = "hpi";
-                    return this;
-                } else if ( tokens.length < 3 || tokens.length > 5 ) {
-                    throw new MojoFailureException(
-                            "Invalid artifact, you must specify groupId:artifactId:version[:packaging][:classifier] "
-                                    + artifact );
-                }
-                groupId = tokens[0];
-                artifactId = tokens[1];
-                version = tokens[2];
-                if ( tokens.length >= 4 ) {
-                    packaging = tokens[3];
+                Coordinates coordinates = Coordinates.parse(artifact);
+                groupId = coordinates.groupId;
+                artifactId = coordinates.artifactId;
+                version = coordinates.version;
+                packaging = coordinates.packaging;
+            }
+
+            return this;
+        }
+
+        /**
+         * Adds more plugins to download together with {@link #setArtifact(String)}, each of the form
+         * groupId:artifactId:version[:packaging] or artifactId:version.
+         */
+        public Builder setPlugins(List<String> plugins) throws MojoFailureException {
+            if (plugins != null) {
+                for (String plugin : plugins) {
+                    if (!plugin.trim().isEmpty()) {
+                        this.plugins.add(Coordinates.parse(plugin.trim()));
+                    }
                 }
             }
+            return this;
+        }
 
+        /**
+         * Adds the plugins listed in a plugins.txt style file: one plugin per line, blank lines and
+         * everything after a # are ignored.
+         */
+        public Builder setPluginsFile(File pluginsFile) throws MojoFailureException {
+            if (pluginsFile != null) {
+                List<String> lines;
+                try {
+                    lines = FileUtils.readLines(pluginsFile, StandardCharsets.UTF_8);
+                } catch (IOException e) {
+                    throw new MojoFailureException("could not read plugins file " + pluginsFile, e);
+                }
+                List<String> filePlugins = new ArrayList<>();
+                for (String line : lines) {
+                    int comment = line.indexOf('#');
+                    filePlugins.add(comment >= 0 ? line.substring(0, comment) : line);
+                }
+                setPlugins(filePlugins);
+            }
             return this;
         }
 
@@ -326,19 +1373,305 @@ public class JenkinsPluginGetter {
             return this;
         }
 
+        /**
+         * Resolves plugins with repositoryResolver instead of the maven components, which aren't needed then.
+         */
+        public Builder setRepositoryResolver(RepositoryResolver repositoryResolver) {
+            this.repositoryResolver = repositoryResolver;
+            return this;
+        }
+
         public Builder setArtifactResolver(ArtifactResolver artifactResolver) {
             this.artifactResolver = artifactResolver;
             return this;
         }
 
+        public Builder setThreads(int threads) {
+            this.threads = threads;
+            return this;
+        }
+
+        public Builder setMaxConnectionsPerRoute(int maxConnectionsPerRoute) {
+            this.maxConnectionsPerRoute = maxConnectionsPerRoute;
+            return this;
+        }
+
+        public Builder setConnectTimeout(int connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        public Builder setReadTimeout(int readTimeout) {
+            this.readTimeout = readTimeout;
+            return this;
+        }
+
+        public Builder setUpdateCenterIndex(String updateCenterIndex) {
+            this.updateCenterIndex = updateCenterIndex;
+            return this;
+        }
+
+        public Builder setManifestProbe(boolean manifestProbe) {
+            this.manifestProbe = manifestProbe;
+            return this;
+        }
+
+        public Builder setUseManifestCache(boolean useManifestCache) {
+            this.useManifestCache = useManifestCache;
+            return this;
+        }
+
+        public Builder setManifestCacheFile(File manifestCacheFile) {
+            this.manifestCacheFile = manifestCacheFile;
+            return this;
+        }
+
+        public Builder setManifestCacheMaxEntries(int manifestCacheMaxEntries) {
+            this.manifestCacheMaxEntries = manifestCacheMaxEntries;
+            return this;
+        }
+
+        public Builder setClearManifestCache(boolean clearManifestCache) {
+            this.clearManifestCache = clearManifestCache;
+            return this;
+        }
+
+        public Builder setVersionMediation(VersionMediation versionMediation) {
+            if (versionMediation != null) {
+                this.versionMediation = versionMediation;
+            }
+            return this;
+        }
+
+        public Builder setOptionalDependencies(OptionalDependencies optionalDependencies) {
+            if (optionalDependencies != null) {
+                this.optionalDependencies = optionalDependencies;
+            }
+            return this;
+        }
+
+        public Builder setOutputStrategy(OutputStrategy outputStrategy) {
+            if (outputStrategy != null) {
+                this.outputStrategy = outputStrategy;
+            }
+            return this;
+        }
+
+        public Builder setOutputLayout(OutputLayout outputLayout) {
+            if (outputLayout != null) {
+                this.outputLayout = outputLayout;
+            }
+            return this;
+        }
+
+        public Builder setPinPlugins(boolean pinPlugins) {
+            this.pinPlugins = pinPlugins;
+            return this;
+        }
+
+        public Builder setBundleFile(File bundleFile) {
+            this.bundleFile = bundleFile;
+            return this;
+        }
+
+        public Builder setPluginStore(File pluginStore) {
+            this.pluginStore = pluginStore;
+            return this;
+        }
+
+        public Builder setDownloadEngine(DownloadEngine downloadEngine) {
+            if (downloadEngine != null) {
+                this.downloadEngine = downloadEngine;
+            }
+            return this;
+        }
+
+        public Builder setDownloadTarget(DownloadTarget downloadTarget) {
+            if (downloadTarget != null) {
+                this.downloadTarget = downloadTarget;
+            }
+            return this;
+        }
+
+        public Builder setVerifyChecksums(boolean verifyChecksums) {
+            this.verifyChecksums = verifyChecksums;
+            return this;
+        }
+
+        public Builder setPluginServerRetries(int pluginServerRetries) {
+            this.pluginServerRetries = pluginServerRetries;
+            return this;
+        }
+
+        public Builder setPluginServerRetryBackoff(long pluginServerRetryBackoff) {
+            this.pluginServerRetryBackoff = pluginServerRetryBackoff;
+            return this;
+        }
+
+        public Builder setHedgeDelay(long hedgeDelay) {
+            this.hedgeDelay = hedgeDelay;
+            return this;
+        }
+
+        public Builder setRepositoryMissCacheTtl(long repositoryMissCacheTtl) {
+            this.repositoryMissCacheTtl = repositoryMissCacheTtl;
+            return this;
+        }
+
+        public Builder setRepositoryMissCacheFile(File repositoryMissCacheFile) {
+            this.repositoryMissCacheFile = repositoryMissCacheFile;
+            return this;
+        }
+
+        public Builder setResolutionOrder(ResolutionOrder resolutionOrder) {
+            if (resolutionOrder != null) {
+                this.resolutionOrder = resolutionOrder;
+            }
+            return this;
+        }
+
+        public Builder setDryRun(boolean dryRun) {
+            this.dryRun = dryRun;
+            return this;
+        }
+
+        public Builder setPlanDirectory(File planDirectory) {
+            this.planDirectory = planDirectory;
+            return this;
+        }
+
+        public Builder setLockfile(File lockfile) {
+            this.lockfile = lockfile;
+            return this;
+        }
+
+        public Builder setUpdateLockfile(boolean updateLockfile) {
+            this.updateLockfile = updateLockfile;
+            return this;
+        }
+
+        public Builder setIncremental(boolean incremental) {
+            this.incremental = incremental;
+            return this;
+        }
+
+        public Builder setDeleteStale(boolean deleteStale) {
+            this.deleteStale = deleteStale;
+            return this;
+        }
+
+        public Builder setReportFile(File reportFile) {
+            this.reportFile = reportFile;
+            return this;
+        }
+
+        public Builder setReportSlowest(int reportSlowest) {
+            this.reportSlowest = reportSlowest;
+            return this;
+        }
+
+        public Builder setMaxDownloadsPerHost(int maxDownloadsPerHost) {
+            this.maxDownloadsPerHost = maxDownloadsPerHost;
+            return this;
+        }
+
+        public Builder setMaxBytesPerSecond(long maxBytesPerSecond) {
+            this.maxBytesPerSecond = maxBytesPerSecond;
+            return this;
+        }
+
         public JenkinsPluginGetter build() throws MojoFailureException {
 
-            if ( artifactId == null ||  groupId == null || version == null  || packaging == null )
+            if ( ( artifactId == null ||  groupId == null || version == null  || packaging == null )
+                    && plugins.isEmpty() )
             {
-                throw new MojoFailureException( "You must specify an artifact, "
+                throw new MojoFailureException( "You must specify an artifact or plugins, "
                         + "e.g. -Dartifact=org.apache.maven.plugins:maven-downloader-plugin:1.0" );
             }
 
+            if ( threads < 1 )
+            {
+                throw new MojoFailureException( "threads must be at least 1 but was " + threads );
+            }
+
+            if ( maxConnectionsPerRoute < 1 )
+            {
+                throw new MojoFailureException( "maxConnectionsPerRoute must be at least 1 but was "
+                        + maxConnectionsPerRoute );
+            }
+
+            if ( manifestCacheMaxEntries < 1 )
+            {
+                throw new MojoFailureException( "manifestCacheMaxEntries must be at least 1 but was "
+                        + manifestCacheMaxEntries );
+            }
+
+            if ( jenkinsPluginServerUrl != null && PluginServerMirrors.split( jenkinsPluginServerUrl ).isEmpty() )
+            {
+                throw new MojoFailureException( "jenkinsPluginServerUrl doesn't contain a url" );
+            }
+
+            if ( repositoryMissCacheTtl < 0 )
+            {
+                throw new MojoFailureException( "repositoryMissCacheTtl must not be negative but was "
+                        + repositoryMissCacheTtl );
+            }
+
+            if ( pluginServerRetries < 0 || pluginServerRetryBackoff < 0 || hedgeDelay < 0 )
+            {
+                throw new MojoFailureException( "pluginServerRetries, pluginServerRetryBackoff and hedgeDelay "
+                        + "must not be negative" );
+            }
+
+            if ( reportSlowest < 0 )
+            {
+                throw new MojoFailureException( "reportSlowest must not be negative but was " + reportSlowest );
+            }
+
+            if ( maxDownloadsPerHost < 0 || maxBytesPerSecond < 0 )
+            {
+                throw new MojoFailureException( "maxDownloadsPerHost and maxBytesPerSecond must not be negative" );
+            }
+
+            if ( outputLayout != OutputLayout.MAVEN && versionMediation == VersionMediation.NONE )
+            {
+                throw new MojoFailureException( "outputLayout " + outputLayout + " has room for one version of "
+                        + "each plugin only, it can't be used with versionMediation NONE" );
+            }
+
+            if ( downloadEngine == DownloadEngine.ASYNC && ( hedgeDelay > 0 || maxBytesPerSecond > 0 ) )
+            {
+                throw new MojoFailureException( "hedgeDelay and maxBytesPerSecond aren't supported by the "
+                        + "ASYNC downloadEngine" );
+            }
+
+            if ( pluginStore != null && outputLayout.isBundle() )
+            {
+                throw new MojoFailureException( "pluginStore can't be used with outputLayout " + outputLayout
+                        + ", there is nothing to link in a bundle" );
+            }
+
+            if ( incremental && outputLayout.isBundle() )
+            {
+                throw new MojoFailureException( "incremental can't be used with outputLayout " + outputLayout
+                        + ", the bundle is written anew every time" );
+            }
+
+            if ( deleteStale && !incremental )
+            {
+                throw new MojoFailureException( "deleteStale needs incremental" );
+            }
+
+            // a plugin that has to be fetched to read its manifest during a dry run mustn't end up in the download
+            // directory, and neither may a version mediation drops once the file name doesn't contain the version,
+            // a plugin that goes into a bundle or one that should be linked from the plugin store
+            if ( downloadTarget != DownloadTarget.LOCAL_REPOSITORY
+                    && ( dryRun || outputLayout != OutputLayout.MAVEN || pluginStore != null ) )
+            {
+                throw new MojoFailureException( "downloadTarget " + downloadTarget + " needs outputLayout MAVEN "
+                        + "without a pluginStore and can't be used in a dry run" );
+            }
+
 
 
 
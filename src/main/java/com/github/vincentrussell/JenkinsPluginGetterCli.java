@@ -0,0 +1,220 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.logging.SystemStreamLog;
+
+import java.io.File;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Runs {@link JenkinsPluginGetter} from the command line without starting maven, resolving from plain http
+ * repositories with {@link HttpRepositoryResolver}.  Options are the parameters of the get goal, as
+ * --name value or --name=value; the remaining arguments are plugins.
+ */
+public final class JenkinsPluginGetterCli {
+
+    static final int SUCCESS = 0;
+    static final int FAILURE = 1;
+    static final int USAGE = 2;
+
+    private static final Set<String> FLAGS = new HashSet<>(Arrays.asList("manifestProbe", "clearManifestCache",
+            "dryRun", "updateLockfile", "incremental", "deleteStale", "verifyChecksums", "pinPlugins", "debug",
+            "help"));
+
+    private static final String USAGE_TEXT = "usage: java -jar jenkins-dependency-plugin-<version>-cli.jar"
+            + " --downloadDir <dir> [options] [groupId:]artifactId:version ...\n"
+            + "  --repositories <urls>          comma separated maven repositories, defaults to "
+            + HttpRepositoryResolver.DEFAULT_REPOSITORY + "\n"
+            + "  --localRepository <dir>        defaults to ~/.m2/repository\n"
+            + "  --debug                        log debug messages\n"
+            + "and the parameters of the get goal, e.g. --pluginsFile, --jenkinsPluginServerUrl, --threads,\n"
+            + "--updateCenterIndex, --lockfile, --outputLayout, --pluginStore, --dryRun";
+
+    private JenkinsPluginGetterCli() {
+    }
+
+    public static void main(final String[] args) {
+        System.exit(run(args, System.err));
+    }
+
+    /**
+     * @return the exit code.
+     */
+    static int run(final String[] args, final PrintStream err) {
+        Map<String, String> options = new LinkedHashMap<>();
+        List<String> plugins = new ArrayList<>();
+        for (int i = 0; i < args.length; i++) {
+            String arg = args[i];
+            if (!arg.startsWith("--")) {
+                plugins.add(arg);
+                continue;
+            }
+            String name = arg.substring(2);
+            String value;
+            int equals = name.indexOf('=');
+            if (equals >= 0) {
+                value = name.substring(equals + 1);
+                name = name.substring(0, equals);
+            } else if (FLAGS.contains(name) && (i + 1 == args.length || args[i + 1].startsWith("--")
+                    || !isBoolean(args[i + 1]))) {
+                value = "true";
+            } else if (i + 1 < args.length) {
+                value = args[++i];
+            } else {
+                err.println(arg + " needs a value");
+                err.println(USAGE_TEXT);
+                return USAGE;
+            }
+            options.put(name, value);
+        }
+        if (options.containsKey("help")) {
+            err.println(USAGE_TEXT);
+            return SUCCESS;
+        }
+
+        ConsoleLog log = new ConsoleLog(Boolean.parseBoolean(options.remove("debug")));
+        String repositories = options.remove("repositories");
+        String localRepository = options.remove("localRepository");
+        HttpRepositoryResolver repositoryResolver = new HttpRepositoryResolver(
+                localRepository != null ? new File(localRepository)
+                        : new File(System.getProperty("user.home"), ".m2/repository"),
+                Arrays.asList((repositories != null ? repositories : HttpRepositoryResolver.DEFAULT_REPOSITORY)
+                        .split("\\s*,\\s*")),
+                Integer.parseInt(options.containsKey("threads") ? options.get("threads") : "1"),
+                Integer.parseInt(options.containsKey("maxConnectionsPerRoute")
+                        ? options.get("maxConnectionsPerRoute") : "10"),
+                Integer.parseInt(options.containsKey("connectTimeout") ? options.get("connectTimeout") : "30000"),
+                Integer.parseInt(options.containsKey("readTimeout") ? options.get("readTimeout") : "60000"),
+                !options.containsKey("verifyChecksums") || Boolean.parseBoolean(options.get("verifyChecksums")),
+                log);
+        JenkinsPluginGetter jenkinsPluginGetter = null;
+        try {
+            JenkinsPluginGetter.Builder builder = new JenkinsPluginGetter.Builder()
+                    .setJenkinsPluginServerUrl("https://updates.jenkins-ci.org/download/plugins")
+                    .setPlugins(plugins)
+                    .setRepositoryResolver(repositoryResolver)
+                    .setLogger(log);
+            for (Map.Entry<String, String> option : options.entrySet()) {
+                apply(builder, option.getKey(), option.getValue());
+            }
+            jenkinsPluginGetter = builder.build();
+            jenkinsPluginGetter.execute();
+            return SUCCESS;
+        } catch (MojoFailureException | IllegalArgumentException e) {
+            err.println(e.getMessage());
+            err.println(USAGE_TEXT);
+            return USAGE;
+        } catch (Exception e) {
+            log.error(e.getMessage(), e);
+            return FAILURE;
+        } finally {
+            IOUtils.closeQuietly(jenkinsPluginGetter);
+            IOUtils.closeQuietly(repositoryResolver);
+        }
+    }
+
+    private static void apply(final JenkinsPluginGetter.Builder builder, final String name, final String value)
+            throws MojoFailureException {
+        switch (name) {
+            case "artifact": builder.setArtifact(value); break;
+            case "plugins": builder.setPlugins(Arrays.asList(value.split(","))); break;
+            case "pluginsFile": builder.setPluginsFile(new File(value)); break;
+            case "downloadDir": builder.setDownloadDir(new File(value)); break;
+            case "jenkinsPluginServerUrl": builder.setJenkinsPluginServerUrl(value); break;
+            case "threads": builder.setThreads(Integer.parseInt(value)); break;
+            case "maxConnectionsPerRoute": builder.setMaxConnectionsPerRoute(Integer.parseInt(value)); break;
+            case "connectTimeout": builder.setConnectTimeout(Integer.parseInt(value)); break;
+            case "readTimeout": builder.setReadTimeout(Integer.parseInt(value)); break;
+            case "updateCenterIndex": builder.setUpdateCenterIndex(value); break;
+            case "manifestProbe": builder.setManifestProbe(Boolean.parseBoolean(value)); break;
+            case "useManifestCache": builder.setUseManifestCache(Boolean.parseBoolean(value)); break;
+            case "manifestCacheFile": builder.setManifestCacheFile(new File(value)); break;
+            case "manifestCacheMaxEntries": builder.setManifestCacheMaxEntries(Integer.parseInt(value)); break;
+            case "clearManifestCache": builder.setClearManifestCache(Boolean.parseBoolean(value)); break;
+            case "repositoryMissCacheTtl": builder.setRepositoryMissCacheTtl(Long.parseLong(value)); break;
+            case "repositoryMissCacheFile": builder.setRepositoryMissCacheFile(new File(value)); break;
+            case "resolutionOrder": builder.setResolutionOrder(ResolutionOrder.valueOf(upper(value))); break;
+            case "dryRun": builder.setDryRun(Boolean.parseBoolean(value)); break;
+            case "planDirectory": builder.setPlanDirectory(new File(value)); break;
+            case "lockfile": builder.setLockfile(new File(value)); break;
+            case "updateLockfile": builder.setUpdateLockfile(Boolean.parseBoolean(value)); break;
+            case "incremental": builder.setIncremental(Boolean.parseBoolean(value)); break;
+            case "deleteStale": builder.setDeleteStale(Boolean.parseBoolean(value)); break;
+            case "reportFile": builder.setReportFile(new File(value)); break;
+            case "reportSlowest": builder.setReportSlowest(Integer.parseInt(value)); break;
+            case "versionMediation": builder.setVersionMediation(VersionMediation.valueOf(upper(value))); break;
+            case "optionalDependencies":
+                builder.setOptionalDependencies(OptionalDependencies.valueOf(upper(value)));
+                break;
+            case "outputStrategy": builder.setOutputStrategy(OutputStrategy.valueOf(upper(value))); break;
+            case "outputLayout": builder.setOutputLayout(OutputLayout.valueOf(upper(value))); break;
+            case "pinPlugins": builder.setPinPlugins(Boolean.parseBoolean(value)); break;
+            case "bundleFile": builder.setBundleFile(new File(value)); break;
+            case "pluginStore": builder.setPluginStore(new File(value)); break;
+            case "downloadTarget": builder.setDownloadTarget(DownloadTarget.valueOf(upper(value))); break;
+            case "verifyChecksums": builder.setVerifyChecksums(Boolean.parseBoolean(value)); break;
+            case "pluginServerRetries": builder.setPluginServerRetries(Integer.parseInt(value)); break;
+            case "pluginServerRetryBackoff": builder.setPluginServerRetryBackoff(Long.parseLong(value)); break;
+            case "hedgeDelay": builder.setHedgeDelay(Long.parseLong(value)); break;
+            case "maxDownloadsPerHost": builder.setMaxDownloadsPerHost(Integer.parseInt(value)); break;
+            case "maxBytesPerSecond": builder.setMaxBytesPerSecond(Long.parseLong(value)); break;
+            case "downloadEngine": builder.setDownloadEngine(DownloadEngine.valueOf(upper(value))); break;
+            default:
+                throw new IllegalArgumentException("unknown option --" + name);
+        }
+    }
+
+    private static boolean isBoolean(final String value) {
+        return "true".equalsIgnoreCase(value) || "false".equalsIgnoreCase(value);
+    }
+
+    private static String upper(final String value) {
+        return value.trim().toUpperCase(Locale.ENGLISH);
+    }
+
+    /**
+     * {@link SystemStreamLog} prints debug messages whether they are enabled or not.
+     */
+    private static class ConsoleLog extends SystemStreamLog {
+        private final boolean debug;
+
+        ConsoleLog(final boolean debug) {
+            this.debug = debug;
+        }
+
+        @Override
+        public boolean isDebugEnabled() {
+            return debug;
+        }
+
+        @Override
+        public void debug(final CharSequence content) {
+            if (debug) {
+                super.debug(content);
+            }
+        }
+
+        @Override
+        public void debug(final CharSequence content, final Throwable error) {
+            if (debug) {
+                super.debug(content, error);
+            }
+        }
+
+        @Override
+        public void debug(final Throwable error) {
+            if (debug) {
+                super.debug(error);
+            }
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.github.vincentrussell;
+
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParseException;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Objects;
+
+/**
+ * The flat list of plugins a run resolved, with the SHA-256 and the source of every hpi, the plugins
+ * that were requested and the settings that decide what they resolve to.  A run given the same request
+ * and settings can download the locked plugins without discovering the dependency graph again.
+ */
+public class Lockfile {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private int version = FORMAT_VERSION;
+    private List<String> requested = new ArrayList<>();
+    private VersionMediation versionMediation;
+    private OptionalDependencies optionalDependencies;
+    private String updateCenterIndex;
+    private List<LockedPlugin> plugins = new ArrayList<>();
+
+    /**
+     * @param updateCenterIndex the location of the update center metadata or null if none was used.
+     */
+    public Lockfile(final List<String> requested, final VersionMediation versionMediation,
+                    final OptionalDependencies optionalDependencies, final String updateCenterIndex) {
+        this.requested = new ArrayList<>(requested);
+        Collections.sort(this.requested);
+        this.versionMediation = versionMediation;
+        this.optionalDependencies = optionalDependencies;
+        this.updateCenterIndex = updateCenterIndex;
+    }
+
+    public static Lockfile load(final File file) throws IOException {
+        Lockfile lockfile;
+        try {
+            lockfile = new GsonBuilder().create().fromJson(FileUtils.readFileToString(file, StandardCharsets.UTF_8),
+                    Lockfile.class);
+        } catch (JsonParseException e) {
+            throw new IOException("could not read lockfile " + file + ": " + e.getMessage(), e);
+        }
+        if (lockfile == null || lockfile.version != FORMAT_VERSION || lockfile.plugins == null
+                || lockfile.requested == null) {
+            throw new IOException("unsupported lockfile " + file);
+        }
+        return lockfile;
+    }
+
+    /**
+     * @return true if this lockfile was written for the same requested plugins, in any order, with the
+     * same settings.  A lockfile written before the settings were recorded is for none.
+     */
+    public boolean isFor(final List<String> requested, final VersionMediation versionMediation,
+                         final OptionalDependencies optionalDependencies, final String updateCenterIndex) {
+        List<String> sorted = new ArrayList<>(requested);
+        Collections.sort(sorted);
+        return this.requested.equals(sorted)
+                && this.versionMediation == versionMediation
+                && this.optionalDependencies == optionalDependencies
+                && Objects.equals(this.updateCenterIndex, updateCenterIndex);
+    }
+
+    public synchronized void add(final LockedPlugin plugin) {
+        plugins.add(plugin);
+    }
+
+    public List<LockedPlugin> getPlugins() {
+        return plugins;
+    }
+
+    /**
+     * Writes the plugins sorted by their coordinates so the file only changes when the resolution does.
+     * The file is replaced atomically.
+     */
+    public synchronized void write(final File file) throws IOException {
+        Collections.sort(plugins, new Comparator<LockedPlugin>() {
+            @Override
+            public int compare(final LockedPlugin first, final LockedPlugin second) {
+                return first.getKey().compareTo(second.getKey());
+            }
+        });
+        FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+        File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            FileUtils.writeStringToFile(tempFile, new GsonBuilder().setPrettyPrinting().create().toJson(this),
+                    StandardCharsets.UTF_8);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            FileUtils.deleteQuietly(tempFile);
+        }
+    }
+
+    public static class LockedPlugin {
+        private String groupId;
+        private String artifactId;
+        private String version;
+        private String type;
+        private String sha256;
+        private ArtifactSource source;
+
+        public LockedPlugin(final String groupId, final String artifactId, final String version,
+                            final String type, final String sha256, final ArtifactSource source) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.type = type;
+            this.sha256 = sha256;
+            this.source = source;
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getArtifactId() {
+            return artifactId;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getType() {
+            return type;
+        }
+
+        /**
+         * @return the hex encoded SHA-256 of the hpi.
+         */
+        public String getSha256() {
+            return sha256;
+        }
+
+        public ArtifactSource getSource() {
+            return source;
+        }
+
+        public String getKey() {
+            return DependencyGraph.getKey(groupId, artifactId, version);
+        }
+    }
+}
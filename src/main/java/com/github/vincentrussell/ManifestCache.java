@@ -0,0 +1,155 @@
+package com.github.vincentrussell;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Persistent cache of the dependencies read from hpi manifests.  An entry is keyed by
+ * groupId:artifactId:version and is only used while the size and modification time of the hpi
+ * it was read from are unchanged.  The least recently used entries are evicted once the cache
+ * holds more than maxEntries.
+ */
+public class ManifestCache {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final File file;
+    private final int maxEntries;
+    private final LinkedHashMap<String, CacheEntry> entries;
+    private boolean modified;
+
+    private ManifestCache(final File file, final int maxEntries) {
+        this.file = file;
+        this.maxEntries = maxEntries;
+        this.entries = new LinkedHashMap<String, CacheEntry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, CacheEntry> eldest) {
+                return size() > ManifestCache.this.maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Loads the cache from file.  A missing or unreadable file results in an empty cache.
+     */
+    public static ManifestCache load(final File file, final int maxEntries) {
+        ManifestCache manifestCache = new ManifestCache(file, maxEntries);
+        if (!file.isFile()) {
+            return manifestCache;
+        }
+        try {
+            CacheFile cacheFile = new Gson().fromJson(FileUtils.readFileToString(file, StandardCharsets.UTF_8),
+                    CacheFile.class);
+            if (cacheFile != null && cacheFile.version == FORMAT_VERSION && cacheFile.entries != null) {
+                for (CacheEntry entry : cacheFile.entries) {
+                    manifestCache.entries.put(entry.key, entry);
+                }
+            }
+        } catch (IOException | JsonParseException e) {
+            manifestCache.modified = true;
+        }
+        return manifestCache;
+    }
+
+    /**
+     * @return the cached dependencies or null if there is no entry or the hpi changed since it was cached.
+     */
+    public synchronized List<PluginDependency> get(final String key, final File hpi) {
+        CacheEntry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.size != hpi.length() || entry.lastModified != hpi.lastModified()) {
+            entries.remove(key);
+            modified = true;
+            return null;
+        }
+        List<PluginDependency> result = new ArrayList<>();
+        for (CachedDependency dependency : entry.dependencies) {
+            result.add(new PluginDependency(dependency.groupId, dependency.artifactId, dependency.version,
+                    dependency.optional));
+        }
+        return result;
+    }
+
+    public synchronized void put(final String key, final File hpi, final List<PluginDependency> dependencies) {
+        CacheEntry entry = new CacheEntry();
+        entry.key = key;
+        entry.size = hpi.length();
+        entry.lastModified = hpi.lastModified();
+        entry.dependencies = new ArrayList<>();
+        for (PluginDependency dependency : dependencies) {
+            CachedDependency cachedDependency = new CachedDependency();
+            cachedDependency.groupId = dependency.getGroupId();
+            cachedDependency.artifactId = dependency.getArtifactId();
+            cachedDependency.version = dependency.getVersion();
+            cachedDependency.optional = dependency.isOptional();
+            entry.dependencies.add(cachedDependency);
+        }
+        entries.put(key, entry);
+        modified = true;
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        modified = true;
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Writes the cache back to disk if it changed.  The file is replaced atomically so a concurrent
+     * build never reads a partially written cache.
+     */
+    public synchronized void save() throws IOException {
+        if (!modified) {
+            return;
+        }
+        CacheFile cacheFile = new CacheFile();
+        cacheFile.version = FORMAT_VERSION;
+        cacheFile.entries = new ArrayList<>(entries.values());
+
+        FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+        File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            FileUtils.writeStringToFile(tempFile, new Gson().toJson(cacheFile), StandardCharsets.UTF_8);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            FileUtils.deleteQuietly(tempFile);
+        }
+        modified = false;
+    }
+
+    private static class CacheFile {
+        private int version;
+        private List<CacheEntry> entries;
+    }
+
+    private static class CacheEntry {
+        private String key;
+        private long size;
+        private long lastModified;
+        private List<CachedDependency> dependencies;
+    }
+
+    private static class CachedDependency {
+        private String groupId;
+        private String artifactId;
+        private String version;
+        private boolean optional;
+    }
+}
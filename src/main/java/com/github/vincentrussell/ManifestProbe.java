@@ -0,0 +1,254 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.io.IOUtils;
+import org.apache.http.Header;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.jar.Manifest;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the manifest of a remote hpi with http range requests.  Only the tail of the archive and the
+ * manifest entry are transferred instead of the whole plugin.  The tail is the largest the end of central
+ * directory record can need, 64 KB, because it usually holds the whole central directory as well, which
+ * saves a request.  An archive whose central directory or manifest is implausibly large isn't probed.
+ */
+public class ManifestProbe {
+
+    private static final String MANIFEST_NAME = "META-INF/MANIFEST.MF";
+    private static final int END_OF_CENTRAL_DIRECTORY_SIGNATURE = 0x06054b50;
+    private static final int CENTRAL_DIRECTORY_SIGNATURE = 0x02014b50;
+    private static final int LOCAL_FILE_HEADER_SIGNATURE = 0x04034b50;
+    private static final int END_OF_CENTRAL_DIRECTORY_LENGTH = 22;
+    private static final int LOCAL_FILE_HEADER_LENGTH = 30;
+    private static final int MAX_COMMENT_LENGTH = 0xFFFF;
+    private static final long MAX_CENTRAL_DIRECTORY_SIZE = 16 * 1024 * 1024;
+    private static final long MAX_MANIFEST_SIZE = 1024 * 1024;
+    private static final Pattern CONTENT_RANGE = Pattern.compile("bytes\\s+(\\d+)-(\\d+)/(\\d+)");
+
+    private final CloseableHttpClient httpClient;
+    private final DownloadThrottle throttle;
+
+    /**
+     * @param throttle the limits the range requests share with the downloads from the plugin server.
+     */
+    public ManifestProbe(final CloseableHttpClient httpClient, final DownloadThrottle throttle) {
+        this.httpClient = httpClient;
+        this.throttle = throttle;
+    }
+
+    /**
+     * @return the manifest of the hpi at url or null if the server doesn't support range requests
+     * or the archive can't be read this way, in which case the caller should download the whole file.
+     */
+    public Manifest probe(final String url) throws IOException {
+        RangeResponse tail = get(url, "bytes=-" + (END_OF_CENTRAL_DIRECTORY_LENGTH + MAX_COMMENT_LENGTH));
+        if (tail == null) {
+            return null;
+        }
+
+        int eocd = findEndOfCentralDirectory(tail.bytes);
+        if (eocd < 0) {
+            return null;
+        }
+        ByteBuffer eocdBuffer = littleEndian(tail.bytes, eocd, END_OF_CENTRAL_DIRECTORY_LENGTH);
+        long centralDirectorySize = eocdBuffer.getInt(12) & 0xFFFFFFFFL;
+        long centralDirectoryOffset = eocdBuffer.getInt(16) & 0xFFFFFFFFL;
+        if (centralDirectorySize == 0xFFFFFFFFL || centralDirectoryOffset == 0xFFFFFFFFL) {
+            // zip64 archive
+            return null;
+        }
+        if (centralDirectorySize > MAX_CENTRAL_DIRECTORY_SIZE) {
+            return null;
+        }
+
+        byte[] centralDirectory;
+        if (centralDirectoryOffset >= tail.start
+                && centralDirectoryOffset - tail.start + centralDirectorySize <= tail.bytes.length) {
+            int from = (int) (centralDirectoryOffset - tail.start);
+            centralDirectory = new byte[(int) centralDirectorySize];
+            System.arraycopy(tail.bytes, from, centralDirectory, 0, centralDirectory.length);
+        } else {
+            RangeResponse range = get(url, range(centralDirectoryOffset, centralDirectorySize));
+            if (range == null) {
+                return null;
+            }
+            centralDirectory = range.bytes;
+        }
+
+        CentralDirectoryEntry entry = findManifestEntry(centralDirectory);
+        if (entry == null) {
+            return null;
+        }
+        byte[] data = readEntry(url, entry);
+        if (data == null) {
+            return null;
+        }
+        return new Manifest(new ByteArrayInputStream(data));
+    }
+
+    /**
+     * Convenience that reads the Plugin-Dependencies of the remote hpi.
+     *
+     * @return the dependencies or null if they can't be read with range requests.
+     */
+    public List<PluginDependency> probeDependencies(final String url) throws IOException {
+        Manifest manifest = probe(url);
+        if (manifest == null) {
+            return null;
+        }
+        return PluginDependency.parseAll(manifest.getMainAttributes().getValue(PluginDependency.PLUGIN_DEPENDENCIES));
+    }
+
+    private byte[] readEntry(final String url, final CentralDirectoryEntry entry) throws IOException {
+        // the sizes come from the server, a bogus one mustn't allocate the heap away
+        if (entry.compressedSize > MAX_MANIFEST_SIZE || entry.uncompressedSize > MAX_MANIFEST_SIZE) {
+            return null;
+        }
+        // the extra field of the local header usually has the same length as the one in the central directory
+        long guess = LOCAL_FILE_HEADER_LENGTH + entry.nameLength + entry.extraLength + entry.compressedSize;
+        RangeResponse local = get(url, range(entry.localHeaderOffset, guess));
+        if (local == null || local.bytes.length < LOCAL_FILE_HEADER_LENGTH) {
+            return null;
+        }
+        ByteBuffer header = littleEndian(local.bytes, 0, LOCAL_FILE_HEADER_LENGTH);
+        if (header.getInt(0) != LOCAL_FILE_HEADER_SIGNATURE) {
+            return null;
+        }
+        int dataOffset = LOCAL_FILE_HEADER_LENGTH + (header.getShort(26) & 0xFFFF) + (header.getShort(28) & 0xFFFF);
+        byte[] compressed;
+        if (local.bytes.length >= dataOffset + entry.compressedSize) {
+            compressed = new byte[(int) entry.compressedSize];
+            System.arraycopy(local.bytes, dataOffset, compressed, 0, compressed.length);
+        } else {
+            RangeResponse rest = get(url, range(entry.localHeaderOffset + dataOffset, entry.compressedSize));
+            if (rest == null) {
+                return null;
+            }
+            compressed = rest.bytes;
+        }
+
+        if (entry.method == 0) {
+            return compressed;
+        } else if (entry.method == 8) {
+            Inflater inflater = new Inflater(true);
+            try {
+                inflater.setInput(compressed);
+                byte[] result = new byte[(int) entry.uncompressedSize];
+                int length = 0;
+                while (length < result.length && !inflater.finished()) {
+                    int read = inflater.inflate(result, length, result.length - length);
+                    if (read == 0 && (inflater.needsInput() || inflater.needsDictionary())) {
+                        break;
+                    }
+                    length += read;
+                }
+                return length == result.length ? result : null;
+            } catch (DataFormatException e) {
+                throw new IOException("could not inflate " + MANIFEST_NAME + " from " + url, e);
+            } finally {
+                inflater.end();
+            }
+        }
+        return null;
+    }
+
+    private static CentralDirectoryEntry findManifestEntry(final byte[] centralDirectory) {
+        ByteBuffer buffer = littleEndian(centralDirectory, 0, centralDirectory.length);
+        int position = 0;
+        while (position + 46 <= centralDirectory.length
+                && buffer.getInt(position) == CENTRAL_DIRECTORY_SIGNATURE) {
+            int nameLength = buffer.getShort(position + 28) & 0xFFFF;
+            int extraLength = buffer.getShort(position + 30) & 0xFFFF;
+            int commentLength = buffer.getShort(position + 32) & 0xFFFF;
+            if (position + 46 + nameLength > centralDirectory.length) {
+                return null;
+            }
+            String name = new String(centralDirectory, position + 46, nameLength, StandardCharsets.UTF_8);
+            if (MANIFEST_NAME.equalsIgnoreCase(name)) {
+                CentralDirectoryEntry entry = new CentralDirectoryEntry();
+                entry.method = buffer.getShort(position + 10) & 0xFFFF;
+                entry.compressedSize = buffer.getInt(position + 20) & 0xFFFFFFFFL;
+                entry.uncompressedSize = buffer.getInt(position + 24) & 0xFFFFFFFFL;
+                entry.nameLength = nameLength;
+                entry.extraLength = extraLength;
+                entry.localHeaderOffset = buffer.getInt(position + 42) & 0xFFFFFFFFL;
+                return entry;
+            }
+            position += 46 + nameLength + extraLength + commentLength;
+        }
+        return null;
+    }
+
+    private static int findEndOfCentralDirectory(final byte[] bytes) {
+        ByteBuffer buffer = littleEndian(bytes, 0, bytes.length);
+        for (int i = bytes.length - END_OF_CENTRAL_DIRECTORY_LENGTH; i >= 0; i--) {
+            if (buffer.getInt(i) == END_OF_CENTRAL_DIRECTORY_SIGNATURE) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static ByteBuffer littleEndian(final byte[] bytes, final int offset, final int length) {
+        return ByteBuffer.wrap(bytes, offset, length).slice().order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    private static String range(final long start, final long length) {
+        return "bytes=" + start + "-" + (start + Math.max(length, 1) - 1);
+    }
+
+    private RangeResponse get(final String url, final String range) throws IOException {
+        HttpGet httpGet = new HttpGet(url);
+        httpGet.setHeader("Range", range);
+        try (DownloadThrottle.Permit permit = throttle.acquire(url, null);
+             CloseableHttpResponse response = httpClient.execute(httpGet)) {
+            if (HttpStatus.SC_PARTIAL_CONTENT != response.getStatusLine().getStatusCode()) {
+                // closing the response without reading it aborts a full body sent by a server without range support
+                if (HttpStatus.SC_OK != response.getStatusLine().getStatusCode()) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                }
+                return null;
+            }
+            Header contentRange = response.getFirstHeader("Content-Range");
+            if (contentRange == null) {
+                return null;
+            }
+            Matcher matcher = CONTENT_RANGE.matcher(contentRange.getValue());
+            if (!matcher.find()) {
+                return null;
+            }
+            RangeResponse result = new RangeResponse();
+            result.start = Long.parseLong(matcher.group(1));
+            result.bytes = IOUtils.toByteArray(throttle.limit(response.getEntity().getContent(), null));
+            return result;
+        }
+    }
+
+    private static class RangeResponse {
+        private long start;
+        private byte[] bytes;
+    }
+
+    private static class CentralDirectoryEntry {
+        private int method;
+        private long compressedSize;
+        private long uncompressedSize;
+        private int nameLength;
+        private int extraLength;
+        private long localHeaderOffset;
+    }
+}
@@ -0,0 +1,43 @@
+package com.github.vincentrussell;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.repository.RepositorySystem;
+import org.apache.maven.shared.transfer.artifact.resolve.ArtifactResolver;
+import org.apache.maven.shared.transfer.artifact.resolve.ArtifactResolverException;
+import org.apache.maven.shared.transfer.artifact.resolve.ArtifactResult;
+
+import java.io.File;
+
+/**
+ * Resolves from the local and remote repositories of the maven session the goal runs in.
+ */
+public class MavenRepositoryResolver implements RepositoryResolver {
+
+    private final RepositorySystem repositorySystem;
+    private final ArtifactResolver artifactResolver;
+    private final MavenSession mavenSession;
+
+    public MavenRepositoryResolver(final RepositorySystem repositorySystem, final ArtifactResolver artifactResolver,
+                                   final MavenSession mavenSession) {
+        this.repositorySystem = repositorySystem;
+        this.artifactResolver = artifactResolver;
+        this.mavenSession = mavenSession;
+    }
+
+    @Override
+    public Artifact createArtifact(final String groupId, final String artifactId, final String version,
+                                   final String type) {
+        return repositorySystem.createArtifact(groupId, artifactId, version, type);
+    }
+
+    @Override
+    public File getLocalRepository() {
+        return new File(mavenSession.getProjectBuildingRequest().getLocalRepository().getBasedir());
+    }
+
+    @Override
+    public ArtifactResult resolveArtifact(final Artifact artifact) throws ArtifactResolverException {
+        return artifactResolver.resolveArtifact(mavenSession.getProjectBuildingRequest(), artifact);
+    }
+}
@@ -0,0 +1,20 @@
+package com.github.vincentrussell;
+
+/**
+ * What to do with the dependencies a plugin marks as resolution:=optional.
+ */
+public enum OptionalDependencies {
+    /**
+     * Optional dependencies are downloaded like required ones.
+     */
+    INCLUDE,
+    /**
+     * Optional dependencies are left out.
+     */
+    EXCLUDE,
+    /**
+     * An optional dependency is only followed if something else in the graph requires the same plugin,
+     * in which case its version counts for version mediation; otherwise it is left out.
+     */
+    INCLUDE_IF_REQUIRED
+}
@@ -0,0 +1,27 @@
+package com.github.vincentrussell;
+
+/**
+ * How the download directory is laid out.
+ */
+public enum OutputLayout {
+    /**
+     * groupId/artifactId/version/artifactId-version.hpi, like a maven repository.
+     */
+    MAVEN,
+    /**
+     * A flat directory of artifactId.jpi files, ready to be used as JENKINS_HOME/plugins.
+     */
+    PLUGINS,
+    /**
+     * A zip file with the plugins directory, written while the plugins are downloaded.
+     */
+    ZIP,
+    /**
+     * A tar file with the plugins directory, written while the plugins are downloaded.
+     */
+    TAR;
+
+    public boolean isBundle() {
+        return this == ZIP || this == TAR;
+    }
+}
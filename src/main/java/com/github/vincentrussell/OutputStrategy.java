@@ -0,0 +1,25 @@
+package com.github.vincentrussell;
+
+/**
+ * How a resolved hpi is put into the download directory.
+ */
+public enum OutputStrategy {
+    /**
+     * Replace the file in the download directory with a fresh copy.
+     */
+    COPY,
+    /**
+     * Leave the file in the download directory alone if it has the same size and checksum,
+     * otherwise copy it.
+     */
+    SKIP_IF_IDENTICAL,
+    /**
+     * Hard link the file in the download directory to the hpi in the local repository. Falls back to
+     * a copy when both aren't on the same file system.
+     */
+    HARDLINK,
+    /**
+     * Make the file in the download directory a symbolic link to the hpi in the local repository.
+     */
+    SYMLINK
+}
@@ -0,0 +1,181 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.zip.Deflater;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * A zip or tar archive that plugins are appended to as soon as they are downloaded, so the archive is
+ * complete when the last download is and no directory has to be walked and packed afterwards.  The
+ * archive is written to a .jdp-part file that only replaces the target once it was finished.
+ */
+public class PluginBundle {
+
+    private static final int TAR_BLOCK = 512;
+
+    private final File file;
+    private final File partFile;
+    private final OutputLayout layout;
+    private OutputStream outputStream;
+    private ZipOutputStream zipOutputStream;
+
+    public PluginBundle(final File file, final OutputLayout layout) {
+        this.file = file;
+        this.partFile = new File(file.getPath() + PluginServerDownloader.PART_SUFFIX);
+        this.layout = layout;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    /**
+     * Appends source as name, opening the archive with the first entry.
+     */
+    public synchronized void add(final String name, final File source) throws IOException {
+        open();
+        try (InputStream inputStream = new FileInputStream(source)) {
+            add(name, source.length(), source.lastModified(), inputStream);
+        }
+    }
+
+    /**
+     * Appends an empty entry, i.e. a pinned marker.
+     */
+    public synchronized void addEmpty(final String name) throws IOException {
+        open();
+        add(name, 0, System.currentTimeMillis(), null);
+    }
+
+    /**
+     * Finishes the archive and moves it into place, or throws it away if the run failed.
+     *
+     * @return true if the archive was written.
+     */
+    public synchronized boolean close(final boolean success) throws IOException {
+        if (outputStream == null) {
+            return false;
+        }
+        OutputStream closing = outputStream;
+        outputStream = null;
+        if (!success) {
+            // quietly, the failure of the run is what matters
+            IOUtils.closeQuietly(closing);
+            FileUtils.deleteQuietly(partFile);
+            return false;
+        }
+        try {
+            if (zipOutputStream != null) {
+                zipOutputStream.finish();
+            } else {
+                // two empty blocks end a tar
+                closing.write(new byte[TAR_BLOCK * 2]);
+            }
+            closing.close();
+        } catch (IOException e) {
+            IOUtils.closeQuietly(closing);
+            FileUtils.deleteQuietly(partFile);
+            throw e;
+        } finally {
+            zipOutputStream = null;
+        }
+        Files.move(partFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        return true;
+    }
+
+    private void open() throws IOException {
+        if (outputStream != null) {
+            return;
+        }
+        FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+        outputStream = new BufferedOutputStream(new FileOutputStream(partFile), 64 * 1024);
+        if (layout == OutputLayout.ZIP) {
+            zipOutputStream = new ZipOutputStream(outputStream);
+            // hpis are compressed already, deflating them again only costs time
+            zipOutputStream.setLevel(Deflater.NO_COMPRESSION);
+            outputStream = zipOutputStream;
+        }
+    }
+
+    private void add(final String name, final long size, final long modified, final InputStream inputStream)
+            throws IOException {
+        if (zipOutputStream != null) {
+            ZipEntry entry = new ZipEntry(name);
+            entry.setTime(modified);
+            zipOutputStream.putNextEntry(entry);
+            if (inputStream != null) {
+                IOUtils.copyLarge(inputStream, zipOutputStream);
+            }
+            zipOutputStream.closeEntry();
+            return;
+        }
+
+        outputStream.write(tarHeader(name, size, modified));
+        long copied = inputStream != null ? IOUtils.copyLarge(inputStream, outputStream) : 0;
+        if (copied != size) {
+            throw new IOException("expected " + size + " bytes for " + name + " but read " + copied);
+        }
+        int padding = (int) (size % TAR_BLOCK);
+        if (padding > 0) {
+            outputStream.write(new byte[TAR_BLOCK - padding]);
+        }
+    }
+
+    /**
+     * @return a ustar header for a regular file.
+     */
+    private static byte[] tarHeader(final String name, final long size, final long modified) throws IOException {
+        byte[] nameBytes = name.getBytes(StandardCharsets.UTF_8);
+        if (nameBytes.length > 100) {
+            throw new IOException(name + " is too long for a tar entry");
+        }
+        byte[] header = new byte[TAR_BLOCK];
+        System.arraycopy(nameBytes, 0, header, 0, nameBytes.length);
+        octal(header, 100, 8, 0644);
+        octal(header, 108, 8, 0);
+        octal(header, 116, 8, 0);
+        octal(header, 124, 12, size);
+        octal(header, 136, 12, modified / 1000);
+        header[156] = '0';
+        System.arraycopy("ustar\u000000".getBytes(StandardCharsets.US_ASCII), 0, header, 257, 8);
+        // the checksum is computed with its own field filled with spaces
+        for (int i = 148; i < 156; i++) {
+            header[i] = ' ';
+        }
+        long checksum = 0;
+        for (byte b : header) {
+            checksum += b & 0xff;
+        }
+        octal(header, 148, 7, checksum);
+        return header;
+    }
+
+    /**
+     * Writes value as a zero padded, NUL terminated octal number.
+     */
+    private static void octal(final byte[] header, final int offset, final int length, final long value) {
+        String digits = Long.toOctalString(value);
+        StringBuilder field = new StringBuilder();
+        for (int i = digits.length(); i < length - 1; i++) {
+            field.append('0');
+        }
+        field.append(digits);
+        byte[] bytes = field.toString().getBytes(StandardCharsets.US_ASCII);
+        System.arraycopy(bytes, 0, header, offset, bytes.length);
+        header[offset + length - 1] = 0;
+    }
+}
@@ -0,0 +1,137 @@
+package com.github.vincentrussell;
+
+import org.codehaus.plexus.util.StringUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.jar.JarInputStream;
+import java.util.jar.Manifest;
+
+/**
+ * A single entry of a plugin's dependency list, either read from the Plugin-Dependencies manifest
+ * attribute or from update center metadata.
+ */
+public class PluginDependency {
+
+    public static final String DEFAULT_GROUP_ID = "org.jenkins-ci.plugins";
+    public static final String PLUGIN_DEPENDENCIES = "Plugin-Dependencies";
+
+    private final String groupId;
+    private final String artifactId;
+    private final String version;
+    private final boolean optional;
+
+    public PluginDependency(final String groupId, final String artifactId, final String version,
+                            final boolean optional) {
+        this.groupId = groupId;
+        this.artifactId = artifactId;
+        this.version = version;
+        this.optional = optional;
+    }
+
+    /**
+     * Parses one comma separated token of a Plugin-Dependencies manifest attribute, i.e:
+     * workflow-api:2.40;resolution:=optional or org.jenkins-ci.plugins:workflow-api:2.40
+     */
+    public static PluginDependency parse(final String input) {
+        final String[] parts = input.trim().split(";");
+        String[] tokens = StringUtils.split(parts[0], ":" );
+        String groupId = null;
+        String artifactId = null;
+        String version = null;
+
+        if (tokens.length == 2) {
+            groupId = DEFAULT_GROUP_ID;
+            artifactId = tokens[0];
+            version = tokens[1];
+        } else if (tokens.length == 3) {
+            groupId = tokens[0];
+            artifactId = tokens[1];
+            version = tokens[2];
+        }
+
+        boolean optional = false;
+        for (int i = 1; i < parts.length; i++) {
+            if (parts[i].replaceAll("\\s", "").equals("resolution:=optional")) {
+                optional = true;
+            }
+        }
+        return new PluginDependency(groupId, artifactId, version, optional);
+    }
+
+    /**
+     * Parses a whole Plugin-Dependencies manifest attribute; entries that aren't coordinates are skipped.
+     */
+    public static List<PluginDependency> parseAll(final String dependencies) {
+        if (dependencies == null) {
+            return Collections.emptyList();
+        }
+        List<PluginDependency> result = new ArrayList<>();
+        for (String dependency : dependencies.split(",")) {
+            PluginDependency pluginDependency = parse(dependency);
+            if (pluginDependency.getArtifactId() != null) {
+                result.add(pluginDependency);
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Reads the Plugin-Dependencies attribute from the manifest of an hpi.
+     */
+    public static List<PluginDependency> readFromHpi(final File hpi) throws IOException {
+        try (JarInputStream jarInputStream = new JarInputStream(new FileInputStream(hpi))) {
+            Manifest manifest = jarInputStream.getManifest();
+            if (manifest == null) {
+                return Collections.emptyList();
+            }
+            return parseAll(manifest.getMainAttributes().getValue(PLUGIN_DEPENDENCIES));
+        }
+    }
+
+    public String getGroupId() {
+        return groupId;
+    }
+
+    public String getArtifactId() {
+        return artifactId;
+    }
+
+    public String getVersion() {
+        return version;
+    }
+
+    public boolean isOptional() {
+        return optional;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (o == null || getClass() != o.getClass()) {
+            return false;
+        }
+        PluginDependency that = (PluginDependency) o;
+        return optional == that.optional
+                && Objects.equals(groupId, that.groupId)
+                && Objects.equals(artifactId, that.artifactId)
+                && Objects.equals(version, that.version);
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(groupId, artifactId, version, optional);
+    }
+
+    @Override
+    public String toString() {
+        return groupId + ":" + artifactId + ":" + version + (optional ? ";resolution:=optional" : "");
+    }
+}
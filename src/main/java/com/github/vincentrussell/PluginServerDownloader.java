@@ -0,0 +1,501 @@
+package com.github.vincentrussell;
+
+import com.github.vincentrussell.PluginServerMirrors.Mirror;
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.commons.io.output.TeeOutputStream;
+import org.apache.http.Header;
+import org.apache.http.HttpResponse;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Downloads files from the plugin server.  The body is written to a .jdp-part file next to the target
+ * which is only renamed to the target once the download is complete, so an interrupted or failed
+ * download never looks like a resolved plugin.  A .jdp-part file left behind by an interrupted download
+ * is resumed with a range request.  If a checksum is expected it is computed while the body streams
+ * to disk and a mismatch discards the .jdp-part file before it is ever renamed.  Without a checksum
+ * the .sha256 file the mirror publishes next to the file can be used, which is read in the same attempt
+ * as the file itself, so it fails over with it.
+ * <p>
+ * A failed download is tried on the next mirror, and once every mirror failed the round is repeated
+ * after a pause that doubles each time.  With a hedge delay, a mirror that hasn't answered within the
+ * delay gets company: the same request is sent to the next mirror and whichever answers first is used.
+ * <p>
+ * Every request waits for its host's share of the {@link DownloadThrottle} and every body is read at
+ * the throttle's byte rate.
+ */
+public class PluginServerDownloader implements Closeable {
+
+    /**
+     * Not .part: maven's resolver uses that for its own partial downloads and deletes ours in the local
+     * repository before they can be resumed.
+     */
+    static final String PART_SUFFIX = ".jdp-part";
+    static final String SHA_256_SUFFIX = ".sha256";
+
+    private final CloseableHttpClient httpClient;
+    private final PluginServerMirrors mirrors;
+    private final int retries;
+    private final long retryBackoff;
+    private final long hedgeDelay;
+    private final ExecutorService hedgeExecutor;
+    private final DownloadThrottle throttle;
+    private final VerifiedChecksums verifiedChecksums;
+    private final Log log;
+
+    public PluginServerDownloader(final CloseableHttpClient httpClient, final PluginServerMirrors mirrors,
+                                  final int retries, final long retryBackoff, final long hedgeDelay,
+                                  final DownloadThrottle throttle, final VerifiedChecksums verifiedChecksums,
+                                  final Log log) {
+        this.httpClient = httpClient;
+        this.throttle = throttle;
+        this.verifiedChecksums = verifiedChecksums;
+        this.mirrors = mirrors;
+        this.retries = retries;
+        this.retryBackoff = retryBackoff;
+        this.hedgeDelay = hedgeDelay;
+        this.hedgeExecutor = hedgeDelay > 0 && mirrors.size() > 1
+                ? Executors.newCachedThreadPool(new ThreadFactory() {
+                    @Override
+                    public Thread newThread(final Runnable runnable) {
+                        Thread thread = new Thread(runnable, "plugin-server-hedge");
+                        thread.setDaemon(true);
+                        return thread;
+                    }
+                }) : null;
+        this.log = log;
+    }
+
+    /**
+     * Downloads path from the mirrors to target and, if copy isn't null, to copy in the same pass.
+     *
+     * @param expectedChecksum the checksum the file must have or null if it isn't known.
+     * @param readSidecar without an expectedChecksum, verify the file with the path.sha256 of the mirror
+     *                    it is downloaded from, if the mirror has one.
+     * @param metrics records the bytes, retries and the url used, or null.
+     * @return false if none of the mirrors has the file, i.e. they all answered 404.
+     * @throws IOException if the download keeps failing or the file doesn't match its checksum.
+     */
+    public boolean download(final String path, final File target, final File copy,
+                            final ExpectedChecksum expectedChecksum, final boolean readSidecar,
+                            final DownloadMetrics.ArtifactMetrics metrics) throws IOException {
+        IOException lastException = null;
+        long backoff = retryBackoff;
+        for (int attempt = 0; attempt <= retries; attempt++) {
+            if (attempt > 0) {
+                log.warn("retrying download of " + path + " in " + backoff + "ms: " + lastException.getMessage());
+                sleep(backoff);
+                backoff *= 2;
+            }
+
+            boolean failed = false;
+            List<Mirror> ordered = mirrors.getMirrors();
+            for (int i = 0; i < ordered.size(); i++) {
+                Mirror mirror = ordered.get(i);
+                Mirror hedge = hedgeExecutor != null && i + 1 < ordered.size() ? ordered.get(i + 1) : null;
+                try {
+                    boolean sidecar = expectedChecksum == null && readSidecar;
+                    ExpectedChecksum checksum = sidecar ? getSha256Sidecar(mirror, path) : expectedChecksum;
+                    if (download(mirror, hedge, path, target, copy, checksum, sidecar, metrics, false)) {
+                        return true;
+                    }
+                } catch (ChecksumMismatchException e) {
+                    throw e;
+                } catch (InterruptedIOException e) {
+                    throw e;
+                } catch (IOException e) {
+                    log.debug("download of " + mirror.getUrl(path) + " failed: " + e.getMessage());
+                    lastException = e;
+                    failed = true;
+                    if (metrics != null) {
+                        metrics.addRetry();
+                    }
+                }
+            }
+            if (!failed) {
+                return false;
+            }
+        }
+        throw lastException;
+    }
+
+    /**
+     * @param sidecar true if expectedChecksum is the .sha256 of mirror; if hedge serves the body instead, it
+     *                is verified with the .sha256 of hedge once it is read.
+     * @param restarted true if this is the fresh download that replaces a part file the server didn't
+     *                  continue; it isn't restarted again.
+     */
+    private boolean download(final Mirror mirror, final Mirror hedge, final String path, final File target,
+                             final File copy, final ExpectedChecksum expectedChecksum, final boolean sidecar,
+                             final DownloadMetrics.ArtifactMetrics metrics, final boolean restarted)
+            throws IOException {
+        File targetPart = new File(target.getPath() + PART_SUFFIX);
+        File copyPart = copy != null ? new File(copy.getPath() + PART_SUFFIX) : null;
+        FileUtils.forceMkdir(target.getAbsoluteFile().getParentFile());
+        if (copy != null) {
+            FileUtils.forceMkdir(copy.getAbsoluteFile().getParentFile());
+        }
+
+        long resumeFrom = targetPart.isFile() ? targetPart.length() : 0;
+        if (copyPart != null && (!copyPart.isFile() || copyPart.length() != resumeFrom)) {
+            resumeFrom = 0;
+        }
+
+        Response answer = execute(mirror, hedge, path, resumeFrom, metrics);
+        String url = answer.mirror.getUrl(path);
+        // a body from hedge is checked with the .sha256 of hedge, read once the body's permit is returned
+        boolean hedgeSidecar = sidecar && answer.mirror != mirror;
+        ExpectedChecksum checksum = hedgeSidecar ? null : expectedChecksum;
+        MessageDigest messageDigest = null;
+        String sha256 = null;
+        try (Response closing = answer) {
+            CloseableHttpResponse response = answer.response;
+            int statusCode = response.getStatusLine().getStatusCode();
+            if (statusCode == HttpStatus.SC_REQUESTED_RANGE_NOT_SATISFIABLE
+                    || (statusCode == HttpStatus.SC_PARTIAL_CONTENT && !(resumeFrom > 0 && startsAt(response, resumeFrom)))) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                if (resumeFrom == 0 || restarted) {
+                    // without a range there is nothing to start over from
+                    answer.mirror.recordFailure();
+                    throw new IOException(url + " answered " + response.getStatusLine()
+                            + " to a request without a range");
+                }
+                // the part file can't be continued, e.g. the file changed on the server
+                FileUtils.deleteQuietly(targetPart);
+                FileUtils.deleteQuietly(copyPart);
+                // the permit for the host has to be returned before the next request asks for one
+                answer.close();
+                return download(mirror, hedge, path, target, copy, expectedChecksum, sidecar, metrics, true);
+            }
+
+            boolean append;
+            if (statusCode == HttpStatus.SC_PARTIAL_CONTENT) {
+                append = true;
+            } else if (statusCode == HttpStatus.SC_OK) {
+                append = false;
+            } else if (statusCode == HttpStatus.SC_NOT_FOUND || statusCode == HttpStatus.SC_GONE) {
+                EntityUtils.consumeQuietly(response.getEntity());
+                return false;
+            } else {
+                EntityUtils.consumeQuietly(response.getEntity());
+                answer.mirror.recordFailure();
+                throw new IOException(url + " answered " + response.getStatusLine());
+            }
+
+            if (checksum != null || hedgeSidecar) {
+                messageDigest = Checksums.newDigest(checksum != null ? checksum.getAlgorithm() : Checksums.SHA_256);
+                if (append) {
+                    // only the bytes of an earlier run are read again, the rest is digested as it arrives
+                    Checksums.update(messageDigest, targetPart);
+                }
+            }
+
+            long expectedLength = response.getEntity().getContentLength();
+            long written;
+            InputStream inputStream = throttle.limit(response.getEntity().getContent(), metrics);
+            if (messageDigest != null) {
+                inputStream = new DigestInputStream(inputStream, messageDigest);
+            }
+            try (OutputStream outputStream = copyPart != null
+                    ? new TeeOutputStream(new FileOutputStream(targetPart, append), new FileOutputStream(copyPart, append))
+                    : new FileOutputStream(targetPart, append)) {
+                written = IOUtils.copyLarge(inputStream, outputStream);
+            } catch (IOException e) {
+                answer.mirror.recordFailure();
+                throw e;
+            }
+
+            if (metrics != null) {
+                metrics.addBytes(written);
+                metrics.setUrl(url);
+            }
+
+            if (expectedLength >= 0 && written != expectedLength) {
+                answer.mirror.recordFailure();
+                throw new IOException("download of " + url + " ended after " + written + " of "
+                        + expectedLength + " bytes");
+            }
+        }
+
+        if (hedgeSidecar) {
+            checksum = getSha256Sidecar(answer.mirror, path);
+        }
+        if (checksum != null) {
+            byte[] digest = messageDigest.digest();
+            if (!checksum.matches(digest)) {
+                FileUtils.deleteQuietly(targetPart);
+                FileUtils.deleteQuietly(copyPart);
+                throw new ChecksumMismatchException("checksum of " + url + " doesn't match the expected "
+                        + checksum);
+            }
+            if (Checksums.SHA_256.equals(checksum.getAlgorithm())) {
+                sha256 = Hex.encodeHexString(digest);
+            }
+        }
+
+        answer.mirror.recordSuccess();
+        moveAtomically(targetPart, target);
+        verifiedChecksums.put(target, sha256);
+        if (copyPart != null) {
+            moveAtomically(copyPart, copy);
+            verifiedChecksums.put(copy, sha256);
+        }
+        return true;
+    }
+
+    /**
+     * Sends the request to mirror and, if hedge isn't null and mirror hasn't answered within the hedge
+     * delay, to hedge as well.
+     *
+     * @return the first answer; the other request is aborted.
+     */
+    private Response execute(final Mirror mirror, final Mirror hedge, final String path, final long resumeFrom,
+                             final DownloadMetrics.ArtifactMetrics metrics) throws IOException {
+        if (hedge == null) {
+            try {
+                return new Request(mirror, path, resumeFrom, metrics).call();
+            } catch (IOException e) {
+                mirror.recordFailure();
+                throw e;
+            }
+        }
+
+        CompletionService<Response> completionService = new ExecutorCompletionService<>(hedgeExecutor);
+        Map<Future<Response>, Request> pending = new HashMap<>();
+        Request first = new Request(mirror, path, resumeFrom, metrics);
+        pending.put(completionService.submit(first), first);
+        try {
+            Future<Response> done = completionService.poll(hedgeDelay, TimeUnit.MILLISECONDS);
+            if (done == null) {
+                log.debug(mirror.getUrl(path) + " didn't answer within " + hedgeDelay + "ms, also asking " + hedge);
+                Request second = new Request(hedge, path, resumeFrom, metrics);
+                pending.put(completionService.submit(second), second);
+            }
+
+            while (true) {
+                if (done == null) {
+                    done = completionService.take();
+                }
+                Request request = pending.remove(done);
+                try {
+                    Response response = done.get();
+                    if (response.response.getStatusLine().getStatusCode() >= HttpStatus.SC_INTERNAL_SERVER_ERROR
+                            && !pending.isEmpty()) {
+                        // an error isn't worth keeping while the other mirror may still deliver the file
+                        response.close();
+                        request.mirror.recordFailure();
+                        done = null;
+                        continue;
+                    }
+                    if (request != first) {
+                        // the first mirror was too slow, which makes it a little less healthy
+                        mirror.recordFailure();
+                    }
+                    for (Request loser : pending.values()) {
+                        loser.abort();
+                    }
+                    return response;
+                } catch (ExecutionException e) {
+                    request.mirror.recordFailure();
+                    if (pending.isEmpty()) {
+                        throw e.getCause() instanceof IOException
+                                ? (IOException) e.getCause() : new IOException(e.getCause());
+                    }
+                }
+                done = null;
+            }
+        } catch (InterruptedException e) {
+            for (Request request : pending.values()) {
+                request.abort();
+            }
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while downloading " + path);
+        }
+    }
+
+    /**
+     * Reads the checksum mirror publishes next to path as path.sha256.  A mirror that fails to answer is
+     * recorded as failed, but the file is still downloaded from it, just without verification.
+     *
+     * @return the checksum or null if there is none.
+     */
+    private ExpectedChecksum getSha256Sidecar(final Mirror mirror, final String path)
+            throws InterruptedIOException {
+        String sidecarUrl = mirror.getUrl(path + SHA_256_SUFFIX);
+        HttpGet httpGet = new HttpGet(sidecarUrl);
+        try (DownloadThrottle.Permit permit = throttle.acquire(sidecarUrl, null);
+             CloseableHttpResponse response = httpClient.execute(httpGet)) {
+            return readSha256Sidecar(response, sidecarUrl, mirror, log);
+        } catch (InterruptedIOException e) {
+            throw e;
+        } catch (IOException e) {
+            mirror.recordFailure();
+            log.warn("could not read " + sidecarUrl + ", downloading without verification: " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Parses the answer to a path.sha256 request, which contains the hex digest optionally followed by
+     * the file name.
+     *
+     * @return the checksum or null if the mirror has none, which is logged.
+     */
+    static ExpectedChecksum readSha256Sidecar(final HttpResponse response, final String sidecarUrl,
+                                              final Mirror mirror, final Log log) throws IOException {
+        int statusCode = response.getStatusLine().getStatusCode();
+        if (statusCode != HttpStatus.SC_OK) {
+            EntityUtils.consumeQuietly(response.getEntity());
+            if (statusCode == HttpStatus.SC_NOT_FOUND || statusCode == HttpStatus.SC_GONE) {
+                log.debug("no checksum available at " + sidecarUrl);
+            } else {
+                mirror.recordFailure();
+                log.warn(sidecarUrl + " answered " + response.getStatusLine() + ", downloading without verification");
+            }
+            return null;
+        }
+        String[] tokens = EntityUtils.toString(response.getEntity(), StandardCharsets.UTF_8).trim().split("\\s+");
+        if (tokens[0].isEmpty()) {
+            log.debug("no checksum available at " + sidecarUrl);
+            return null;
+        }
+        return new ExpectedChecksum(Checksums.SHA_256, tokens[0], sidecarUrl);
+    }
+
+    @Override
+    public void close() {
+        if (hedgeExecutor != null) {
+            hedgeExecutor.shutdownNow();
+        }
+    }
+
+    private boolean startsAt(final CloseableHttpResponse response, final long offset) {
+        Header contentRange = response.getFirstHeader("Content-Range");
+        return contentRange != null && contentRange.getValue().trim().startsWith("bytes " + offset + "-");
+    }
+
+    private static void sleep(final long millis) throws InterruptedIOException {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("interrupted while waiting to retry");
+        }
+    }
+
+    static void moveAtomically(final File source, final File target) throws IOException {
+        Files.move(source.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private class Request implements Callable<Response> {
+        private final Mirror mirror;
+        private final HttpGet httpGet;
+        private final DownloadMetrics.ArtifactMetrics metrics;
+        private boolean aborted;
+        private Response response;
+
+        Request(final Mirror mirror, final String path, final long resumeFrom,
+                final DownloadMetrics.ArtifactMetrics metrics) {
+            this.mirror = mirror;
+            this.metrics = metrics;
+            this.httpGet = new HttpGet(mirror.getUrl(path));
+            if (resumeFrom > 0) {
+                log.info("resuming download of " + httpGet.getURI() + " at byte " + resumeFrom);
+                httpGet.setHeader("Range", "bytes=" + resumeFrom + "-");
+            }
+        }
+
+        @Override
+        public Response call() throws IOException {
+            DownloadThrottle.Permit permit = throttle.acquire(httpGet.getURI().toString(), metrics);
+            Response result;
+            try {
+                result = new Response(mirror, httpClient.execute(httpGet), permit);
+            } catch (IOException | RuntimeException e) {
+                permit.close();
+                throw e;
+            }
+            synchronized (this) {
+                if (aborted) {
+                    // nobody is going to read, or close, the answer of a request that lost
+                    result.close();
+                    throw new InterruptedIOException(httpGet.getURI() + " was aborted");
+                }
+                response = result;
+            }
+            return result;
+        }
+
+        /**
+         * Aborts the request, closing its answer if there already is one.
+         */
+        void abort() {
+            synchronized (this) {
+                aborted = true;
+                if (response != null) {
+                    response.close();
+                }
+            }
+            httpGet.abort();
+        }
+    }
+
+    private static class Response implements Closeable {
+        private final Mirror mirror;
+        private final CloseableHttpResponse response;
+        private final DownloadThrottle.Permit permit;
+
+        Response(final Mirror mirror, final CloseableHttpResponse response, final DownloadThrottle.Permit permit) {
+            this.mirror = mirror;
+            this.response = response;
+            this.permit = permit;
+        }
+
+        @Override
+        public void close() {
+            IOUtils.closeQuietly(response);
+            permit.close();
+        }
+    }
+
+    /**
+     * Thrown when a download doesn't match its checksum; it isn't retried on another mirror.
+     */
+    public static class ChecksumMismatchException extends IOException {
+        public ChecksumMismatchException(final String message) {
+            super(message);
+        }
+    }
+}
@@ -0,0 +1,101 @@
+package com.github.vincentrussell;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * The ordered list of plugin server mirrors.  Every mirror keeps track of how often it failed in a
+ * row, and mirrors that failed are tried after the ones that didn't, in the configured order.
+ */
+public class PluginServerMirrors {
+
+    private final List<Mirror> mirrors = new ArrayList<>();
+
+    public PluginServerMirrors(final List<String> baseUrls) {
+        for (String baseUrl : baseUrls) {
+            mirrors.add(new Mirror(baseUrl));
+        }
+    }
+
+    /**
+     * Splits a comma separated list of mirror urls, i.e. the jenkinsPluginServerUrl parameter.
+     */
+    public static List<String> split(final String urls) {
+        List<String> result = new ArrayList<>();
+        for (String url : urls.split(",")) {
+            if (!url.trim().isEmpty()) {
+                result.add(url.trim());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @return the mirrors, the healthiest first.
+     */
+    public List<Mirror> getMirrors() {
+        // the failure counts can change while sorting so they are read once up front
+        final Map<Mirror, Integer> failures = new IdentityHashMap<>();
+        for (Mirror mirror : mirrors) {
+            failures.put(mirror, mirror.consecutiveFailures.get());
+        }
+        List<Mirror> result = new ArrayList<>(mirrors);
+        Collections.sort(result, new Comparator<Mirror>() {
+            @Override
+            public int compare(final Mirror first, final Mirror second) {
+                return Integer.compare(failures.get(first), failures.get(second));
+            }
+        });
+        return result;
+    }
+
+    /**
+     * @return the url of path on the healthiest mirror.
+     */
+    public String getUrl(final String path) {
+        return getMirrors().get(0).getUrl(path);
+    }
+
+    public int size() {
+        return mirrors.size();
+    }
+
+    public static class Mirror {
+        private final String baseUrl;
+        private final AtomicInteger consecutiveFailures = new AtomicInteger();
+
+        Mirror(final String baseUrl) {
+            this.baseUrl = baseUrl.replaceAll("/$", "");
+        }
+
+        public String getBaseUrl() {
+            return baseUrl;
+        }
+
+        public String getUrl(final String path) {
+            return baseUrl + "/" + path;
+        }
+
+        public int getConsecutiveFailures() {
+            return consecutiveFailures.get();
+        }
+
+        public void recordSuccess() {
+            consecutiveFailures.set(0);
+        }
+
+        public void recordFailure() {
+            consecutiveFailures.incrementAndGet();
+        }
+
+        @Override
+        public String toString() {
+            return baseUrl;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A content addressable store of hpis shared by download directories.  Every hpi is stored once as
+ * sha256/ab/abcd..., named by its SHA-256, and download directories hard link to those blobs instead of
+ * holding copies of their own.
+ */
+public class PluginStore {
+
+    static final String SHA_256_DIRECTORY = "sha256";
+    private static final String TMP_SUFFIX = ".tmp";
+
+    private final File directory;
+
+    public PluginStore(final File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public File getBlob(final String sha256) {
+        return new File(new File(new File(directory, SHA_256_DIRECTORY), sha256.substring(0, 2)), sha256);
+    }
+
+    /**
+     * Adds the content of source unless the store has it already.
+     *
+     * @return the blob with the content of source.
+     */
+    public File put(final File source) throws IOException {
+        return put(source, null);
+    }
+
+    /**
+     * Like {@link #put(File)}, with the SHA-256 of source if it is already known, so source is only read
+     * to copy it and not at all if the store has it.
+     *
+     * @param sha256 the hex SHA-256 of source or null to compute it.
+     */
+    public File put(final File source, final String sha256) throws IOException {
+        if (sha256 == null) {
+            return put(source, Hex.encodeHexString(Checksums.digest(source, Checksums.SHA_256)));
+        }
+        File blob = getBlob(sha256);
+        if (blob.isFile()) {
+            return blob;
+        }
+        FileUtils.forceMkdir(blob.getParentFile());
+        // other builds may put the same blob at the same time, the content is the same whoever moves last
+        File tmp = File.createTempFile(sha256, TMP_SUFFIX, blob.getParentFile());
+        try {
+            Files.copy(source.toPath(), tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            Files.move(tmp.toPath(), blob.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            FileUtils.deleteQuietly(tmp);
+        }
+        return blob;
+    }
+
+    /**
+     * @return every blob in the store.
+     */
+    public List<File> getBlobs() {
+        List<File> blobs = new ArrayList<>();
+        File[] prefixes = new File(directory, SHA_256_DIRECTORY).listFiles();
+        if (prefixes == null) {
+            return blobs;
+        }
+        for (File prefix : prefixes) {
+            File[] files = prefix.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.isFile() && !file.getName().endsWith(TMP_SUFFIX)) {
+                    blobs.add(file);
+                }
+            }
+        }
+        return blobs;
+    }
+
+    /**
+     * Deletes the blobs that aren't referenced anymore, and temporary files of puts that didn't finish
+     * within a day.  A blob is referenced if its SHA-256 is in referencedSha256s, if its file key is in
+     * referencedFileKeys or if another hard link to it still exists anywhere on the file system.
+     *
+     * @param dryRun only return what would be deleted.
+     * @return the deleted blobs.
+     */
+    public List<File> prune(final Set<String> referencedSha256s, final Set<Object> referencedFileKeys,
+                            final boolean dryRun) throws IOException {
+        List<File> pruned = new ArrayList<>();
+        for (File blob : getBlobs()) {
+            if (referencedSha256s.contains(blob.getName()) || isReferenced(blob, referencedFileKeys)) {
+                continue;
+            }
+            pruned.add(blob);
+            if (!dryRun) {
+                Files.deleteIfExists(blob.toPath());
+            }
+        }
+        if (!dryRun) {
+            deleteStaleTmpFiles();
+        }
+        return pruned;
+    }
+
+    /**
+     * @return the file key of file, i.e. its inode, or null if the file system doesn't have any.
+     */
+    public static Object getFileKey(final File file) throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    private static boolean isReferenced(final File blob, final Collection<Object> referencedFileKeys)
+            throws IOException {
+        Object fileKey = getFileKey(blob);
+        if (fileKey != null && referencedFileKeys.contains(fileKey)) {
+            return true;
+        }
+        try {
+            return ((Number) Files.getAttribute(blob.toPath(), "unix:nlink")).intValue() > 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            // without link counts only the given references count
+            return false;
+        }
+    }
+
+    private void deleteStaleTmpFiles() {
+        File[] prefixes = new File(directory, SHA_256_DIRECTORY).listFiles();
+        if (prefixes == null) {
+            return;
+        }
+        long staleBefore = System.currentTimeMillis() - TimeUnit.DAYS.toMillis(1);
+        for (File prefix : prefixes) {
+            File[] files = prefix.listFiles();
+            if (files == null) {
+                continue;
+            }
+            for (File file : files) {
+                if (file.getName().endsWith(TMP_SUFFIX) && file.lastModified() < staleBefore) {
+                    FileUtils.deleteQuietly(file);
+                }
+            }
+        }
+    }
+}
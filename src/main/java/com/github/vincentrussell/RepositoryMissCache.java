@@ -0,0 +1,116 @@
+package com.github.vincentrussell;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonParseException;
+import org.apache.commons.io.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+/**
+ * Persistent record of the plugins, by groupId:artifactId, that the maven repositories didn't have.
+ * A miss is remembered for ttl milliseconds so those plugins can go straight to the plugin server
+ * instead of a round trip through every remote repository.
+ */
+public class RepositoryMissCache {
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final File file;
+    private final long ttl;
+    private final Map<String, Long> misses = new HashMap<>();
+    private boolean modified;
+
+    private RepositoryMissCache(final File file, final long ttl) {
+        this.file = file;
+        this.ttl = ttl;
+    }
+
+    /**
+     * Loads the cache from file.  A missing or unreadable file results in an empty cache.
+     */
+    public static RepositoryMissCache load(final File file, final long ttl) {
+        RepositoryMissCache repositoryMissCache = new RepositoryMissCache(file, ttl);
+        if (!file.isFile()) {
+            return repositoryMissCache;
+        }
+        try {
+            CacheFile cacheFile = new Gson().fromJson(FileUtils.readFileToString(file, StandardCharsets.UTF_8),
+                    CacheFile.class);
+            if (cacheFile != null && cacheFile.version == FORMAT_VERSION && cacheFile.misses != null) {
+                repositoryMissCache.misses.putAll(cacheFile.misses);
+            }
+        } catch (IOException | JsonParseException e) {
+            repositoryMissCache.modified = true;
+        }
+        return repositoryMissCache;
+    }
+
+    /**
+     * @return true if the maven repositories didn't have the plugin within the last ttl milliseconds.
+     */
+    public synchronized boolean isMiss(final String groupId, final String artifactId) {
+        Long missedAt = misses.get(getKey(groupId, artifactId));
+        return missedAt != null && System.currentTimeMillis() - missedAt < ttl;
+    }
+
+    public synchronized void recordMiss(final String groupId, final String artifactId) {
+        misses.put(getKey(groupId, artifactId), System.currentTimeMillis());
+        modified = true;
+    }
+
+    public synchronized void recordHit(final String groupId, final String artifactId) {
+        if (misses.remove(getKey(groupId, artifactId)) != null) {
+            modified = true;
+        }
+    }
+
+    public synchronized int size() {
+        return misses.size();
+    }
+
+    /**
+     * Writes the cache back to disk if it changed, leaving out the misses that expired.  The file is
+     * replaced atomically so a concurrent build never reads a partially written cache.
+     */
+    public synchronized void save() throws IOException {
+        if (!modified) {
+            return;
+        }
+        long now = System.currentTimeMillis();
+        for (Iterator<Long> iterator = misses.values().iterator(); iterator.hasNext();) {
+            if (now - iterator.next() >= ttl) {
+                iterator.remove();
+            }
+        }
+        CacheFile cacheFile = new CacheFile();
+        cacheFile.version = FORMAT_VERSION;
+        cacheFile.misses = new HashMap<>(misses);
+
+        FileUtils.forceMkdir(file.getAbsoluteFile().getParentFile());
+        File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
+        try {
+            FileUtils.writeStringToFile(tempFile, new Gson().toJson(cacheFile), StandardCharsets.UTF_8);
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } finally {
+            FileUtils.deleteQuietly(tempFile);
+        }
+        modified = false;
+    }
+
+    private static String getKey(final String groupId, final String artifactId) {
+        return groupId + ":" + artifactId;
+    }
+
+    private static class CacheFile {
+        private int version;
+        private Map<String, Long> misses;
+    }
+}
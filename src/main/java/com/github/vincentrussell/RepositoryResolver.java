@@ -0,0 +1,27 @@
+package com.github.vincentrussell;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.shared.transfer.artifact.resolve.ArtifactResolverException;
+import org.apache.maven.shared.transfer.artifact.resolve.ArtifactResult;
+
+import java.io.File;
+
+/**
+ * Where {@link JenkinsPluginGetter} resolves plugins from besides the plugin server: the maven
+ * repositories of the build, or plain http repositories when running without maven.
+ */
+public interface RepositoryResolver {
+
+    Artifact createArtifact(String groupId, String artifactId, String version, String type);
+
+    /**
+     * @return the base directory of the local repository.
+     */
+    File getLocalRepository();
+
+    /**
+     * @return the artifact with its file in the local repository.
+     * @throws ArtifactResolverException if no repository has the artifact.
+     */
+    ArtifactResult resolveArtifact(Artifact artifact) throws ArtifactResolverException;
+}
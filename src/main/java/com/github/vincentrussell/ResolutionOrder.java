@@ -0,0 +1,20 @@
+package com.github.vincentrussell;
+
+/**
+ * Where a plugin that isn't in the local repository is looked for first.
+ */
+public enum ResolutionOrder {
+    /**
+     * Ask the maven repositories and fall back to the plugin server, unless the maven repositories
+     * recently didn't have the plugin.
+     */
+    REPOSITORY_FIRST,
+    /**
+     * Ask the plugin server and fall back to the maven repositories.
+     */
+    PLUGIN_SERVER_FIRST,
+    /**
+     * Ask both at the same time and use whichever delivers the hpi first.
+     */
+    RACE
+}
@@ -0,0 +1,245 @@
+package com.github.vincentrussell;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import org.apache.commons.io.FileUtils;
+import org.apache.commons.io.IOUtils;
+import org.apache.maven.artifact.versioning.ComparableVersion;
+import org.apache.http.HttpStatus;
+import org.apache.http.client.methods.CloseableHttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.util.EntityUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+/**
+ * In-memory index of plugin metadata read from an update-center.json or a plugin-versions.json
+ * file, so the dependencies of a plugin can be looked up without downloading its hpi.
+ */
+public class UpdateCenterIndex {
+
+    private final Map<String, Map<String, PluginMetadata>> plugins;
+
+    private UpdateCenterIndex(final Map<String, Map<String, PluginMetadata>> plugins) {
+        this.plugins = plugins;
+    }
+
+    /**
+     * Loads the index from a http(s) url or from a file on disk.
+     *
+     * @param throttle the limits the download shares with the downloads from the plugin server.
+     */
+    public static UpdateCenterIndex load(final String location, final CloseableHttpClient httpClient,
+                                         final DownloadThrottle throttle) throws IOException {
+        if (location.startsWith("http://") || location.startsWith("https://")) {
+            HttpGet httpGet = new HttpGet(location);
+            try (DownloadThrottle.Permit permit = throttle.acquire(location, null);
+                 CloseableHttpResponse response = httpClient.execute(httpGet)) {
+                if (HttpStatus.SC_OK != response.getStatusLine().getStatusCode()) {
+                    EntityUtils.consumeQuietly(response.getEntity());
+                    throw new IOException("could not download update center metadata from " + location);
+                }
+                return parse(IOUtils.toString(throttle.limit(response.getEntity().getContent(), null),
+                        StandardCharsets.UTF_8));
+            }
+        }
+        return parse(FileUtils.readFileToString(new File(location), StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Parses update center metadata. The jsonp wrapper used by update-center.json
+     * (updateCenter.post(...);) is stripped if it is present.
+     */
+    public static UpdateCenterIndex parse(final String text) throws IOException {
+        int start = text.indexOf('{');
+        int end = text.lastIndexOf('}');
+        if (start < 0 || end < start) {
+            throw new IOException("update center metadata does not contain a json object");
+        }
+
+        JsonObject root;
+        try {
+            root = JsonParser.parseString(text.substring(start, end + 1)).getAsJsonObject();
+        } catch (RuntimeException e) {
+            throw new IOException("could not parse update center metadata: " + e.getMessage(), e);
+        }
+
+        Map<String, Map<String, PluginMetadata>> plugins = new HashMap<>();
+        JsonObject pluginsObject = root.getAsJsonObject("plugins");
+        if (pluginsObject == null) {
+            return new UpdateCenterIndex(plugins);
+        }
+
+        for (Entry<String, JsonElement> pluginEntry : pluginsObject.entrySet()) {
+            if (!pluginEntry.getValue().isJsonObject()) {
+                continue;
+            }
+            JsonObject plugin = pluginEntry.getValue().getAsJsonObject();
+            Map<String, PluginMetadata> versions = new HashMap<>();
+            if (plugin.has("version") && plugin.get("version").isJsonPrimitive()) {
+                // update-center.json: one entry per plugin
+                PluginMetadata metadata = toPluginMetadata(pluginEntry.getKey(), plugin);
+                versions.put(metadata.getVersion(), metadata);
+            } else {
+                // plugin-versions.json: one entry per version of the plugin
+                for (Entry<String, JsonElement> versionEntry : plugin.entrySet()) {
+                    if (versionEntry.getValue().isJsonObject()) {
+                        PluginMetadata metadata = toPluginMetadata(pluginEntry.getKey(),
+                                versionEntry.getValue().getAsJsonObject());
+                        versions.put(metadata.getVersion(), metadata);
+                    }
+                }
+            }
+            plugins.put(pluginEntry.getKey(), versions);
+        }
+        return new UpdateCenterIndex(plugins);
+    }
+
+    private static PluginMetadata toPluginMetadata(final String name, final JsonObject plugin) {
+        String groupId = PluginDependency.DEFAULT_GROUP_ID;
+        String gav = getString(plugin, "gav");
+        if (gav != null && gav.split(":").length == 3) {
+            groupId = gav.split(":")[0];
+        }
+
+        List<PluginDependency> dependencies = new ArrayList<>();
+        if (plugin.has("dependencies") && plugin.get("dependencies").isJsonArray()) {
+            JsonArray dependencyArray = plugin.getAsJsonArray("dependencies");
+            for (JsonElement element : dependencyArray) {
+                JsonObject dependency = element.getAsJsonObject();
+                boolean optional = dependency.has("optional") && dependency.get("optional").getAsBoolean();
+                dependencies.add(new PluginDependency(null, getString(dependency, "name"),
+                        getString(dependency, "version"), optional));
+            }
+        }
+
+        String version = getString(plugin, "version");
+        return new PluginMetadata(groupId, name, version, getString(plugin, "url"),
+                getString(plugin, "sha1"), getString(plugin, "sha256"), dependencies);
+    }
+
+    private static String getString(final JsonObject jsonObject, final String name) {
+        JsonElement element = jsonObject.get(name);
+        if (element == null || element.isJsonNull()) {
+            return null;
+        }
+        return element.getAsString();
+    }
+
+    /**
+     * @return the metadata for exactly this version of the plugin or null if the index doesn't know it.
+     */
+    public PluginMetadata getPlugin(final String artifactId, final String version) {
+        Map<String, PluginMetadata> versions = plugins.get(artifactId);
+        if (versions == null) {
+            return null;
+        }
+        return versions.get(version);
+    }
+
+    /**
+     * @return the dependencies of exactly this version of the plugin or null if the index doesn't
+     * know it.  Dependencies are returned with the groupId the index has for them.
+     */
+    public List<PluginDependency> getDependencies(final String artifactId, final String version) {
+        PluginMetadata metadata = getPlugin(artifactId, version);
+        if (metadata == null) {
+            return null;
+        }
+        List<PluginDependency> result = new ArrayList<>();
+        for (PluginDependency dependency : metadata.getDependencies()) {
+            String groupId = getGroupId(dependency.getArtifactId(), dependency.getVersion());
+            result.add(new PluginDependency(groupId != null ? groupId : PluginDependency.DEFAULT_GROUP_ID,
+                    dependency.getArtifactId(), dependency.getVersion(), dependency.isOptional()));
+        }
+        return result;
+    }
+
+    /**
+     * @return the groupId of this version of the plugin or, if the index doesn't know the version, of
+     * its newest version; null if the index doesn't know the plugin at all.
+     */
+    public String getGroupId(final String artifactId, final String version) {
+        Map<String, PluginMetadata> versions = plugins.get(artifactId);
+        if (versions == null || versions.isEmpty()) {
+            return null;
+        }
+        PluginMetadata metadata = versions.get(version);
+        if (metadata != null) {
+            return metadata.getGroupId();
+        }
+        PluginMetadata newest = null;
+        for (PluginMetadata candidate : versions.values()) {
+            if (newest == null || new ComparableVersion(candidate.getVersion())
+                    .compareTo(new ComparableVersion(newest.getVersion())) > 0) {
+                newest = candidate;
+            }
+        }
+        return newest.getGroupId();
+    }
+
+    public int size() {
+        return plugins.size();
+    }
+
+    public static class PluginMetadata {
+        private final String groupId;
+        private final String artifactId;
+        private final String version;
+        private final String url;
+        private final String sha1;
+        private final String sha256;
+        private final List<PluginDependency> dependencies;
+
+        public PluginMetadata(final String groupId, final String artifactId, final String version,
+                              final String url, final String sha1, final String sha256,
+                              final List<PluginDependency> dependencies) {
+            this.groupId = groupId;
+            this.artifactId = artifactId;
+            this.version = version;
+            this.url = url;
+            this.sha1 = sha1;
+            this.sha256 = sha256;
+            this.dependencies = Collections.unmodifiableList(dependencies);
+        }
+
+        public String getGroupId() {
+            return groupId;
+        }
+
+        public String getArtifactId() {
+            return artifactId;
+        }
+
+        public String getVersion() {
+            return version;
+        }
+
+        public String getUrl() {
+            return url;
+        }
+
+        public String getSha1() {
+            return sha1;
+        }
+
+        public String getSha256() {
+            return sha256;
+        }
+
+        public List<PluginDependency> getDependencies() {
+            return dependencies;
+        }
+    }
+}
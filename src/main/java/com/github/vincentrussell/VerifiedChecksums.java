@@ -0,0 +1,59 @@
+package com.github.vincentrussell;
+
+import java.io.File;
+import java.util.Locale;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * The SHA-256s of files whose content was already digested, while they were downloaded or when they
+ * were checked against the lockfile, so that saving them doesn't read them again.  A checksum only
+ * counts as long as the file has the length and modification time it had when it was recorded.
+ */
+public class VerifiedChecksums {
+
+    private final ConcurrentMap<File, Entry> entries = new ConcurrentHashMap<>();
+
+    /**
+     * @param sha256 the hex SHA-256 of the content of file.
+     */
+    public void put(final File file, final String sha256) {
+        if (sha256 != null && file.isFile()) {
+            entries.put(file.getAbsoluteFile(), new Entry(sha256.toLowerCase(Locale.ENGLISH), file));
+        }
+    }
+
+    /**
+     * @return the hex SHA-256 of file or null if it isn't known or the file changed since.
+     */
+    public String get(final File file) {
+        if (file == null) {
+            return null;
+        }
+        Entry entry = entries.get(file.getAbsoluteFile());
+        return entry != null && entry.length == file.length() && entry.lastModified == file.lastModified()
+                ? entry.sha256 : null;
+    }
+
+    /**
+     * Carries the checksum of from over to to, after from was renamed to to.
+     */
+    public void move(final File from, final File to) {
+        Entry entry = entries.remove(from.getAbsoluteFile());
+        if (entry != null) {
+            put(to, entry.sha256);
+        }
+    }
+
+    private static class Entry {
+        private final String sha256;
+        private final long length;
+        private final long lastModified;
+
+        Entry(final String sha256, final File file) {
+            this.sha256 = sha256;
+            this.length = file.length();
+            this.lastModified = file.lastModified();
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package com.github.vincentrussell;
+
+/**
+ * How to choose between several versions of the same plugin that are required by different
+ * plugins in the dependency graph.
+ */
+public enum VersionMediation {
+    /**
+     * Every plugin is downloaded once at the highest version that anything in the graph requires.
+     */
+    HIGHEST,
+    /**
+     * Every required version of every plugin is downloaded.
+     */
+    NONE
+}
@@ -0,0 +1,234 @@
+package com.github.vincentrussell;
+
+import com.github.vincentrussell.DependencyGraph.Node;
+import org.apache.maven.artifact.versioning.ComparableVersion;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Chooses which plugin versions of a {@link DependencyGraph} should be downloaded.
+ */
+public class VersionMediator {
+
+    private static final int MAX_ITERATIONS = 100;
+
+    private final VersionMediation versionMediation;
+    private final OptionalDependencies optionalDependencies;
+
+    public VersionMediator(final VersionMediation versionMediation) {
+        this(versionMediation, OptionalDependencies.INCLUDE);
+    }
+
+    public VersionMediator(final VersionMediation versionMediation, final OptionalDependencies optionalDependencies) {
+        this.versionMediation = versionMediation;
+        this.optionalDependencies = optionalDependencies;
+    }
+
+    /**
+     * @return true if the dependency is left out of the graph altogether.
+     */
+    public boolean isExcluded(final PluginDependency dependency) {
+        return dependency.isOptional() && optionalDependencies == OptionalDependencies.EXCLUDE;
+    }
+
+    /**
+     * @return true if the dependency is only expanded once a selection reaches it, which for an optional
+     * dependency with {@link OptionalDependencies#INCLUDE_IF_REQUIRED} means it is required elsewhere.
+     */
+    public boolean isDeferred(final PluginDependency dependency) {
+        return dependency.isOptional() && optionalDependencies == OptionalDependencies.INCLUDE_IF_REQUIRED;
+    }
+
+    /**
+     * Walks the graph from the roots.  With {@link VersionMediation#HIGHEST} every plugin is replaced by
+     * the highest version required by anything that is still reachable; this is repeated until the
+     * choice no longer changes, so versions only required by a replaced plugin don't count.
+     */
+    public Selection select(final DependencyGraph graph, final List<Node> roots) {
+        Map<String, Node> chosen = new HashMap<>();
+        Walk walk = walk(graph, roots, chosen);
+        if (versionMediation == VersionMediation.NONE) {
+            return new Selection(walk.visited, walk.unexpanded, new HashMap<String, Node>());
+        }
+
+        for (int i = 0; i < MAX_ITERATIONS; i++) {
+            Map<String, Node> highest = new HashMap<>();
+            for (Map.Entry<String, Set<Node>> entry : walk.requested.entrySet()) {
+                highest.put(entry.getKey(), getHighest(entry.getValue()));
+            }
+            if (highest.equals(chosen)) {
+                break;
+            }
+            chosen = highest;
+            walk = walk(graph, roots, chosen);
+        }
+
+        Map<String, Node> replaced = new HashMap<>();
+        for (Map.Entry<String, Set<Node>> entry : walk.requested.entrySet()) {
+            Node winner = chosen.get(entry.getKey());
+            for (Node node : entry.getValue()) {
+                if (node != winner) {
+                    replaced.put(node.getKey(), winner);
+                }
+            }
+        }
+        return new Selection(walk.visited, walk.unexpanded, replaced);
+    }
+
+    /**
+     * With {@link OptionalDependencies#INCLUDE_IF_REQUIRED} the walk is repeated until the plugins that are
+     * required, and so the optional edges worth following, no longer change.
+     */
+    private Walk walk(final DependencyGraph graph, final List<Node> roots, final Map<String, Node> chosen) {
+        if (optionalDependencies != OptionalDependencies.INCLUDE_IF_REQUIRED) {
+            return walk(graph, roots, chosen, null);
+        }
+        Set<String> required = Collections.emptySet();
+        Walk walk = walk(graph, roots, chosen, required);
+        for (int i = 0; i < MAX_ITERATIONS && !walk.required.equals(required); i++) {
+            required = walk.required;
+            walk = walk(graph, roots, chosen, required);
+        }
+        return walk;
+    }
+
+    /**
+     * @param required the plugins, by groupId:artifactId, optional edges may lead to; null to follow the
+     * optional edges according to the policy alone.
+     */
+    private Walk walk(final DependencyGraph graph, final List<Node> roots, final Map<String, Node> chosen,
+                      final Set<String> required) {
+        Walk walk = new Walk();
+        Deque<Node> queue = new ArrayDeque<>();
+        for (Node root : roots) {
+            walk.request(root);
+            walk.required.add(root.getVersionlessKey());
+            queue.add(choose(root, chosen));
+        }
+
+        while (!queue.isEmpty()) {
+            Node node = queue.poll();
+            if (!walk.visited.add(node)) {
+                continue;
+            }
+            List<PluginDependency> dependencies = node.getDependencies();
+            if (dependencies == null) {
+                walk.unexpanded.add(node);
+                continue;
+            }
+            for (PluginDependency dependency : dependencies) {
+                String versionlessKey = DependencyGraph.getVersionlessKey(dependency.getGroupId(),
+                        dependency.getArtifactId());
+                if (dependency.isOptional() && (optionalDependencies == OptionalDependencies.EXCLUDE
+                        || (required != null && !required.contains(versionlessKey)))) {
+                    continue;
+                }
+                if (!dependency.isOptional()) {
+                    walk.required.add(versionlessKey);
+                }
+                Node dependencyNode = graph.get(dependency);
+                if (dependencyNode != null) {
+                    walk.request(dependencyNode);
+                    queue.add(choose(dependencyNode, chosen));
+                }
+            }
+        }
+        return walk;
+    }
+
+    private Node choose(final Node requested, final Map<String, Node> chosen) {
+        Node node = chosen.get(requested.getVersionlessKey());
+        return node != null ? node : requested;
+    }
+
+    private Node getHighest(final Collection<Node> nodes) {
+        Node highest = null;
+        ComparableVersion highestVersion = null;
+        for (Node node : nodes) {
+            ComparableVersion version = new ComparableVersion(node.getArtifact().getVersion());
+            if (highest == null || version.compareTo(highestVersion) > 0) {
+                highest = node;
+                highestVersion = version;
+            }
+        }
+        return highest;
+    }
+
+    /**
+     * @return true if the graph already has a higher version of the plugin than node, in which
+     * case expanding node can be put off because it will probably be replaced.
+     */
+    public boolean isSuperseded(final DependencyGraph graph, final Node node) {
+        if (versionMediation == VersionMediation.NONE) {
+            return false;
+        }
+        ComparableVersion version = new ComparableVersion(node.getArtifact().getVersion());
+        for (Node other : graph.getVersions(node.getArtifact().getGroupId(), node.getArtifact().getArtifactId())) {
+            if (new ComparableVersion(other.getArtifact().getVersion()).compareTo(version) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static class Walk {
+        private final Set<Node> visited = new LinkedHashSet<>();
+        private final List<Node> unexpanded = new ArrayList<>();
+        private final Map<String, Set<Node>> requested = new LinkedHashMap<>();
+        private final Set<String> required = new LinkedHashSet<>();
+
+        private void request(final Node node) {
+            Set<Node> nodes = requested.get(node.getVersionlessKey());
+            if (nodes == null) {
+                nodes = new LinkedHashSet<>();
+                requested.put(node.getVersionlessKey(), nodes);
+            }
+            nodes.add(node);
+        }
+    }
+
+    public static class Selection {
+        private final Collection<Node> selected;
+        private final List<Node> unexpanded;
+        private final Map<String, Node> replaced;
+
+        Selection(final Collection<Node> selected, final List<Node> unexpanded, final Map<String, Node> replaced) {
+            this.selected = selected;
+            this.unexpanded = unexpanded;
+            this.replaced = replaced;
+        }
+
+        /**
+         * @return the plugin versions that should be downloaded.
+         */
+        public Collection<Node> getSelected() {
+            return selected;
+        }
+
+        /**
+         * @return selected plugin versions whose dependencies are still unknown; they have to be expanded
+         * and the selection repeated.
+         */
+        public List<Node> getUnexpanded() {
+            return unexpanded;
+        }
+
+        /**
+         * @return the plugin versions that were replaced, keyed by groupId:artifactId:version, and what
+         * replaced them.
+         */
+        public Map<String, Node> getReplaced() {
+            return replaced;
+        }
+    }
+}
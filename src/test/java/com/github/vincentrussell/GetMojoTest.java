@@ -1,7 +1,11 @@
 package com.github.vincentrussell;
 
 import com.google.common.collect.Lists;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
 import me.alexpanov.net.FreePortFinder;
+import org.apache.commons.codec.binary.Hex;
 import org.apache.commons.io.FileUtils;
 import org.apache.commons.io.IOUtils;
 import org.apache.maven.artifact.metadata.ArtifactMetadata;
@@ -15,6 +19,7 @@ import org.apache.maven.execution.DefaultMavenExecutionRequest;
 import org.apache.maven.execution.MavenExecutionRequest;
 import org.apache.maven.execution.MavenSession;
 import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.testing.AbstractMojoTestCase;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.ProjectBuilder;
@@ -47,13 +52,26 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryMXBean;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.List;
 import java.util.Random;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.jar.JarEntry;
 import java.util.jar.JarOutputStream;
+import java.util.zip.ZipFile;
 
 public class GetMojoTest extends AbstractMojoTestCase {
 
@@ -61,6 +79,7 @@ public class GetMojoTest extends AbstractMojoTestCase {
     public static final String NEXUS_URL_REPOSITORY_THIRDPARTY = "/repository/thirdparty/";
     private int httpPort = FreePortFinder.findFreeLocalPort();
     private Server jettyServer;
+    private NexusServlet nexusServlet;
 
     @Rule
     TemporaryFolder temporaryFolder = new TemporaryFolder();
@@ -87,7 +106,7 @@ public class GetMojoTest extends AbstractMojoTestCase {
         jettyServer = new Server();
         ServerConnector httpConnector = new ServerConnector(jettyServer);
         ServletHandler servletHandler = new ServletHandler();
-        NexusServlet nexusServlet = new NexusServlet(jettyNexusBaseDir);
+        nexusServlet = new NexusServlet(jettyNexusBaseDir);
         ServletHolder servletHolder = new ServletHolder(nexusServlet);
         servletHandler.addServletWithMapping(servletHolder, NEXUS_URL_REPOSITORY_THIRDPARTY + "*");
         servletHandler.addServletWithMapping(servletHolder, "/"+ PLUGIN_SERVER_DIR + "/*");
@@ -114,105 +133,1470 @@ public class GetMojoTest extends AbstractMojoTestCase {
         File downloadDir = temporaryFolder.newFolder();
 
         String config = " <artifact>com.github.vincentrussell:jenkins-plugin1:1.1:hpi</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<versionMediation>NONE</versionMediation>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createMavenFiles(jettyNexusBaseDir, "com.github.vincentrussell", "jenkins-plugin1", "1.1", "com.github.vincentrussell:jenkins-plugin1:1.2,com.github.vincentrussell:jenkins-plugin1:1.3");
+        createMavenFiles(jettyNexusBaseDir, "com.github.vincentrussell", "jenkins-plugin1", "1.2", "com.github.vincentrussell:jenkins-plugin1:1.1");
+        createMavenFiles(jettyNexusBaseDir, "com.github.vincentrussell", "jenkins-plugin1", "1.3", "com.github.vincentrussell:jenkins-plugin1:1.1");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        assertTrue(downloadDir.listFiles().length == 0);
+
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "com/github/vincentrussell/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "com/github/vincentrussell/jenkins-plugin1/1.2/jenkins-plugin1-1.2.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "com/github/vincentrussell/jenkins-plugin1/1.3/jenkins-plugin1-1.3.hpi").toFile().exists());
+    }
+
+    @Test
+    public void testDownloadArtifactWithAdditionalPluginParameters() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>com.github.vincentrussell:jenkins-plugin1:1.1:hpi</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<versionMediation>NONE</versionMediation>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createMavenFiles(jettyNexusBaseDir, "com.github.vincentrussell", "jenkins-plugin1", "1.1", "com.github.vincentrussell:jenkins-plugin1:1.2;resolution:=optional,com.github.vincentrussell:jenkins-plugin1:1.3;resolution:=optional");
+        createMavenFiles(jettyNexusBaseDir, "com.github.vincentrussell", "jenkins-plugin1", "1.2", "com.github.vincentrussell:jenkins-plugin1:1.1");
+        createMavenFiles(jettyNexusBaseDir, "com.github.vincentrussell", "jenkins-plugin1", "1.3", "com.github.vincentrussell:jenkins-plugin1:1.1");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        assertTrue(downloadDir.listFiles().length == 0);
+
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "com/github/vincentrussell/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "com/github/vincentrussell/jenkins-plugin1/1.2/jenkins-plugin1-1.2.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "com/github/vincentrussell/jenkins-plugin1/1.3/jenkins-plugin1-1.3.hpi").toFile().exists());
+    }
+
+
+    @Test
+    public void testDownloadArtifactWithoutSpecifyingGroupId() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.1</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<versionMediation>NONE</versionMediation>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.1", "jenkins-plugin1:1.2,jenkins-plugin1:1.3");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.2", "jenkins-plugin1:1.1");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.3", "jenkins-plugin1:1.1");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        assertTrue(downloadDir.listFiles().length == 0);
+
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.2/jenkins-plugin1-1.2.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.3/jenkins-plugin1-1.3.hpi").toFile().exists());
+    }
+
+    @Test
+    public void testDownloadFromPluginServer() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.1</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<versionMediation>NONE</versionMediation>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.1", "jenkins-plugin1:1.2,jenkins-plugin1:1.3");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.2", "jenkins-plugin1:1.1");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.3", "jenkins-plugin1:1.1");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        assertTrue(downloadDir.listFiles().length == 0);
+
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.2/jenkins-plugin1-1.2.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.3/jenkins-plugin1-1.3.hpi").toFile().exists());
+    }
+
+    @Test
+    public void testDownloadFromPluginServerWithPooledConnections() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.1</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<threads>2</threads>\n" +
+                "<maxConnectionsPerRoute>1</maxConnectionsPerRoute>\n" +
+                "<connectTimeout>5000</connectTimeout>\n" +
+                "<readTimeout>5000</readTimeout>\n" +
+                "<versionMediation>NONE</versionMediation>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.1", "jenkins-plugin1:1.2,jenkins-plugin1:1.3");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.2", "jenkins-plugin1:1.1");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.3", "jenkins-plugin1:1.1");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.2/jenkins-plugin1-1.2.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.3/jenkins-plugin1-1.3.hpi").toFile().exists());
+    }
+
+    @Test
+    public void testDownloadArtifactWithMultipleThreads() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.1</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<threads>4</threads>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.1", "jenkins-plugin2:1.0,jenkins-plugin3:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "jenkins-plugin4:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin3", "1.0", "jenkins-plugin4:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin4", "1.0", "jenkins-plugin1:1.1");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        assertTrue(downloadDir.listFiles().length == 0);
+
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin3/1.0/jenkins-plugin3-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin4/1.0/jenkins-plugin4-1.0.hpi").toFile().exists());
+    }
+
+    @Test
+    public void testDownloadArtifactWithUpdateCenterIndex() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File updateCenterIndex = temporaryFolder.newFile("update-center.json");
+        FileUtils.write(updateCenterIndex, "updateCenter.post(\n" +
+                "{\"plugins\":{\"jenkins-plugin1\":{\"name\":\"jenkins-plugin1\",\"version\":\"1.1\"," +
+                "\"dependencies\":[{\"name\":\"jenkins-plugin2\",\"optional\":false,\"version\":\"1.0\"}]}}}\n" +
+                ");", "UTF-8");
+
+        String config = " <artifact>jenkins-plugin1:1.1</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<updateCenterIndex>" + updateCenterIndex.getAbsolutePath() + "</updateCenterIndex>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        //the manifest of jenkins-plugin1 doesn't list jenkins-plugin2 so it can only be found through the index
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.1", "");
+        //jenkins-plugin2 isn't in the index so its manifest is used
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "jenkins-plugin3:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin3", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin3/1.0/jenkins-plugin3-1.0.hpi").toFile().exists());
+    }
+
+    @Test
+    public void testUpdateCenterIndexGroupIdIsUsedForManifestDependencies() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File updateCenterIndex = temporaryFolder.newFile("update-center.json");
+        FileUtils.write(updateCenterIndex, "updateCenter.post(\n" +
+                "{\"plugins\":{\"jenkins-plugin1\":{\"name\":\"jenkins-plugin1\",\"version\":\"1.1\"," +
+                "\"gav\":\"org.jenkins-ci.plugins:jenkins-plugin1:1.1\"," +
+                "\"dependencies\":[{\"name\":\"jenkins-plugin3\",\"optional\":false,\"version\":\"1.0\"}]}," +
+                "\"jenkins-plugin3\":{\"name\":\"jenkins-plugin3\",\"version\":\"1.0\"," +
+                "\"gav\":\"org.jenkins-ci.plugins.workflow:jenkins-plugin3:1.0\",\"dependencies\":[]}}}\n" +
+                ");", "UTF-8");
+
+        String config = "<plugins>\n" +
+                "<plugin>jenkins-plugin1:1.1</plugin>\n" +
+                "<plugin>jenkins-plugin2:1.0</plugin>\n" +
+                "</plugins>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<updateCenterIndex>" + updateCenterIndex.getAbsolutePath() + "</updateCenterIndex>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.1", "");
+        //jenkins-plugin2 isn't in the index and its manifest names jenkins-plugin3 without a groupId
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "jenkins-plugin3:1.1");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins.workflow", "jenkins-plugin3", "1.0", "");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins.workflow", "jenkins-plugin3", "1.1", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        //both are the same plugin, so only the higher version is downloaded
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/workflow/jenkins-plugin3/1.1/jenkins-plugin3-1.1.hpi").toFile().exists());
+        assertFalse(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/workflow/jenkins-plugin3/1.0").toFile().exists());
+        assertFalse(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin3").toFile().exists());
+    }
+
+    @Test
+    public void testDownloadFromPluginServerWithManifestProbe() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.1</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<manifestProbe>true</manifestProbe>\n" +
+                "<versionMediation>NONE</versionMediation>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.1", "jenkins-plugin1:1.2,jenkins-plugin1:1.3;resolution:=optional");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.2", "jenkins-plugin1:1.1");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.3", "jenkins-plugin1:1.1");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        assertTrue(nexusServlet.rangeRequests.get() > 0);
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.2/jenkins-plugin1-1.2.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.3/jenkins-plugin1-1.3.hpi").toFile().exists());
+    }
+
+    @Test
+    public void testManifestProbeFallsBackOnBogusManifestSize() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.1</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<manifestProbe>true</manifestProbe>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.1", "jenkins-plugin2:1.0");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+        //the central directory claims a manifest of almost 4GB
+        File hpi = Paths.get(jettyNexusBaseDir.getAbsolutePath(), PLUGIN_SERVER_DIR, "jenkins-plugin1", "1.1", "jenkins-plugin1.hpi").toFile();
+        byte[] bytes = FileUtils.readFileToByteArray(hpi);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+        byte[] manifestName = "META-INF/MANIFEST.MF".getBytes(StandardCharsets.UTF_8);
+        for (int i = 0; i + 46 + manifestName.length <= bytes.length; i++) {
+            if (buffer.getInt(i) == 0x02014b50
+                    && Arrays.equals(manifestName, Arrays.copyOfRange(bytes, i + 46, i + 46 + manifestName.length))) {
+                buffer.putInt(i + 24, 0xFFFFFFF0);
+            }
+        }
+        FileUtils.writeByteArrayToFile(hpi, bytes);
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+    }
+
+    @Test
+    public void testDownloadFromPluginServerWithManifestProbeWithoutRangeSupport() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        nexusServlet.supportRanges = false;
+
+        String config = " <artifact>jenkins-plugin1:1.1</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<manifestProbe>true</manifestProbe>\n" +
+                "<versionMediation>NONE</versionMediation>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.1", "jenkins-plugin1:1.2,jenkins-plugin1:1.3");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.2", "jenkins-plugin1:1.1");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.3", "jenkins-plugin1:1.1");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        assertEquals(0, nexusServlet.rangeRequests.get());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.2/jenkins-plugin1-1.2.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.3/jenkins-plugin1-1.3.hpi").toFile().exists());
+    }
+
+    @Test
+    public void testDownloadArtifactWithHighestVersionMediation() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
                 "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>";
 
         String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
         MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
         MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
-        createMavenFiles(jettyNexusBaseDir, "com.github.vincentrussell", "jenkins-plugin1", "1.1", "com.github.vincentrussell:jenkins-plugin1:1.2,com.github.vincentrussell:jenkins-plugin1:1.3");
-        createMavenFiles(jettyNexusBaseDir, "com.github.vincentrussell", "jenkins-plugin1", "1.2", "com.github.vincentrussell:jenkins-plugin1:1.1");
-        createMavenFiles(jettyNexusBaseDir, "com.github.vincentrussell", "jenkins-plugin1", "1.3", "com.github.vincentrussell:jenkins-plugin1:1.1");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0,jenkins-plugin3:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "jenkins-plugin4:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin3", "1.0", "jenkins-plugin4:2.0");
+        //only jenkins-plugin4:1.0 needs jenkins-plugin5
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin4", "1.0", "jenkins-plugin5:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin4", "2.0", "");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin5", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin3/1.0/jenkins-plugin3-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin4/2.0/jenkins-plugin4-2.0.hpi").toFile().exists());
+        assertFalse(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin4/1.0").toFile().exists());
+        assertFalse(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin5").toFile().exists());
+    }
+
+    @Test
+    public void testDownloadPluginListAndPluginsFile() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File pluginsFile = temporaryFolder.newFile("plugins.txt");
+        FileUtils.write(pluginsFile, "# plugins for the controller image\n" +
+                "jenkins-plugin3:1.0\n" +
+                "\n" +
+                "org.jenkins-ci.plugins:jenkins-plugin4:1.0 # pinned\n", "UTF-8");
+
+        String config = "<plugins>\n" +
+                "<plugin>jenkins-plugin1:1.0</plugin>\n" +
+                "<plugin>jenkins-plugin2:1.0</plugin>\n" +
+                "</plugins>\n" +
+                "<pluginsFile>" + pluginsFile.getAbsolutePath() + "</pluginsFile>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin5:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "jenkins-plugin5:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin3", "1.0", "");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin4", "1.0", "jenkins-plugin5:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin5", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        for (int i = 1; i <= 5; i++) {
+            assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin" + i
+                    + "/1.0/jenkins-plugin" + i + "-1.0.hpi").toFile().exists());
+        }
+    }
+
+    @Test
+    public void testDownloadArtifactWithHardlinkOutputStrategy() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<outputStrategy>HARDLINK</outputStrategy>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        File downloaded = Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile();
+        File inLocalRepository = Paths.get(localBaseDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile();
+        assertTrue(downloaded.exists());
+        assertTrue(Files.isSameFile(downloaded.toPath(), inLocalRepository.toPath()));
+    }
+
+    @Test
+    public void testDownloadArtifactWithSkipIfIdenticalOutputStrategy() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<outputStrategy>SKIP_IF_IDENTICAL</outputStrategy>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        File downloaded = Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile();
+        assertTrue(downloaded.setLastModified(1000L));
+
+        getMojo.execute();
+
+        assertEquals(1000L, downloaded.lastModified());
+    }
+
+    @Test
+    public void testDownloadArtifactsIntoPluginStoreAndCollectGarbage() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File otherDownloadDir = temporaryFolder.newFolder();
+        File pluginStore = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<pluginStore>" + pluginStore.getAbsolutePath() + "</pluginStore>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        File pom = new TestProjectConfig(temporaryFolder).getFile(config, url);
+        MavenProject mavenProject = readMavenProject(pom.getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+        getMojo.execute();
+        setVariableValueToObject(getMojo, "downloadDir", otherDownloadDir);
+        getMojo.execute();
+
+        PluginStore store = new PluginStore(pluginStore);
+        assertEquals(2, store.getBlobs().size());
+        for (int i = 1; i <= 2; i++) {
+            String path = "org/jenkins-ci/plugins/jenkins-plugin" + i + "/1.0/jenkins-plugin" + i + "-1.0.hpi";
+            File downloaded = Paths.get(downloadDir.getAbsolutePath(), path).toFile();
+            File inLocalRepository = Paths.get(localBaseDir.getAbsolutePath(), path).toFile();
+            assertTrue(Files.isSameFile(downloaded.toPath(), Paths.get(otherDownloadDir.getAbsolutePath(), path)));
+            assertTrue(Files.isSameFile(downloaded.toPath(), store.getBlob(Hex.encodeHexString(
+                    Checksums.digest(inLocalRepository, Checksums.SHA_256))).toPath()));
+        }
+
+        //the configuration of the project is the one of the get goal
+        GcMojo gcMojo = (GcMojo) lookupEmptyMojo( "gc", pom );
+        setVariableValueToObject(gcMojo, "pluginStore", pluginStore);
+        gcMojo.execute();
+        assertEquals(2, store.getBlobs().size());
+
+        FileUtils.deleteDirectory(otherDownloadDir);
+        FileUtils.deleteQuietly(Paths.get(downloadDir.getAbsolutePath(),
+                "org/jenkins-ci/plugins/jenkins-plugin2").toFile());
+        gcMojo.execute();
+        assertEquals(1, store.getBlobs().size());
+        assertTrue(Files.isSameFile(store.getBlobs().get(0).toPath(), Paths.get(downloadDir.getAbsolutePath(),
+                "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi")));
+    }
+
+    @Test
+    public void testIncrementalDownloadOnlyTransfersChanges() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File reportFile = new File(temporaryFolder.getRoot(), "report.json");
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<reportFile>" + reportFile.getAbsolutePath() + "</reportFile>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0,jenkins-plugin3:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.1", "jenkins-plugin2:1.0,jenkins-plugin4:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin3", "1.0", "");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin4", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+        getMojo.execute();
+
+        File plugin2 = Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile();
+        assertTrue(plugin2.setLastModified(1000L));
+
+        setVariableValueToObject(getMojo, "artifact", "jenkins-plugin1:1.1");
+        setVariableValueToObject(getMojo, "incremental", true);
+        setVariableValueToObject(getMojo, "deleteStale", true);
+        getMojo.execute();
+
+        //the unchanged plugin wasn't copied again
+        assertEquals(1000L, plugin2.lastModified());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin4/1.0/jenkins-plugin4-1.0.hpi").toFile().exists());
+        assertFalse(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0").toFile().exists());
+        assertFalse(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin3").toFile().exists());
+
+        JsonObject diff = JsonParser.parseString(FileUtils.readFileToString(reportFile, "UTF-8")).getAsJsonObject()
+                .getAsJsonObject("incremental");
+        assertEquals("org.jenkins-ci.plugins:jenkins-plugin4:1.0", diff.getAsJsonArray("added").get(0).getAsString());
+        assertEquals("1.0 -> 1.1", diff.getAsJsonObject("changed").get("org.jenkins-ci.plugins:jenkins-plugin1").getAsString());
+        assertEquals(1, diff.get("unchanged").getAsInt());
+        assertEquals(2, diff.getAsJsonArray("stale").size());
+        assertTrue(diff.get("staleDeleted").getAsBoolean());
+    }
+
+    @Test
+    public void testDownloadFromPluginServerOnlyToDownloadDirectory() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<downloadTarget>DOWNLOAD_DIRECTORY</downloadTarget>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+        assertFalse(Paths.get(localBaseDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        assertFalse(Paths.get(localBaseDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+    }
+
+    @Test
+    public void testDownloadFromCommandLineWithoutMaven() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File localRepository = temporaryFolder.newFolder();
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+
+        int exitCode = JenkinsPluginGetterCli.run(new String[] {
+                "--downloadDir", downloadDir.getAbsolutePath(),
+                "--localRepository=" + localRepository.getAbsolutePath(),
+                "--repositories", "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY,
+                "--jenkinsPluginServerUrl", "http://localhost:" + httpPort + "/pluginServer/",
+                "--threads", "2",
+                "--verifyChecksums", "false",
+                "jenkins-plugin1:1.0"}, System.err);
+
+        assertEquals(JenkinsPluginGetterCli.SUCCESS, exitCode);
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(localRepository.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(localRepository.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+
+        assertEquals(JenkinsPluginGetterCli.USAGE, JenkinsPluginGetterCli.run(new String[] {
+                "--downloadDir", downloadDir.getAbsolutePath(), "--unknownOption", "1", "jenkins-plugin1:1.0"}, System.err));
+    }
+
+    @Test
+    public void testCommandLineVerifiesRepositoryChecksums() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File localRepository = temporaryFolder.newFolder();
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "");
+        File repositoryFile = new File(getBaseDirectoryForArtifact(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0"), "jenkins-plugin1-1.0.hpi");
+        FileUtils.write(new File(repositoryFile.getPath() + ".sha1"), Hex.encodeHexString(new byte[20]), "UTF-8");
+
+        String[] args = new String[] {
+                "--downloadDir", downloadDir.getAbsolutePath(),
+                "--localRepository=" + localRepository.getAbsolutePath(),
+                "--repositories", "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY,
+                "--jenkinsPluginServerUrl", "http://localhost:" + httpPort + "/pluginServer/",
+                "jenkins-plugin1:1.0"};
+        assertEquals(JenkinsPluginGetterCli.FAILURE, JenkinsPluginGetterCli.run(args, System.err));
+        assertFalse(Paths.get(localRepository.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+
+        //the .sha256 is preferred over the .sha1
+        FileUtils.write(new File(repositoryFile.getPath() + ".sha256"),
+                Hex.encodeHexString(Checksums.digest(repositoryFile, Checksums.SHA_256)) + "  jenkins-plugin1-1.0.hpi", "UTF-8");
+        assertEquals(JenkinsPluginGetterCli.SUCCESS, JenkinsPluginGetterCli.run(args, System.err));
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+    }
+
+    @Test
+    public void testDownloadArtifactWithPluginsOutputLayout() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<outputLayout>PLUGINS</outputLayout>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0,jenkins-plugin3:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "jenkins-plugin3:2.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin3", "1.0", "");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin3", "2.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        for (int i = 1; i <= 3; i++) {
+            assertTrue(new File(downloadDir, "jenkins-plugin" + i + ".jpi").isFile());
+            assertTrue(new File(downloadDir, "jenkins-plugin" + i + ".jpi.pinned").isFile());
+        }
+        assertTrue(FileUtils.contentEquals(new File(downloadDir, "jenkins-plugin3.jpi"), Paths.get(localBaseDir.getAbsolutePath(),
+                "org/jenkins-ci/plugins/jenkins-plugin3/2.0/jenkins-plugin3-2.0.hpi").toFile()));
+        assertFalse(new File(downloadDir, "org").exists());
+    }
+
+    @Test
+    public void testDownloadDirectoryTargetIsRejectedForBundleLayout() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File bundleFile = new File(temporaryFolder.newFolder(), "jenkins-plugins.zip");
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<downloadTarget>DOWNLOAD_DIRECTORY</downloadTarget>\n" +
+                "<outputLayout>ZIP</outputLayout>\n" +
+                "<bundleFile>" + bundleFile.getAbsolutePath() + "</bundleFile>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        try {
+            getMojo.execute();
+            fail("a bundle can't be downloaded into the download directory");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage().contains("downloadTarget"));
+        }
+        assertFalse(bundleFile.exists());
+    }
+
+    @Test
+    public void testDownloadFromPluginServerWithZipOutputLayout() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File bundleFile = new File(temporaryFolder.newFolder(), "jenkins-plugins.zip");
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<outputLayout>ZIP</outputLayout>\n" +
+                "<pinPlugins>false</pinPlugins>\n" +
+                "<bundleFile>" + bundleFile.getAbsolutePath() + "</bundleFile>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        assertTrue(bundleFile.isFile());
+        assertFalse(new File(bundleFile.getPath() + PluginServerDownloader.PART_SUFFIX).exists());
+        // the layout keeps the download directory itself empty, plugins only end up in the archive
+        assertEquals(0, downloadDir.list().length);
+        try (ZipFile zipFile = new ZipFile(bundleFile)) {
+            assertEquals(2, zipFile.size());
+            assertNotNull(zipFile.getEntry("plugins/jenkins-plugin1.jpi"));
+            assertNotNull(zipFile.getEntry("plugins/jenkins-plugin2.jpi"));
+            assertEquals(Paths.get(localBaseDir.getAbsolutePath(),
+                    "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().length(),
+                    zipFile.getEntry("plugins/jenkins-plugin2.jpi").getSize());
+        }
+    }
+
+    @Test
+    public void testResumePartialDownloadFromPluginServer() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "");
+        File serverFile = Paths.get(jettyNexusBaseDir.getAbsolutePath(), PLUGIN_SERVER_DIR, "jenkins-plugin1", "1.0", "jenkins-plugin1.hpi").toFile();
+        byte[] serverBytes = Files.readAllBytes(serverFile.toPath());
+
+        File localFile = Paths.get(localBaseDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile();
+        File partFile = new File(localFile.getPath() + PluginServerDownloader.PART_SUFFIX);
+        partFile.getParentFile().mkdirs();
+        Files.write(partFile.toPath(), Arrays.copyOf(serverBytes, serverBytes.length / 2));
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        assertTrue(nexusServlet.rangeRequests.get() > 0);
+        assertFalse(partFile.exists());
+        assertTrue(Arrays.equals(serverBytes, Files.readAllBytes(localFile.toPath())));
+        assertTrue(Arrays.equals(serverBytes, Files.readAllBytes(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi"))));
+    }
+
+    @Test
+    public void testDownloadFromPluginServerWithChecksumMismatch() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "");
+        File sidecar = Paths.get(jettyNexusBaseDir.getAbsolutePath(), PLUGIN_SERVER_DIR, "jenkins-plugin1", "1.0", "jenkins-plugin1.hpi.sha256").toFile();
+        FileUtils.write(sidecar, "0000000000000000000000000000000000000000000000000000000000000000  jenkins-plugin1.hpi", "UTF-8");
 
         MojoExecution execution = newMojoExecution( "get" );
         GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
 
-        assertTrue(downloadDir.listFiles().length == 0);
+        try {
+            getMojo.execute();
+            fail("the checksum mismatch should fail the build");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+
+        File localFile = Paths.get(localBaseDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile();
+        assertFalse(localFile.exists());
+        assertFalse(new File(localFile.getPath() + PluginServerDownloader.PART_SUFFIX).exists());
+        assertFalse(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+    }
+
+    @Test
+    public void testDownloadFromPluginServerWithMatchingChecksum() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "");
+        File serverFile = Paths.get(jettyNexusBaseDir.getAbsolutePath(), PLUGIN_SERVER_DIR, "jenkins-plugin1", "1.0", "jenkins-plugin1.hpi").toFile();
+        FileUtils.write(new File(serverFile.getPath() + ".sha256"),
+                Hex.encodeHexString(Checksums.digest(serverFile, Checksums.SHA_256)), "UTF-8");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
 
         getMojo.execute();
 
-        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "com/github/vincentrussell/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
-        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "com/github/vincentrussell/jenkins-plugin1/1.2/jenkins-plugin1-1.2.hpi").toFile().exists());
-        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "com/github/vincentrussell/jenkins-plugin1/1.3/jenkins-plugin1-1.3.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
     }
 
     @Test
-    public void testDownloadArtifactWithAdditionalPluginParameters() throws Exception {
+    public void testDownloadFromPluginServerMirrorsWithFailover() throws Exception {
         File downloadDir = temporaryFolder.newFolder();
+        int mirrorPort = FreePortFinder.findFreeLocalPort();
+        NexusServlet failingMirror = new NexusServlet(jettyNexusBaseDir);
+        failingMirror.errorStatus = HttpServletResponse.SC_SERVICE_UNAVAILABLE;
+        Server mirror = startMirror(failingMirror, mirrorPort);
+        try {
+            String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                    "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                    "<jenkinsPluginServerUrl>http://localhost:" + mirrorPort + "/pluginServer/," +
+                    "http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                    "<pluginServerRetryBackoff>10</pluginServerRetryBackoff>\n" +
+                    "<verifyChecksums>false</verifyChecksums>";
+
+            String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+            MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+            MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+            createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0");
+            createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+
+            MojoExecution execution = newMojoExecution( "get" );
+            GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+            getMojo.execute();
+
+            assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+            assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+            //once the mirror failed it is tried after the healthy one
+            assertEquals(1, failingMirror.requests.get());
+        } finally {
+            mirror.stop();
+        }
+    }
 
-        String config = " <artifact>com.github.vincentrussell:jenkins-plugin1:1.1:hpi</artifact>\n" +
-                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>";
+    @Test
+    public void testDownloadFromPluginServerMirrorsWithFailoverAndChecksum() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        //nothing listens on this port
+        int deadMirrorPort = FreePortFinder.findFreeLocalPort();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + deadMirrorPort + "/pluginServer/," +
+                "http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<pluginServerRetryBackoff>10</pluginServerRetryBackoff>";
 
         String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
         MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
         MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
-        createMavenFiles(jettyNexusBaseDir, "com.github.vincentrussell", "jenkins-plugin1", "1.1", "com.github.vincentrussell:jenkins-plugin1:1.2;resolution:=optional,com.github.vincentrussell:jenkins-plugin1:1.3;resolution:=optional");
-        createMavenFiles(jettyNexusBaseDir, "com.github.vincentrussell", "jenkins-plugin1", "1.2", "com.github.vincentrussell:jenkins-plugin1:1.1");
-        createMavenFiles(jettyNexusBaseDir, "com.github.vincentrussell", "jenkins-plugin1", "1.3", "com.github.vincentrussell:jenkins-plugin1:1.1");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "");
+        File serverFile = Paths.get(jettyNexusBaseDir.getAbsolutePath(), PLUGIN_SERVER_DIR, "jenkins-plugin1", "1.0", "jenkins-plugin1.hpi").toFile();
+        FileUtils.write(new File(serverFile.getPath() + ".sha256"),
+                Hex.encodeHexString(Checksums.digest(serverFile, Checksums.SHA_256)), "UTF-8");
 
         MojoExecution execution = newMojoExecution( "get" );
         GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
 
-        assertTrue(downloadDir.listFiles().length == 0);
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        //the checksum came from the mirror that had the file
+        assertTrue(nexusServlet.requestUris.contains("/" + PLUGIN_SERVER_DIR + "/jenkins-plugin1/1.0/jenkins-plugin1.hpi.sha256"));
+    }
+
+    @Test
+    public void testUnsatisfiableRangeWithoutRangeRequestFailsTheDownload() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        int mirrorPort = FreePortFinder.findFreeLocalPort();
+        NexusServlet brokenMirror = new NexusServlet(jettyNexusBaseDir);
+        brokenMirror.errorStatus = HttpServletResponse.SC_REQUESTED_RANGE_NOT_SATISFIABLE;
+        Server mirror = startMirror(brokenMirror, mirrorPort);
+        try {
+            String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                    "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                    "<jenkinsPluginServerUrl>http://localhost:" + mirrorPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                    "<pluginServerRetries>0</pluginServerRetries>";
+
+            String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+            MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+            MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+            createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "");
+
+            MojoExecution execution = newMojoExecution( "get" );
+            GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+            try {
+                getMojo.execute();
+                fail("a 416 to a request without a range should fail the build");
+            } catch (MojoExecutionException e) {
+                assertNotNull(e.getMessage());
+            }
+        } finally {
+            mirror.stop();
+        }
+    }
+
+    @Test
+    public void testDownloadFromPluginServerMirrorsWithHedgedRequest() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        int mirrorPort = FreePortFinder.findFreeLocalPort();
+        NexusServlet slowMirror = new NexusServlet(jettyNexusBaseDir);
+        slowMirror.responseDelay = 5000;
+        Server mirror = startMirror(slowMirror, mirrorPort);
+        try {
+            String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                    "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                    "<jenkinsPluginServerUrl>http://localhost:" + mirrorPort + "/pluginServer/," +
+                    "http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                    "<hedgeDelay>200</hedgeDelay>\n" +
+                    "<verifyChecksums>false</verifyChecksums>";
+
+            String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+            MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+            MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+            createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "");
+
+            MojoExecution execution = newMojoExecution( "get" );
+            GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+            long start = System.currentTimeMillis();
+            getMojo.execute();
+
+            assertTrue(System.currentTimeMillis() - start < slowMirror.responseDelay);
+            assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        } finally {
+            mirror.stop();
+        }
+    }
+
+    @Test
+    public void testHedgedDownloadIsVerifiedWithTheSidecarOfItsMirror() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File slowMirrorBaseDir = temporaryFolder.newFolder();
+        int mirrorPort = FreePortFinder.findFreeLocalPort();
+        NexusServlet slowMirror = new NexusServlet(slowMirrorBaseDir);
+        slowMirror.responseDelay = 5000;
+        slowMirror.delayedSuffix = ".hpi";
+        Server mirror = startMirror(slowMirror, mirrorPort);
+        try {
+            String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                    "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                    "<jenkinsPluginServerUrl>http://localhost:" + mirrorPort + "/pluginServer/," +
+                    "http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                    "<hedgeDelay>200</hedgeDelay>";
+
+            String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+            MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+            MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+            createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "");
+            File serverFile = Paths.get(jettyNexusBaseDir.getAbsolutePath(), PLUGIN_SERVER_DIR, "jenkins-plugin1", "1.0", "jenkins-plugin1.hpi").toFile();
+            FileUtils.write(new File(serverFile.getPath() + ".sha256"),
+                    Hex.encodeHexString(Checksums.digest(serverFile, Checksums.SHA_256)), "UTF-8");
+            //the slow mirror has another build of the hpi, its checksum doesn't fit the body of the fast one
+            FileUtils.write(Paths.get(slowMirrorBaseDir.getAbsolutePath(), PLUGIN_SERVER_DIR, "jenkins-plugin1", "1.0", "jenkins-plugin1.hpi.sha256").toFile(),
+                    Hex.encodeHexString(new byte[32]), "UTF-8");
+
+            MojoExecution execution = newMojoExecution( "get" );
+            GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+            getMojo.execute();
+
+            assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        } finally {
+            mirror.stop();
+        }
+    }
 
+    @Test
+    public void testRepositoryMissIsRememberedBetweenRuns() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File repositoryMissCacheFile = new File(temporaryFolder.getRoot(), "repository-misses.json");
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<repositoryMissCacheFile>" + repositoryMissCacheFile.getAbsolutePath() + "</repositoryMissCacheFile>\n" +
+                "<repositoryMissCacheTtl>1440</repositoryMissCacheTtl>\n" +
+                "<verifyChecksums>false</verifyChecksums>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
         getMojo.execute();
 
-        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "com/github/vincentrussell/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
-        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "com/github/vincentrussell/jenkins-plugin1/1.2/jenkins-plugin1-1.2.hpi").toFile().exists());
-        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "com/github/vincentrussell/jenkins-plugin1/1.3/jenkins-plugin1-1.3.hpi").toFile().exists());
+        assertTrue(repositoryMissCacheFile.exists());
+        assertTrue(countRepositoryRequests("jenkins-plugin1") > 0);
+
+        //the next run doesn't find the plugin in the local repository and goes straight to the plugin server
+        FileUtils.deleteDirectory(Paths.get(localBaseDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1").toFile());
+        nexusServlet.requestUris.clear();
+        getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+        getMojo.execute();
+
+        assertEquals(0, countRepositoryRequests("jenkins-plugin1"));
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
     }
 
+    @Test
+    public void testDownloadArtifactWithPluginServerFirst() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<resolutionOrder>PLUGIN_SERVER_FIRST</resolutionOrder>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        //jenkins-plugin2 is only in the maven repository
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+        getMojo.execute();
+
+        assertEquals(0, countRepositoryRequests("jenkins-plugin1"));
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+    }
 
     @Test
-    public void testDownloadArtifactWithoutSpecifyingGroupId() throws Exception {
+    public void testDownloadArtifactWithRace() throws Exception {
         File downloadDir = temporaryFolder.newFolder();
 
-        String config = " <artifact>jenkins-plugin1:1.1</artifact>\n" +
-                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>";
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<resolutionOrder>RACE</resolutionOrder>";
 
         String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
         MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
         MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
-        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.1", "jenkins-plugin1:1.2,jenkins-plugin1:1.3");
-        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.2", "jenkins-plugin1:1.1");
-        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.3", "jenkins-plugin1:1.1");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
 
         MojoExecution execution = newMojoExecution( "get" );
         GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+        getMojo.execute();
 
-        assertTrue(downloadDir.listFiles().length == 0);
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+        File localFile = Paths.get(localBaseDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile();
+        assertTrue(localFile.exists());
+        assertFalse(new File(localFile.getPath() + JenkinsPluginGetter.RACE_SUFFIX).exists());
+    }
+
+    @Test
+    public void testDownloadArtifactWithRaceIntoDownloadDirectory() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<resolutionOrder>RACE</resolutionOrder>\n" +
+                "<downloadTarget>DOWNLOAD_DIRECTORY</downloadTarget>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "");
 
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
         getMojo.execute();
 
-        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
-        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.2/jenkins-plugin1-1.2.hpi").toFile().exists());
-        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.3/jenkins-plugin1-1.3.hpi").toFile().exists());
+        File downloaded = Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile();
+        assertTrue(downloaded.exists());
+        assertFalse(new File(downloaded.getPath() + JenkinsPluginGetter.RACE_SUFFIX).exists());
+        //nothing of the plugin server download is left in the local repository
+        File localFile = Paths.get(localBaseDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile();
+        assertFalse(localFile.exists());
+        assertFalse(new File(localFile.getPath() + JenkinsPluginGetter.RACE_SUFFIX).exists());
+        assertFalse(new File(localFile.getPath() + JenkinsPluginGetter.RACE_SUFFIX + PluginServerDownloader.PART_SUFFIX).exists());
     }
 
     @Test
-    public void testDownloadFromPluginServer() throws Exception {
+    public void testDryRunWritesPlanWithoutDownloading() throws Exception {
         File downloadDir = temporaryFolder.newFolder();
+        File planDirectory = new File(temporaryFolder.getRoot(), "plan");
 
         String config = " <artifact>jenkins-plugin1:1.1</artifact>\n" +
                 "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
-                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>";
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<dryRun>true</dryRun>\n" +
+                "<planDirectory>" + planDirectory.getAbsolutePath() + "</planDirectory>";
 
         String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
         MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
         MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
-        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.1", "jenkins-plugin1:1.2,jenkins-plugin1:1.3");
-        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.2", "jenkins-plugin1:1.1");
-        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.3", "jenkins-plugin1:1.1");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.1", "jenkins-plugin2:1.0,jenkins-plugin3:1.0;resolution:=optional");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "jenkins-plugin3:1.1");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin3", "1.0", "");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin3", "1.1", "");
 
         MojoExecution execution = newMojoExecution( "get" );
         GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
 
-        assertTrue(downloadDir.listFiles().length == 0);
+        getMojo.execute();
+
+        assertEquals(0, downloadDir.list().length);
+        assertFalse(Paths.get(localBaseDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
+
+        JsonObject plan = JsonParser.parseString(FileUtils.readFileToString(new File(planDirectory, "plan.json"), "UTF-8")).getAsJsonObject();
+        assertEquals(3, plan.getAsJsonArray("plugins").size());
+        assertEquals(3, plan.getAsJsonArray("edges").size());
+        boolean foundOptionalEdge = false;
+        for (JsonElement element : plan.getAsJsonArray("edges")) {
+            JsonObject edge = element.getAsJsonObject();
+            if (edge.get("from").getAsString().equals("org.jenkins-ci.plugins:jenkins-plugin1:1.1")
+                    && edge.get("requestedVersion").getAsString().equals("1.0")
+                    && edge.get("to").getAsString().equals("org.jenkins-ci.plugins:jenkins-plugin3:1.1")) {
+                assertTrue(edge.get("optional").getAsBoolean());
+                foundOptionalEdge = true;
+            }
+        }
+        assertTrue(foundOptionalEdge);
+
+        String dot = FileUtils.readFileToString(new File(planDirectory, "plan.dot"), "UTF-8");
+        assertTrue(dot.startsWith("digraph plugins {"));
+        assertTrue(dot.contains("\"org.jenkins-ci.plugins:jenkins-plugin2:1.0\" -> \"org.jenkins-ci.plugins:jenkins-plugin3:1.1\""));
+    }
+
+    @Test
+    public void testWriteAndDownloadFromLockfile() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File lockfile = new File(temporaryFolder.getRoot(), "plugins.lock.json");
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<lockfile>" + lockfile.getAbsolutePath() + "</lockfile>";
 
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
         getMojo.execute();
 
-        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.1/jenkins-plugin1-1.1.hpi").toFile().exists());
-        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.2/jenkins-plugin1-1.2.hpi").toFile().exists());
-        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.3/jenkins-plugin1-1.3.hpi").toFile().exists());
+        JsonObject locked = JsonParser.parseString(FileUtils.readFileToString(lockfile, "UTF-8")).getAsJsonObject();
+        assertEquals(2, locked.getAsJsonArray("plugins").size());
+        JsonObject plugin1 = locked.getAsJsonArray("plugins").get(0).getAsJsonObject();
+        assertEquals("jenkins-plugin1", plugin1.get("artifactId").getAsString());
+        assertEquals("PLUGIN_SERVER", plugin1.get("source").getAsString());
+        assertEquals("REPOSITORY", locked.getAsJsonArray("plugins").get(1).getAsJsonObject().get("source").getAsString());
+
+        //a clean machine downloads the locked plugins
+        FileUtils.deleteDirectory(downloadDir);
+        FileUtils.deleteDirectory(Paths.get(localBaseDir.getAbsolutePath(), "org/jenkins-ci/plugins").toFile());
+        getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+
+        //a plugin that doesn't match the lockfile fails the build
+        FileUtils.write(lockfile, FileUtils.readFileToString(lockfile, "UTF-8")
+                .replace(plugin1.get("sha256").getAsString(), Hex.encodeHexString(new byte[32])), "UTF-8");
+        FileUtils.deleteDirectory(downloadDir);
+        FileUtils.deleteDirectory(Paths.get(localBaseDir.getAbsolutePath(), "org/jenkins-ci/plugins").toFile());
+        getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+        try {
+            getMojo.execute();
+            fail("the checksum mismatch should fail the build");
+        } catch (MojoExecutionException e) {
+            assertTrue(e.getMessage().contains("checksum"));
+        }
+        assertFalse(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+    }
+
+    @Test
+    public void testLockfileWithOtherSettingsIsResolvedAgain() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File lockfile = new File(temporaryFolder.getRoot(), "plugins.lock.json");
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<lockfile>" + lockfile.getAbsolutePath() + "</lockfile>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+        getMojo.execute();
+
+        JsonObject locked = JsonParser.parseString(FileUtils.readFileToString(lockfile, "UTF-8")).getAsJsonObject();
+        assertEquals("HIGHEST", locked.get("versionMediation").getAsString());
+        assertEquals("INCLUDE", locked.get("optionalDependencies").getAsString());
+        String sha256 = locked.getAsJsonArray("plugins").get(0).getAsJsonObject().get("sha256").getAsString();
+
+        //a lockfile for other settings isn't used, so its wrong checksum doesn't matter
+        FileUtils.write(lockfile, FileUtils.readFileToString(lockfile, "UTF-8")
+                .replace(sha256, Hex.encodeHexString(new byte[32])), "UTF-8");
+        FileUtils.deleteDirectory(downloadDir);
+        getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+        setVariableValueToObject(getMojo, "optionalDependencies", OptionalDependencies.EXCLUDE);
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        locked = JsonParser.parseString(FileUtils.readFileToString(lockfile, "UTF-8")).getAsJsonObject();
+        assertEquals("EXCLUDE", locked.get("optionalDependencies").getAsString());
+        assertEquals(sha256, locked.getAsJsonArray("plugins").get(0).getAsJsonObject().get("sha256").getAsString());
+    }
+
+    @Test
+    public void testWriteDownloadReport() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File reportFile = new File(temporaryFolder.getRoot(), "report.json");
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<reportFile>" + reportFile.getAbsolutePath() + "</reportFile>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+        getMojo.execute();
+
+        JsonObject report = JsonParser.parseString(FileUtils.readFileToString(reportFile, "UTF-8")).getAsJsonObject();
+        JsonObject artifacts = report.getAsJsonObject("artifacts");
+        JsonObject plugin1 = artifacts.getAsJsonObject("org.jenkins-ci.plugins:jenkins-plugin1:1.0");
+        JsonObject plugin2 = artifacts.getAsJsonObject("org.jenkins-ci.plugins:jenkins-plugin2:1.0");
+        assertEquals("PLUGIN_SERVER", plugin1.get("source").getAsString());
+        assertEquals(Paths.get(jettyNexusBaseDir.getAbsolutePath(), PLUGIN_SERVER_DIR, "jenkins-plugin1", "1.0", "jenkins-plugin1.hpi").toFile().length(),
+                plugin1.get("bytes").getAsLong());
+        assertTrue(plugin1.getAsJsonObject("phaseMillis").has("PLUGIN_SERVER"));
+        assertTrue(plugin1.getAsJsonObject("phaseMillis").has("COPY"));
+        assertEquals("REPOSITORY", plugin2.get("source").getAsString());
+        assertTrue(plugin2.get("bytes").getAsLong() > 0);
+        assertEquals(plugin1.get("bytes").getAsLong() + plugin2.get("bytes").getAsLong(),
+                report.get("totalBytes").getAsLong());
+    }
+
+    @Test
+    public void testOptionalDependenciesIncludedIfRequired() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<optionalDependencies>INCLUDE_IF_REQUIRED</optionalDependencies>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0",
+                "jenkins-plugin2:1.1;resolution:=optional,jenkins-plugin3:1.0,jenkins-plugin4:1.0;resolution:=optional");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.1", "");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin3", "1.0", "jenkins-plugin2:1.0");
+        createMavenFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin4", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin3/1.0/jenkins-plugin3-1.0.hpi").toFile().exists());
+        //plugin3 requires plugin2, so the optional dependency of plugin1 decides its version
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.1/jenkins-plugin2-1.1.hpi").toFile().exists());
+        assertFalse(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0").toFile().exists());
+        //nothing else requires plugin4
+        assertFalse(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin4").toFile().exists());
+    }
+
+    @Test
+    public void testDownloadFromPluginServerWithThrottling() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        File reportFile = new File(temporaryFolder.getRoot(), "report.json");
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<threads>2</threads>\n" +
+                "<maxDownloadsPerHost>1</maxDownloadsPerHost>\n" +
+                "<maxBytesPerSecond>4000</maxBytesPerSecond>\n" +
+                "<reportFile>" + reportFile.getAbsolutePath() + "</reportFile>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+        long start = System.nanoTime();
+        getMojo.execute();
+        long elapsedMillis = (System.nanoTime() - start) / 1000000;
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+        JsonObject report = JsonParser.parseString(FileUtils.readFileToString(reportFile, "UTF-8")).getAsJsonObject();
+        long totalBytes = report.get("totalBytes").getAsLong();
+        //the bytes can't arrive faster than the limit, apart from the burst the bucket starts with
+        assertTrue(elapsedMillis >= (totalBytes - 400) * 1000 / 4000);
+        assertTrue(report.get("throttledMillis").getAsLong() > 0);
+    }
+
+    @Test
+    public void testDownloadFromPluginServerWithAsyncDownloadEngine() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+
+        String config = " <artifact>jenkins-plugin1:1.0</artifact>\n" +
+                "<downloadDir>"+ downloadDir.getAbsolutePath() + "</downloadDir>\n" +
+                "<jenkinsPluginServerUrl>http://localhost:" + httpPort + "/pluginServer/</jenkinsPluginServerUrl>\n" +
+                "<threads>1</threads>\n" +
+                "<manifestProbe>true</manifestProbe>\n" +
+                "<downloadEngine>ASYNC</downloadEngine>";
+
+        String url = "http://localhost:" + httpPort + NEXUS_URL_REPOSITORY_THIRDPARTY;
+        MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config, url).getParentFile(), url);
+        MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin1", "1.0", "jenkins-plugin2:1.0,jenkins-plugin3:1.0");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin2", "1.0", "");
+        createPluginServerFiles(jettyNexusBaseDir, "org.jenkins-ci.plugins", "jenkins-plugin3", "1.0", "");
+
+        MojoExecution execution = newMojoExecution( "get" );
+        GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+        getMojo.execute();
+
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin1/1.0/jenkins-plugin1-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin2/1.0/jenkins-plugin2-1.0.hpi").toFile().exists());
+        assertTrue(Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins/jenkins-plugin3/1.0/jenkins-plugin3-1.0.hpi").toFile().exists());
+        //nothing is left half written
+        assertTrue(FileUtils.listFiles(downloadDir, new String[] {PluginServerDownloader.PART_SUFFIX.substring(1)}, true).isEmpty());
+    }
+
+    /**
+     * Runs the mojo against a synthetic plugin graph.  The defaults keep it quick; scale it up with system
+     * properties, i.e. -Dload.pluginsPerLayer=200 -Dload.depth=5 -Dload.latency=50 -Dload.bytesPerSecond=1000000,
+     * which also prints the measurements.
+     */
+    @Test
+    public void testLoadWithSyntheticPluginServer() throws Exception {
+        File downloadDir = temporaryFolder.newFolder();
+        int threads = Integer.getInteger("load.threads", 8);
+        SyntheticPluginServer server = new SyntheticPluginServer.Builder()
+                .setDepth(Integer.getInteger("load.depth", 3))
+                .setPluginsPerLayer(Integer.getInteger("load.pluginsPerLayer", 10))
+                .setFanOut(Integer.getInteger("load.fanOut", 3))
+                .setDiamondRate(Double.parseDouble(System.getProperty("load.diamondRate", "0.2")))
+                .setHpiSize(Integer.getInteger("load.hpiSize", 16 * 1024))
+                .setLatency(Long.getLong("load.latency", 5))
+                .setBytesPerSecond(Long.getLong("load.bytesPerSecond", 0))
+                .setErrorRate(Double.parseDouble(System.getProperty("load.errorRate", "0.02")))
+                .setSeed(Long.getLong("load.seed", 1))
+                .setBaseDir(temporaryFolder.newFolder("synthetic"))
+                .build();
+        server.start();
+        try {
+            StringBuilder config = new StringBuilder("<plugins>\n");
+            for (String root : server.getRoots()) {
+                config.append("<plugin>").append(root).append(':').append(SyntheticPluginServer.VERSION).append("</plugin>\n");
+            }
+            config.append("</plugins>\n")
+                    .append("<downloadDir>").append(downloadDir.getAbsolutePath()).append("</downloadDir>\n")
+                    .append("<jenkinsPluginServerUrl>").append(server.getPluginServerUrl()).append("</jenkinsPluginServerUrl>\n")
+                    .append("<threads>").append(threads).append("</threads>\n")
+                    .append("<pluginServerRetryBackoff>10</pluginServerRetryBackoff>\n")
+                    .append("<useManifestCache>false</useManifestCache>\n")
+                    .append("<repositoryMissCacheTtl>0</repositoryMissCacheTtl>");
+
+            String url = server.getRepositoryUrl();
+            MavenProject mavenProject = readMavenProject(new TestProjectConfig(temporaryFolder).getFile(config.toString(), url).getParentFile(), url);
+            MavenSession session = finishSessionCreation(newMavenSession( mavenProject ), mavenProject.getRemoteArtifactRepositories());
+
+            MojoExecution execution = newMojoExecution( "get" );
+            GetMojo getMojo = (GetMojo) lookupConfiguredMojo( session, execution );
+
+            final MemoryMXBean memoryMXBean = ManagementFactory.getMemoryMXBean();
+            final AtomicLong peakHeap = new AtomicLong(memoryMXBean.getHeapMemoryUsage().getUsed());
+            final AtomicBoolean running = new AtomicBoolean(true);
+            Thread sampler = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    while (running.get()) {
+                        peakHeap.set(Math.max(peakHeap.get(), memoryMXBean.getHeapMemoryUsage().getUsed()));
+                        try {
+                            Thread.sleep(10);
+                        } catch (InterruptedException e) {
+                            return;
+                        }
+                    }
+                }
+            });
+            sampler.setDaemon(true);
+            sampler.start();
+            long start = System.nanoTime();
+            try {
+                getMojo.execute();
+            } finally {
+                running.set(false);
+                sampler.join();
+            }
+            long wallTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+            if (isLoadRun()) {
+                System.out.println(String.format("%d plugins in %dms with %d threads: %d requests, %d errors injected, "
+                                + "%d connections, %d requests in flight at most, peak heap %dMB",
+                        server.getPlugins().size(), wallTime, threads, server.getRequests(), server.getErrors(),
+                        server.getConnections(), server.getPeakInFlight(), peakHeap.get() / (1024 * 1024)));
+            }
+
+            for (String plugin : server.getPlugins()) {
+                assertTrue(plugin + " wasn't downloaded", Paths.get(downloadDir.getAbsolutePath(), "org/jenkins-ci/plugins",
+                        plugin, SyntheticPluginServer.VERSION, plugin + "-" + SyntheticPluginServer.VERSION + ".hpi").toFile().exists());
+            }
+            //the pooled connections are reused instead of opening one per request
+            assertTrue(server.getConnections() < server.getRequests());
+        } finally {
+            server.stop();
+        }
+    }
+
+    /**
+     * @return true if the load test was scaled with a load.* property, not just run with the suite.
+     */
+    private static boolean isLoadRun() {
+        for (String name : System.getProperties().stringPropertyNames()) {
+            if (name.startsWith("load.")) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private int countRepositoryRequests(String artifactId) {
+        int count = 0;
+        for (String requestUri : nexusServlet.requestUris) {
+            if (requestUri.startsWith(NEXUS_URL_REPOSITORY_THIRDPARTY) && requestUri.contains(artifactId)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private Server startMirror(NexusServlet servlet, int port) throws Exception {
+        Server server = new Server();
+        ServerConnector httpConnector = new ServerConnector(server);
+        ServletHandler servletHandler = new ServletHandler();
+        servletHandler.addServletWithMapping(new ServletHolder(servlet), "/"+ PLUGIN_SERVER_DIR + "/*");
+        httpConnector.setPort(port);
+        server.setConnectors(new Connector[] {httpConnector});
+        server.setHandler(servletHandler);
+        server.start();
+        return server;
     }
 
     private void createPluginServerFiles(File localBaseDir, String groupId, String artifactId, String version, String pluginDependencies) throws IOException, ManifestException {
@@ -348,6 +1732,13 @@ public class GetMojoTest extends AbstractMojoTestCase {
     public static class NexusServlet extends HttpServlet {
 
         private final File baseDir;
+        private volatile boolean supportRanges = true;
+        private volatile int errorStatus;
+        private volatile long responseDelay;
+        private volatile String delayedSuffix;
+        private final AtomicInteger rangeRequests = new AtomicInteger();
+        private final AtomicInteger requests = new AtomicInteger();
+        private final List<String> requestUris = new CopyOnWriteArrayList<>();
 
         public NexusServlet(File baseDir) {
             this.baseDir = baseDir;
@@ -359,6 +1750,21 @@ public class GetMojoTest extends AbstractMojoTestCase {
                 HttpServletResponse response)
                 throws ServletException, IOException {
 
+            requests.incrementAndGet();
+            requestUris.add(request.getRequestURI());
+            if (responseDelay > 0 && (delayedSuffix == null || request.getRequestURI().endsWith(delayedSuffix))) {
+                try {
+                    Thread.sleep(responseDelay);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (errorStatus != 0) {
+                response.setStatus(errorStatus);
+                return;
+            }
+
             File file = null;
             if (request.getRequestURI().contains(PLUGIN_SERVER_DIR)) {
                 file = Paths.get(Paths.get(baseDir.toPath().toString(), PLUGIN_SERVER_DIR).toString(), request.getPathInfo()).toFile();
@@ -382,6 +1788,25 @@ public class GetMojoTest extends AbstractMojoTestCase {
                         "    <lastUpdated>20200608005752</lastUpdated>\n" +
                         "  </versioning>\n" +
                         "</metadata>\n");
+            } else if (file.exists() && supportRanges && request.getHeader("Range") != null) {
+                rangeRequests.incrementAndGet();
+                byte[] bytes = FileUtils.readFileToByteArray(file);
+                String range = request.getHeader("Range").replace("bytes=", "");
+                int start;
+                int end = bytes.length - 1;
+                if (range.startsWith("-")) {
+                    start = Math.max(0, bytes.length - Integer.parseInt(range.substring(1)));
+                } else {
+                    String[] parts = range.split("-");
+                    start = Integer.parseInt(parts[0]);
+                    if (parts.length > 1) {
+                        end = Math.min(end, Integer.parseInt(parts[1]));
+                    }
+                }
+                response.setStatus(HttpServletResponse.SC_PARTIAL_CONTENT);
+                response.setHeader("Content-Range", "bytes " + start + "-" + end + "/" + bytes.length);
+                response.getOutputStream().write(bytes, start, end - start + 1);
+                return;
             } else if (file.exists()) {
                 try (FileInputStream fileInputStream = new FileInputStream(file)) {
                     response.setStatus(HttpServletResponse.SC_OK);
@@ -0,0 +1,63 @@
+package com.github.vincentrussell;
+
+import com.google.common.collect.Lists;
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class ManifestCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void savedEntriesAreReadBack() throws IOException {
+        File cacheFile = new File(temporaryFolder.getRoot(), "cache/manifest-cache.json");
+        File hpi = temporaryFolder.newFile("plugin.hpi");
+        FileUtils.writeStringToFile(hpi, "hpi", "UTF-8");
+        List<PluginDependency> dependencies = Lists.newArrayList(
+                new PluginDependency("org.jenkins-ci.plugins", "workflow-api", "2.40", true),
+                new PluginDependency("org.jenkins-ci.plugins", "structs", "1.20", false));
+
+        ManifestCache manifestCache = ManifestCache.load(cacheFile, 10);
+        manifestCache.put("org.jenkins-ci.plugins:plugin:1.0", hpi, dependencies);
+        manifestCache.save();
+
+        ManifestCache reloaded = ManifestCache.load(cacheFile, 10);
+        assertEquals(dependencies, reloaded.get("org.jenkins-ci.plugins:plugin:1.0", hpi));
+    }
+
+    @Test
+    public void changedFileInvalidatesEntry() throws IOException {
+        File hpi = temporaryFolder.newFile("plugin.hpi");
+        FileUtils.writeStringToFile(hpi, "hpi", "UTF-8");
+
+        ManifestCache manifestCache = ManifestCache.load(new File(temporaryFolder.getRoot(), "manifest-cache.json"), 10);
+        manifestCache.put("org.jenkins-ci.plugins:plugin:1.0", hpi, Lists.<PluginDependency>newArrayList());
+        FileUtils.writeStringToFile(hpi, "a different hpi", "UTF-8");
+
+        assertNull(manifestCache.get("org.jenkins-ci.plugins:plugin:1.0", hpi));
+    }
+
+    @Test
+    public void leastRecentlyUsedEntryIsEvicted() throws IOException {
+        File hpi = temporaryFolder.newFile("plugin.hpi");
+        ManifestCache manifestCache = ManifestCache.load(new File(temporaryFolder.getRoot(), "manifest-cache.json"), 2);
+        manifestCache.put("a", hpi, Lists.<PluginDependency>newArrayList());
+        manifestCache.put("b", hpi, Lists.<PluginDependency>newArrayList());
+        manifestCache.get("a", hpi);
+        manifestCache.put("c", hpi, Lists.<PluginDependency>newArrayList());
+
+        assertEquals(2, manifestCache.size());
+        assertNull(manifestCache.get("b", hpi));
+        assertEquals(0, manifestCache.get("a", hpi).size());
+    }
+}
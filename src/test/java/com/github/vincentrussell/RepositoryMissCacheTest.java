@@ -0,0 +1,62 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RepositoryMissCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void savedMissesAreReadBack() throws IOException {
+        File cacheFile = new File(temporaryFolder.getRoot(), "cache/repository-misses.json");
+
+        RepositoryMissCache repositoryMissCache = RepositoryMissCache.load(cacheFile, 60000);
+        repositoryMissCache.recordMiss("org.jenkins-ci.plugins", "plugin");
+        repositoryMissCache.save();
+
+        RepositoryMissCache reloaded = RepositoryMissCache.load(cacheFile, 60000);
+        assertTrue(reloaded.isMiss("org.jenkins-ci.plugins", "plugin"));
+        assertFalse(reloaded.isMiss("org.jenkins-ci.plugins", "other-plugin"));
+    }
+
+    @Test
+    public void hitForgetsMiss() {
+        RepositoryMissCache repositoryMissCache = RepositoryMissCache.load(
+                new File(temporaryFolder.getRoot(), "repository-misses.json"), 60000);
+        repositoryMissCache.recordMiss("org.jenkins-ci.plugins", "plugin");
+        repositoryMissCache.recordHit("org.jenkins-ci.plugins", "plugin");
+
+        assertFalse(repositoryMissCache.isMiss("org.jenkins-ci.plugins", "plugin"));
+    }
+
+    @Test
+    public void expiredMissesAreIgnoredAndNotSaved() throws IOException, InterruptedException {
+        File cacheFile = new File(temporaryFolder.getRoot(), "repository-misses.json");
+        RepositoryMissCache repositoryMissCache = RepositoryMissCache.load(cacheFile, 1);
+        repositoryMissCache.recordMiss("org.jenkins-ci.plugins", "plugin");
+        Thread.sleep(10);
+
+        assertFalse(repositoryMissCache.isMiss("org.jenkins-ci.plugins", "plugin"));
+        repositoryMissCache.save();
+        assertEquals(0, RepositoryMissCache.load(cacheFile, 1).size());
+    }
+
+    @Test
+    public void unreadableFileResultsInEmptyCache() throws IOException {
+        File cacheFile = temporaryFolder.newFile("repository-misses.json");
+        FileUtils.writeStringToFile(cacheFile, "not json {", "UTF-8");
+
+        assertEquals(0, RepositoryMissCache.load(cacheFile, 60000).size());
+    }
+}
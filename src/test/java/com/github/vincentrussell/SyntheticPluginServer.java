@@ -0,0 +1,391 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.io.FileUtils;
+import org.eclipse.jetty.server.Connector;
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.servlet.ServletHandler;
+import org.eclipse.jetty.servlet.ServletHolder;
+
+import javax.servlet.http.HttpServlet;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+
+/**
+ * A stand-in for a Nexus repository and the Jenkins plugin server, serving a generated plugin graph
+ * with injected latency, bandwidth limits and errors, for load tests that run offline.
+ * <p>
+ * The plugins are generated in layers: the first layer are the roots and every plugin depends on
+ * fanOut plugins of the next layer.  With a diamond rate, that share of the dependencies points at
+ * the first plugin of the next layer instead, which many plugins then have in common.  Every plugin
+ * is on the plugin server; the maven repository has the share given by repositoryShare.
+ */
+public class SyntheticPluginServer {
+
+    public static final String GROUP_ID = PluginDependency.DEFAULT_GROUP_ID;
+    public static final String VERSION = "1.0";
+    public static final String REPOSITORY_PATH = "/repository/synthetic/";
+    public static final String PLUGIN_SERVER_PATH = "/pluginServer/";
+
+    private final int depth;
+    private final int pluginsPerLayer;
+    private final int fanOut;
+    private final double diamondRate;
+    private final double repositoryShare;
+    private final int hpiSize;
+    private final long latency;
+    private final long bytesPerSecond;
+    private final double errorRate;
+    private final long seed;
+    private final File baseDir;
+    private final List<String> plugins = new ArrayList<>();
+    private final List<String> roots = new ArrayList<>();
+    private final Set<String> connections = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+    private final AtomicInteger requests = new AtomicInteger();
+    private final AtomicInteger errors = new AtomicInteger();
+    private final ConcurrentMap<String, Random> errorRandoms = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private final AtomicInteger peakInFlight = new AtomicInteger();
+    private Server server;
+    private int port;
+
+    private SyntheticPluginServer(final Builder builder) {
+        this.depth = builder.depth;
+        this.pluginsPerLayer = builder.pluginsPerLayer;
+        this.fanOut = builder.fanOut;
+        this.diamondRate = builder.diamondRate;
+        this.repositoryShare = builder.repositoryShare;
+        this.hpiSize = builder.hpiSize;
+        this.latency = builder.latency;
+        this.bytesPerSecond = builder.bytesPerSecond;
+        this.errorRate = builder.errorRate;
+        this.seed = builder.seed;
+        this.baseDir = builder.baseDir;
+    }
+
+    /**
+     * Generates the plugins and starts the server on a free port.
+     */
+    public void start() throws Exception {
+        generate();
+        server = new Server();
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(0);
+        server.setConnectors(new Connector[] {connector});
+        ServletHandler servletHandler = new ServletHandler();
+        ServletHolder servletHolder = new ServletHolder(new SyntheticServlet());
+        servletHandler.addServletWithMapping(servletHolder, REPOSITORY_PATH + "*");
+        servletHandler.addServletWithMapping(servletHolder, PLUGIN_SERVER_PATH + "*");
+        server.setHandler(servletHandler);
+        server.start();
+        port = connector.getLocalPort();
+    }
+
+    public void stop() throws Exception {
+        if (server != null) {
+            server.stop();
+        }
+    }
+
+    public String getRepositoryUrl() {
+        return "http://localhost:" + port + REPOSITORY_PATH;
+    }
+
+    public String getPluginServerUrl() {
+        return "http://localhost:" + port + PLUGIN_SERVER_PATH;
+    }
+
+    /**
+     * @return the artifactIds of the first layer.
+     */
+    public List<String> getRoots() {
+        return Collections.unmodifiableList(roots);
+    }
+
+    /**
+     * @return the artifactIds of every plugin that is reachable from the roots.
+     */
+    public List<String> getPlugins() {
+        return Collections.unmodifiableList(plugins);
+    }
+
+    public int getRequests() {
+        return requests.get();
+    }
+
+    public int getErrors() {
+        return errors.get();
+    }
+
+    /**
+     * @return the number of distinct client connections, by remote port.
+     */
+    public int getConnections() {
+        return connections.size();
+    }
+
+    public int getPeakInFlight() {
+        return peakInFlight.get();
+    }
+
+    private void generate() throws IOException {
+        Random random = new Random(depth * 31L + pluginsPerLayer * 17L + fanOut);
+        Set<String> reachable = new LinkedHashSet<>();
+        for (int i = 0; i < pluginsPerLayer; i++) {
+            roots.add("synthetic-0-" + i);
+        }
+        reachable.addAll(roots);
+        for (int layer = 0; layer < depth; layer++) {
+            for (int i = 0; i < pluginsPerLayer; i++) {
+                Set<String> dependencies = new LinkedHashSet<>();
+                if (layer + 1 < depth) {
+                    for (int j = 0; j < fanOut; j++) {
+                        int target = random.nextDouble() < diamondRate ? 0
+                                : (i * fanOut + j) % pluginsPerLayer;
+                        dependencies.add("synthetic-" + (layer + 1) + "-" + target);
+                    }
+                }
+                String artifactId = "synthetic-" + layer + "-" + i;
+                if (reachable.contains(artifactId)) {
+                    reachable.addAll(dependencies);
+                }
+                File hpi = createHpi(artifactId, dependencies, random);
+                File pluginServerFile = Paths.get(baseDir.getAbsolutePath(), "pluginServer", artifactId, VERSION,
+                        artifactId + ".hpi").toFile();
+                FileUtils.copyFile(hpi, pluginServerFile);
+                if (random.nextDouble() < repositoryShare) {
+                    File repositoryFile = Paths.get(baseDir.getAbsolutePath(), "repository",
+                            GROUP_ID.replace('.', '/'), artifactId, VERSION, artifactId + "-" + VERSION + ".hpi").toFile();
+                    FileUtils.copyFile(hpi, repositoryFile);
+                }
+                FileUtils.deleteQuietly(hpi);
+            }
+        }
+        plugins.addAll(reachable);
+    }
+
+    private File createHpi(final String artifactId, final Set<String> dependencies, final Random random)
+            throws IOException {
+        StringBuilder attribute = new StringBuilder();
+        for (String dependency : dependencies) {
+            attribute.append(attribute.length() > 0 ? "," : "").append(dependency).append(':').append(VERSION);
+        }
+        Manifest manifest = new Manifest();
+        manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+        manifest.getMainAttributes().putValue("Short-Name", artifactId);
+        manifest.getMainAttributes().putValue("Plugin-Version", VERSION);
+        if (attribute.length() > 0) {
+            manifest.getMainAttributes().putValue(PluginDependency.PLUGIN_DEPENDENCIES, attribute.toString());
+        }
+        File hpi = new File(baseDir, artifactId + ".tmp");
+        FileUtils.forceMkdir(baseDir);
+        byte[] content = new byte[hpiSize];
+        random.nextBytes(content);
+        try (JarOutputStream jarOutputStream = new JarOutputStream(new FileOutputStream(hpi), manifest)) {
+            jarOutputStream.putNextEntry(new JarEntry("WEB-INF/lib/" + artifactId + ".jar"));
+            jarOutputStream.write(content);
+            jarOutputStream.closeEntry();
+        }
+        return hpi;
+    }
+
+    private class SyntheticServlet extends HttpServlet {
+
+        @Override
+        protected void doGet(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException {
+            requests.incrementAndGet();
+            connections.add(request.getRemoteAddr() + ":" + request.getRemotePort());
+            int current = inFlight.incrementAndGet();
+            int peak;
+            while (current > (peak = peakInFlight.get()) && !peakInFlight.compareAndSet(peak, current)) {
+                // another request raised the peak at the same time
+            }
+            try {
+                serve(request, response);
+            } finally {
+                inFlight.decrementAndGet();
+            }
+        }
+
+        private void serve(final HttpServletRequest request, final HttpServletResponse response)
+                throws IOException {
+            if (latency > 0) {
+                try {
+                    Thread.sleep(latency);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+            if (errorRate > 0 && isError(request.getRequestURI())) {
+                errors.incrementAndGet();
+                response.setStatus(HttpServletResponse.SC_SERVICE_UNAVAILABLE);
+                return;
+            }
+
+            String directory = request.getRequestURI().startsWith(PLUGIN_SERVER_PATH) ? "pluginServer" : "repository";
+            File file = Paths.get(baseDir.getAbsolutePath(), directory, request.getPathInfo()).toFile();
+            if (!file.isFile()) {
+                response.setStatus(HttpServletResponse.SC_NOT_FOUND);
+                return;
+            }
+            response.setStatus(HttpServletResponse.SC_OK);
+            response.setContentLengthLong(file.length());
+            try (InputStream inputStream = new FileInputStream(file)) {
+                write(inputStream, response.getOutputStream());
+            }
+        }
+
+        /**
+         * Every uri draws from its own random seeded by the seed and the uri, so the same requests fail in
+         * every run however the threads interleave.
+         */
+        private boolean isError(final String uri) {
+            Random random = errorRandoms.get(uri);
+            if (random == null) {
+                errorRandoms.putIfAbsent(uri, new Random(seed * 31 + uri.hashCode()));
+                random = errorRandoms.get(uri);
+            }
+            return random.nextDouble() < errorRate;
+        }
+
+        /**
+         * Writes in chunks of a tenth of a second's worth of bytes, pausing so the rate isn't exceeded.
+         */
+        private void write(final InputStream inputStream, final OutputStream outputStream) throws IOException {
+            byte[] buffer = new byte[bytesPerSecond > 0 ? (int) Math.max(1, Math.min(65536, bytesPerSecond / 10)) : 65536];
+            long start = System.nanoTime();
+            long written = 0;
+            int read;
+            while ((read = inputStream.read(buffer)) != -1) {
+                outputStream.write(buffer, 0, read);
+                written += read;
+                if (bytesPerSecond > 0) {
+                    long due = written * 1000 / bytesPerSecond - (System.nanoTime() - start) / 1000000;
+                    if (due > 0) {
+                        outputStream.flush();
+                        try {
+                            Thread.sleep(due);
+                        } catch (InterruptedException e) {
+                            Thread.currentThread().interrupt();
+                            return;
+                        }
+                    }
+                }
+            }
+        }
+    }
+
+    public static class Builder {
+        private int depth = 3;
+        private int pluginsPerLayer = 10;
+        private int fanOut = 3;
+        private double diamondRate = 0.2;
+        private double repositoryShare = 0.5;
+        private int hpiSize = 16 * 1024;
+        private long latency;
+        private long bytesPerSecond;
+        private double errorRate;
+        private long seed;
+        private File baseDir;
+
+        public Builder setDepth(int depth) {
+            this.depth = depth;
+            return this;
+        }
+
+        public Builder setPluginsPerLayer(int pluginsPerLayer) {
+            this.pluginsPerLayer = pluginsPerLayer;
+            return this;
+        }
+
+        public Builder setFanOut(int fanOut) {
+            this.fanOut = fanOut;
+            return this;
+        }
+
+        public Builder setDiamondRate(double diamondRate) {
+            this.diamondRate = diamondRate;
+            return this;
+        }
+
+        public Builder setRepositoryShare(double repositoryShare) {
+            this.repositoryShare = repositoryShare;
+            return this;
+        }
+
+        public Builder setHpiSize(int hpiSize) {
+            this.hpiSize = hpiSize;
+            return this;
+        }
+
+        /**
+         * @param latency milliseconds every request waits before it is answered.
+         */
+        public Builder setLatency(long latency) {
+            this.latency = latency;
+            return this;
+        }
+
+        /**
+         * @param bytesPerSecond the rate every response is limited to, 0 for no limit.
+         */
+        public Builder setBytesPerSecond(long bytesPerSecond) {
+            this.bytesPerSecond = bytesPerSecond;
+            return this;
+        }
+
+        /**
+         * @param errorRate the share of requests answered with 503.
+         */
+        public Builder setErrorRate(double errorRate) {
+            this.errorRate = errorRate;
+            return this;
+        }
+
+        /**
+         * @param seed decides which requests are answered with 503.
+         */
+        public Builder setSeed(long seed) {
+            this.seed = seed;
+            return this;
+        }
+
+        public Builder setBaseDir(File baseDir) {
+            this.baseDir = baseDir;
+            return this;
+        }
+
+        public SyntheticPluginServer build() {
+            if (baseDir == null) {
+                throw new IllegalArgumentException("baseDir is null");
+            }
+            if (depth < 1 || pluginsPerLayer < 1 || fanOut < 1 || fanOut > pluginsPerLayer) {
+                throw new IllegalArgumentException("depth and pluginsPerLayer must be at least 1 and fanOut "
+                        + "between 1 and pluginsPerLayer");
+            }
+            return new SyntheticPluginServer(this);
+        }
+    }
+}
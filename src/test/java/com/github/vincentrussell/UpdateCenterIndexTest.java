@@ -0,0 +1,66 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.io.IOUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class UpdateCenterIndexTest {
+
+    @Test
+    public void parseUpdateCenterJson() throws IOException {
+        UpdateCenterIndex index = UpdateCenterIndex.parse(readResource("/update-center.json"));
+
+        assertEquals(3, index.size());
+        assertEquals("E6lnb1Kc4KxFmyCCrU4q37kPpvO2ShbP8MKdBEAqoqE=", index.getPlugin("workflow-api", "2.40").getSha256());
+
+        List<PluginDependency> dependencies = index.getDependencies("workflow-api", "2.40");
+        assertEquals(3, dependencies.size());
+        assertEquals(new PluginDependency("org.jenkins-ci.plugins", "scm-api", "2.2.6", false), dependencies.get(0));
+        assertEquals(new PluginDependency("org.jenkins-ci.plugins.workflow", "workflow-step-api", "2.22", false), dependencies.get(1));
+        assertEquals(new PluginDependency("org.jenkins-ci.plugins", "structs", "1.20", true), dependencies.get(2));
+
+        assertNull(index.getDependencies("workflow-api", "2.39"));
+        assertNull(index.getDependencies("does-not-exist", "1.0"));
+    }
+
+    @Test
+    public void parsePluginVersionsJson() throws IOException {
+        UpdateCenterIndex index = UpdateCenterIndex.parse(readResource("/plugin-versions.json"));
+
+        assertEquals(1, index.size());
+        assertEquals(0, index.getDependencies("structs", "1.19").size());
+        assertEquals("two=", index.getPlugin("structs", "1.20").getSha256());
+        assertEquals(new PluginDependency("org.jenkins-ci.plugins", "workflow-step-api", "2.22", true),
+                index.getDependencies("structs", "1.20").get(0));
+    }
+
+    @Test
+    public void groupIdOfPlugin() throws IOException {
+        UpdateCenterIndex index = UpdateCenterIndex.parse("{\"plugins\": {\"moved\": {" +
+                "\"1.0\": {\"version\": \"1.0\", \"gav\": \"org.jenkins-ci.plugins:moved:1.0\"}," +
+                "\"2.0\": {\"version\": \"2.0\", \"gav\": \"io.jenkins.plugins:moved:2.0\"}," +
+                "\"1.5\": {\"version\": \"1.5\", \"gav\": \"org.jenkins-ci.plugins:moved:1.5\"}}}}");
+
+        assertEquals("org.jenkins-ci.plugins", index.getGroupId("moved", "1.0"));
+        // a version the index doesn't know gets the group of the newest one
+        assertEquals("io.jenkins.plugins", index.getGroupId("moved", "3.0"));
+        assertNull(index.getGroupId("does-not-exist", "1.0"));
+    }
+
+    @Test
+    public void parseManifestDependency() {
+        assertEquals(new PluginDependency("org.jenkins-ci.plugins", "workflow-api", "2.40", true),
+                PluginDependency.parse("workflow-api:2.40;resolution:=optional"));
+        assertEquals(new PluginDependency("com.github.vincentrussell", "jenkins-plugin1", "1.2", false),
+                PluginDependency.parse("com.github.vincentrussell:jenkins-plugin1:1.2"));
+    }
+
+    private String readResource(final String name) throws IOException {
+        return IOUtils.toString(UpdateCenterIndexTest.class.getResourceAsStream(name), "UTF-8");
+    }
+}
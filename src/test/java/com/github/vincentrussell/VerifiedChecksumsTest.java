@@ -0,0 +1,49 @@
+package com.github.vincentrussell;
+
+import org.apache.commons.io.FileUtils;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class VerifiedChecksumsTest {
+
+    private static final String SHA_256 = "2cf24dba5fb0a30e26e83b2ac5b9e29e1b161e5c1fa7425e73043362938b9824";
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    @Test
+    public void checksumFollowsRename() throws IOException {
+        File from = temporaryFolder.newFile("plugin.hpi.jdp-race");
+        File to = new File(temporaryFolder.getRoot(), "plugin.hpi");
+        FileUtils.writeStringToFile(from, "hello", StandardCharsets.UTF_8);
+
+        VerifiedChecksums verifiedChecksums = new VerifiedChecksums();
+        verifiedChecksums.put(from, SHA_256.toUpperCase());
+        assertEquals(SHA_256, verifiedChecksums.get(from));
+
+        assertEquals(true, from.renameTo(to));
+        verifiedChecksums.move(from, to);
+        assertNull(verifiedChecksums.get(from));
+        assertEquals(SHA_256, verifiedChecksums.get(to));
+    }
+
+    @Test
+    public void changedFileIsNotTrusted() throws IOException {
+        File file = temporaryFolder.newFile("plugin.hpi");
+        FileUtils.writeStringToFile(file, "hello", StandardCharsets.UTF_8);
+
+        VerifiedChecksums verifiedChecksums = new VerifiedChecksums();
+        verifiedChecksums.put(file, SHA_256);
+        FileUtils.writeStringToFile(file, "hello, world", StandardCharsets.UTF_8);
+
+        assertNull(verifiedChecksums.get(file));
+    }
+}